@@ -27,14 +27,72 @@ public class AsyncConfig {
         return executor;
     }
 
+    /**
+     * 调度器派发的任务在此执行（整个任务的生命周期），线程数即在途任务上限
+     */
+    @Bean(name = "taskDispatchExecutor")
+    public Executor taskDispatchExecutor(SchedulerConfig schedulerConfig) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(schedulerConfig.getMaxInFlight());
+        executor.setMaxPoolSize(schedulerConfig.getMaxInFlight());
+        executor.setThreadNamePrefix("task-dispatch-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * AI提取阶段：执行单次提取尝试（含等待TPM额度和执行槽位）
+     * 线程数与并发上限一致；队列不设上限，重试调度线程提交时不会被拒绝或阻塞
+     */
     @Bean(name = "pythonProcessExecutor")
-    public Executor pythonProcessExecutor() {
+    public Executor pythonProcessExecutor(QwenConfig qwenConfig) {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(2);
-        executor.setMaxPoolSize(3);
-        executor.setQueueCapacity(50);
+        executor.setCorePoolSize(qwenConfig.getMaxConcurrent());
+        executor.setMaxPoolSize(qwenConfig.getMaxConcurrent());
         executor.setThreadNamePrefix("python-process-");
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 对冲执行：不设队列，没有空闲线程时立即拒绝，对冲不会排在正常执行之后等待
+     * 同时运行的进程数由执行槽位限制，线程数上限与并发上限一致
+     */
+    @Bean(name = "hedgeExecutor")
+    public Executor hedgeExecutor(QwenConfig qwenConfig) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(0);
+        executor.setMaxPoolSize(qwenConfig.getMaxConcurrent());
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("python-hedge-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 长轮询收到进度变化后读取完整响应，不占用Redis消息监听线程
+     * 队列满时拒绝（不在调用线程执行），长轮询随即返回，由客户端重新请求
+     */
+    @Bean(name = "progressReadExecutor")
+    public Executor progressReadExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(4);
+        executor.setQueueCapacity(500);
+        executor.setThreadNamePrefix("progress-read-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * OCR阶段：线程数即OCR并发数，队列即OCR等待队列
+     */
+    @Bean(name = "ocrStageExecutor")
+    public Executor ocrStageExecutor(PipelineConfig pipelineConfig) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(pipelineConfig.getOcrConcurrency());
+        executor.setMaxPoolSize(pipelineConfig.getOcrConcurrency());
+        executor.setThreadNamePrefix("ocr-stage-");
         executor.initialize();
         return executor;
     }
@@ -1,6 +1,7 @@
 package com.docextract.config;
 
 import com.docextract.entity.User;
+import com.docextract.repository.TaskRepository;
 import com.docextract.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -13,9 +14,14 @@ import org.springframework.stereotype.Component;
 public class DataInitializer implements CommandLineRunner {
 
     private final UserRepository userRepository;
+    private final TaskRepository taskRepository;
 
     @Override
     public void run(String... args) {
+        // 任务ID改为序列预分配后，已有任务的ID不能与之后分配的重复
+        long sequence = taskRepository.alignTaskIdSequence();
+        log.info("任务ID序列当前值: {}", sequence);
+
         // 创建默认admin账户
         if (!userRepository.existsByUsername("admin")) {
             User admin = User.builder()
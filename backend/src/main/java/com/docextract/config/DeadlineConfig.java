@@ -0,0 +1,40 @@
+package com.docextract.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 任务截止时间配置
+ * 每个任务在创建时确定一个截止时间，排队、OCR、AI提取、重试等待都受它约束，超过后不再处理
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "deadline")
+public class DeadlineConfig {
+
+    /**
+     * 默认的任务处理时限（秒），从创建时开始计算
+     */
+    private int defaultSeconds = 1800;
+
+    /**
+     * 创建任务时可指定的最长时限（秒）
+     */
+    private int maxSeconds = 7200;
+
+    /**
+     * 剩余时间不足该值（秒）时不再开始新的执行，直接判定超时
+     */
+    private int minRemainingSeconds = 5;
+
+    /**
+     * 创建任务时的处理时限（秒），未指定时使用默认值，超出范围时截断
+     */
+    public int secondsFor(Integer requestedSeconds) {
+        if (requestedSeconds == null || requestedSeconds <= 0) {
+            return defaultSeconds;
+        }
+        return Math.min(requestedSeconds, maxSeconds);
+    }
+}
@@ -0,0 +1,35 @@
+package com.docextract.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 剩余时间预估配置
+ * 按阶段、页数分档、文件类型和模型模式记录历史耗时，用条件分位数估算任务和批量任务的剩余时间
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "estimate")
+public class EstimateConfig {
+
+    /**
+     * 预估使用的分位数（0~1），0.5 为中位数
+     */
+    private double quantile = 0.5;
+
+    /**
+     * 一类的样本数达到该值后才使用，否则退回到更粗的分类
+     */
+    private int minSamples = 10;
+
+    /**
+     * 分位数的相对误差
+     */
+    private double relativeAccuracy = 0.02;
+
+    /**
+     * 启动时从数据库加载的最近完成任务数，节点重启后无需重新积累
+     */
+    private int warmupTasks = 2000;
+}
@@ -0,0 +1,50 @@
+package com.docextract.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 对冲执行配置
+ * AI提取耗时超过同类大小文档的历史分位数后，在有空闲槽位时再启动一次相同的执行，先成功的结果生效
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "hedging")
+public class HedgingConfig {
+
+    /**
+     * 是否启用对冲执行
+     */
+    private boolean enabled = true;
+
+    /**
+     * 触发对冲的耗时分位数（0~1）
+     */
+    private double percentile = 0.95;
+
+    /**
+     * 每类文档保留的最近耗时样本数
+     */
+    private int windowSize = 200;
+
+    /**
+     * 样本数达到该值后才开始对冲
+     */
+    private int minSamples = 20;
+
+    /**
+     * 对冲前的最短等待（秒），避免短任务频繁对冲
+     */
+    private int minDelaySeconds = 30;
+
+    /**
+     * 每次执行积累的对冲额度，即对冲次数占执行次数的比例上限
+     */
+    private double maxRatio = 0.05;
+
+    /**
+     * 对冲额度上限（允许短时间内集中对冲的次数）
+     */
+    private int burst = 3;
+}
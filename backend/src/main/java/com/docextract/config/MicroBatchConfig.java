@@ -0,0 +1,30 @@
+package com.docextract.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 小文档合并处理配置
+ * 同一批次中提取字段和模型模式相同的图片、单页PDF合并为一次工作进程调用，按文档拆分结果
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "micro-batch")
+public class MicroBatchConfig {
+
+    /**
+     * 是否合并处理小文档
+     */
+    private boolean enabled = true;
+
+    /**
+     * 页数不超过该值的文档视为小文档
+     */
+    private int maxPages = 1;
+
+    /**
+     * 每组最多合并的文档数（同时不超过 qwen.max-images）
+     */
+    private int maxDocs = 8;
+}
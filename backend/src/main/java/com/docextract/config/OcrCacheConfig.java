@@ -0,0 +1,39 @@
+package com.docextract.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * OCR结果缓存配置（MinerU输出的 full.md + images，按文件内容哈希存放）
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ocr-cache")
+public class OcrCacheConfig {
+
+    /**
+     * 是否启用OCR结果缓存
+     */
+    private boolean enabled = true;
+
+    /**
+     * 缓存根目录
+     */
+    private String dir = "./data/ocr-cache";
+
+    /**
+     * 磁盘配额（MB），超出时按最近使用时间淘汰
+     */
+    private long maxSizeMb = 10240;
+
+    /**
+     * 清理检查间隔（秒）
+     */
+    private int cleanupInterval = 600;
+
+    /**
+     * 最近使用过的条目在该时间内（分钟）不会被淘汰，避免删除正在使用的缓存
+     */
+    private int protectMinutes = 60;
+}
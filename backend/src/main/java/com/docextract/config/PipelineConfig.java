@@ -0,0 +1,30 @@
+package com.docextract.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 分阶段处理配置
+ * OCR阶段和AI提取阶段各自排队、各自限制并发，中间通过有界交接队列衔接
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "pipeline")
+public class PipelineConfig {
+
+    /**
+     * 是否分阶段执行（关闭时每个任务在一次执行中完成OCR和提取）
+     */
+    private boolean enabled = true;
+
+    /**
+     * OCR阶段并发数
+     */
+    private int ocrConcurrency = 2;
+
+    /**
+     * OCR完成后等待AI提取的任务上限，满时OCR阶段暂停接收新任务
+     */
+    private int handoffCapacity = 10;
+}
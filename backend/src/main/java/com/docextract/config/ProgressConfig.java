@@ -0,0 +1,25 @@
+package com.docextract.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 任务进度配置
+ * 进度先记录在本地内存，按固定间隔把有变化的任务批量写入Redis；任务结束的进度立即写入
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "progress")
+public class ProgressConfig {
+
+    /**
+     * 批量写入Redis的间隔（毫秒）
+     */
+    private long flushIntervalMs = 500;
+
+    /**
+     * Redis中进度记录的有效期（小时）
+     */
+    private int ttlHours = 24;
+}
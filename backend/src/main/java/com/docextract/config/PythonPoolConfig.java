@@ -0,0 +1,49 @@
+package com.docextract.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 常驻Python工作进程池配置
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "python.pool")
+public class PythonPoolConfig {
+
+    /**
+     * 是否启用常驻进程池（关闭时每个任务单独启动Python进程）
+     */
+    private boolean enabled = true;
+
+    /**
+     * 常驻工作进程数
+     */
+    private int size = 3;
+
+    /**
+     * 单个工作进程处理多少个任务后回收重启
+     */
+    private int maxJobsPerWorker = 50;
+
+    /**
+     * 是否在应用启动后预热工作进程
+     */
+    private boolean warmUp = true;
+
+    /**
+     * 工作进程启动超时时间（秒）
+     */
+    private int startupTimeout = 120;
+
+    /**
+     * 健康检查间隔（秒）
+     */
+    private int healthCheckInterval = 30;
+
+    /**
+     * 健康检查响应超时时间（秒）
+     */
+    private int healthCheckTimeout = 10;
+}
@@ -23,12 +23,37 @@ public class QwenConfig {
     private String model = "qwen-vl-max-latest";
 
     /**
-     * 最大并发处理数
+     * 最大并发处理数（自适应并发的上限）
      */
     private int maxConcurrent = 3;
 
     /**
-     * 单个任务超时时间（秒）
+     * 最小并发处理数（自适应并发的下限）
+     */
+    private int minConcurrent = 1;
+
+    /**
+     * 初始并发处理数
+     */
+    private int initialConcurrent = 3;
+
+    /**
+     * 是否根据延迟和限流错误自动调整并发数，关闭时固定为 maxConcurrent
+     */
+    private boolean adaptiveConcurrency = true;
+
+    /**
+     * 延迟容忍倍数：单次耗时超过基线延迟的该倍数时视为过载
+     */
+    private double latencyTolerance = 2.0;
+
+    /**
+     * 过载时并发数的收缩比例
+     */
+    private double backoffRatio = 0.75;
+
+    /**
+     * 单次执行超时时间（秒），实际不超过任务截止时间
      */
     private int taskTimeout = 600;
 
@@ -38,15 +63,45 @@ public class QwenConfig {
     private int maxRetries = 3;
 
     /**
-     * 重试间隔（秒）
+     * 重试基础间隔（秒），每次重试翻倍并加随机抖动
      */
     private int retryInterval = 5;
 
     /**
-     * TPM限制
+     * 重试最大间隔（秒）
+     */
+    private int maxRetryInterval = 60;
+
+    /**
+     * 每个新任务存入的重试额度（全局重试预算）
+     */
+    private double retryBudgetRatio = 0.2;
+
+    /**
+     * 重试额度上限，也是启动时的初始额度
+     */
+    private int retryBudgetMax = 20;
+
+    /**
+     * TPM限制（所有节点、所有工作进程共享）
      */
     private int maxTpm = 1000000;
 
+    /**
+     * 是否在Java端用全局令牌桶控制TPM（关闭时仅由各Python进程自行限流）
+     */
+    private boolean tpmLimitEnabled = true;
+
+    /**
+     * 每张图片预估消耗的token数，用于派发前估算任务开销
+     */
+    private int imageTokenEstimate = 1000;
+
+    /**
+     * 每页预估消耗的token数，尚无实际用量样本时用于派发前估算任务开销
+     */
+    private int pageTokenEstimate = 3000;
+
     /**
      * 单次最大图片数
      */
@@ -0,0 +1,34 @@
+package com.docextract.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 卡住任务的恢复配置（启动时及定期检查）
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "recovery")
+public class RecoveryConfig {
+
+    /**
+     * 是否启用任务恢复
+     */
+    private boolean enabled = true;
+
+    /**
+     * 处理中的任务超过该时间（分钟）没有更新，且没有节点在处理时视为卡住
+     */
+    private int staleMinutes = 30;
+
+    /**
+     * 检查间隔（秒）
+     */
+    private int interval = 60;
+
+    /**
+     * 每次检查最多恢复的任务数（恢复速率 = batch-size / interval，避免重启后瞬间涌入大量任务）
+     */
+    private int batchSize = 50;
+}
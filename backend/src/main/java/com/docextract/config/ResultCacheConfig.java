@@ -0,0 +1,29 @@
+package com.docextract.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 提取结果缓存配置（按文档内容 + 提取字段 + 模型模式缓存）
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "result-cache")
+public class ResultCacheConfig {
+
+    /**
+     * 是否启用结果缓存
+     */
+    private boolean enabled = true;
+
+    /**
+     * 缓存有效期（小时），命中时重新计时
+     */
+    private int ttlHours = 168;
+
+    /**
+     * 最大缓存条目数，超出时淘汰最久未使用的条目
+     */
+    private int maxEntries = 10000;
+}
@@ -0,0 +1,81 @@
+package com.docextract.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 任务调度配置（按用户公平排队、交互/批量优先级）
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "scheduler")
+public class SchedulerConfig {
+
+    /**
+     * 同时派发到处理流程中的任务数上限，其余任务在调度队列中排队
+     */
+    private int maxInFlight = 20;
+
+    /**
+     * 文件数不超过该值的上传视为交互任务，优先处理
+     */
+    private int interactiveMaxFiles = 1;
+
+    /**
+     * 批量任务排队超过该时间（秒）后与交互任务同等对待，避免饿死
+     */
+    private int agingSeconds = 60;
+
+    /**
+     * 默认用户权重
+     */
+    private int defaultWeight = 1;
+
+    /**
+     * 指定用户的权重（userId -> 权重），权重越大分到的处理份额越多
+     */
+    private Map<Long, Integer> userWeights = new HashMap<>();
+
+    /**
+     * 单个用户等待或处理中的任务数上限，超出时拒绝新上传
+     */
+    private int maxPendingPerUser = 1000;
+
+    /**
+     * 节点标识（为空时使用 进程号@主机名），用于标记任务租约的持有者
+     */
+    private String nodeId = "";
+
+    /**
+     * 从任务队列领取任务的轮询间隔（毫秒）
+     */
+    private long pollInterval = 1000;
+
+    /**
+     * 任务租约时长（秒），节点失联超过该时间后任务被其他节点接管
+     */
+    private int leaseSeconds = 60;
+
+    /**
+     * 租约续期间隔（秒）
+     */
+    private int heartbeatInterval = 15;
+
+    /**
+     * 回收过期租约的检查间隔（秒）
+     */
+    private int reclaimInterval = 30;
+
+    /**
+     * 租约过期被回收的次数上限，超过后任务标记失败（与用户手动重试的次数分开计算）
+     */
+    private int maxLeaseReclaims = 3;
+
+    public int weightOf(Long userId) {
+        return Math.max(1, userWeights.getOrDefault(userId, defaultWeight));
+    }
+}
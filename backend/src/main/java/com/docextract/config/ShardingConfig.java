@@ -0,0 +1,50 @@
+package com.docextract.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 大文档分片配置
+ * 页数较多的PDF按页码范围拆成多个分片并行OCR和提取，完成后合并结果
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "sharding")
+public class ShardingConfig {
+
+    /**
+     * 是否拆分大文档
+     */
+    private boolean enabled = true;
+
+    /**
+     * 页数超过该值的PDF才拆分
+     */
+    private int minPages = 60;
+
+    /**
+     * 每个分片的页数
+     */
+    private int pagesPerShard = 30;
+
+    /**
+     * 单个文档最多拆成的分片数，超出时加大每个分片的页数
+     */
+    private int maxShards = 10;
+
+    /**
+     * 指定页数的文档每个分片的页数，不需要拆分时返回 0
+     */
+    public int pagesPerShardFor(Integer pageCount) {
+        if (!enabled || pageCount == null || pageCount <= minPages) {
+            return 0;
+        }
+        int perShard = Math.max(1, pagesPerShard);
+        int maxShardCount = Math.max(1, maxShards);
+        if ((pageCount + perShard - 1) / perShard > maxShardCount) {
+            perShard = (pageCount + maxShardCount - 1) / maxShardCount;
+        }
+        return perShard < pageCount ? perShard : 0;
+    }
+}
@@ -1,22 +1,31 @@
 package com.docextract.controller;
 
+import com.docextract.dto.BatchProgressDTO;
 import com.docextract.dto.Response;
 import com.docextract.dto.TaskDTO;
 import com.docextract.dto.TaskProgressDTO;
+import com.docextract.service.ProgressBroadcaster;
 import com.docextract.service.TaskService;
 import jakarta.validation.constraints.NotNull;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api/tasks")
@@ -25,10 +34,14 @@ import java.util.concurrent.*;
 public class TaskController {
 
     private final TaskService taskService;
+    private final ProgressBroadcaster progressBroadcaster;
 
-    // SSE连接管理
-    private final ConcurrentHashMap<Long, SseEmitter> emitters = new ConcurrentHashMap<>();
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    // 长轮询被唤醒后读取完整响应的线程池
+    private final Executor progressReadExecutor;
+
+    // 长轮询的等待时间范围（毫秒）
+    private static final long MIN_POLL_WAIT_MS = 1000L;
+    private static final long MAX_POLL_WAIT_MS = 60000L;
 
     /**
      * 创建提取任务
@@ -39,18 +52,19 @@ public class TaskController {
             @RequestParam String extractFields,
             @RequestParam Long userId,
             @RequestParam(value = "modelMode", defaultValue = "normal") String modelMode,
+            @RequestParam(value = "deadlineSeconds", required = false) Integer deadlineSeconds,
             @RequestParam("files") MultipartFile[] files) {
 
-        log.info("创建任务: taskName={}, userId={}, modelMode={}, 文件数量={}", taskName, userId, modelMode, files.length);
+        log.info("创建任务: taskName={}, userId={}, modelMode={}, 文件数量={}, 时限={}s", taskName, userId, modelMode,
+                files.length, deadlineSeconds);
 
-        // 检查活跃任务数
-        long activeCount = taskService.getActiveTaskCount(userId);
-        if (activeCount >= 10) {
-            return Response.error("您有太多正在处理的任务，请稍后再试");
+        // 任务进入调度队列排队处理，只在排队数量过多时拒绝
+        if (taskService.exceedsPendingLimit(userId, files.length)) {
+            return Response.error("您排队中的任务过多，请等待部分任务完成后再提交");
         }
 
-        List<TaskDTO> tasks = taskService.createTasks(userId, taskName, extractFields, modelMode, files);
-        return Response.success("任务创建成功，正在后台处理", tasks);
+        List<TaskDTO> tasks = taskService.createTasks(userId, taskName, extractFields, modelMode, deadlineSeconds, files);
+        return Response.success("任务创建成功，已进入处理队列", tasks);
     }
 
     /**
@@ -76,67 +90,142 @@ public class TaskController {
     }
 
     /**
-     * 获取任务状态
+     * 获取任务状态（支持条件请求和长轮询，参数同进度接口）
      */
     @GetMapping("/{taskId}/status")
-    public Response<Map<String, Object>> getTaskStatus(@PathVariable Long taskId) {
-        TaskDTO task = taskService.getTaskById(taskId);
-        return Response.success(Map.of(
-                "status", task.getStatus(),
-                "statusText", task.getStatusText(),
-                "progress", taskService.getTaskProgress(taskId)
-        ));
+    public DeferredResult<ResponseEntity<Response<Map<String, Object>>>> getTaskStatus(
+            @PathVariable Long taskId,
+            @RequestParam(required = false) Long waitForChangeAfter,
+            @RequestParam(defaultValue = "30000") long timeout,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return respondOnChange(taskId, waitForChangeAfter, timeout, ifNoneMatch,
+                () -> taskService.getTaskStatus(taskId),
+                taskService::getProcessingStatus,
+                status -> ((TaskProgressDTO) status.get("progress")).getVersion(),
+                status -> status.get("status") + "-" + ((TaskProgressDTO) status.get("progress")).getVersion());
     }
 
     /**
      * 获取任务进度
+     * 响应带 ETag（进度版本号），请求带 If-None-Match 且进度没有变化时返回 304；
+     * 带 waitForChangeAfter=版本号 时为长轮询：进度版本超过该值时立即返回，否则等待进度变化，最多等待 timeout 毫秒，超时返回 304
      */
     @GetMapping("/{taskId}/progress")
-    public Response<TaskProgressDTO> getProgress(@PathVariable Long taskId) {
-        TaskProgressDTO progress = taskService.getTaskProgress(taskId);
-        return Response.success(progress);
+    public DeferredResult<ResponseEntity<Response<TaskProgressDTO>>> getProgress(
+            @PathVariable Long taskId,
+            @RequestParam(required = false) Long waitForChangeAfter,
+            @RequestParam(defaultValue = "30000") long timeout,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return respondOnChange(taskId, waitForChangeAfter, timeout, ifNoneMatch,
+                () -> taskService.getTaskProgress(taskId),
+                Function.identity(),
+                TaskProgressDTO::getVersion,
+                progress -> String.valueOf(progress.getVersion()));
     }
 
     /**
-     * SSE实时进度推送
+     * 条件请求和长轮询：先监听进度变化再读取当前值，期间的变化不会丢失；等待期间不占用请求线程
+     * 收到进度消息时先比较消息中的版本号，能由消息直接组装响应时不再读取，否则在单独的线程池中读取，不阻塞Redis消息监听线程
+     *
+     * @param fromMessage 由进度消息组装响应，需要完整读取时返回 null
+     * @param versionOf   当前值的进度版本号
+     * @param tagOf       当前值的 ETag 内容
      */
-    @GetMapping(value = "/{taskId}/progress/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public SseEmitter streamProgress(@PathVariable Long taskId) {
-        SseEmitter emitter = new SseEmitter(300000L); // 5分钟超时
-
-        // 存储emitter
-        SseEmitter oldEmitter = emitters.put(taskId, emitter);
-        if (oldEmitter != null) {
-            oldEmitter.complete();
+    private <T> DeferredResult<ResponseEntity<Response<T>>> respondOnChange(
+            Long taskId, Long waitForChangeAfter, long timeoutMs, String ifNoneMatch,
+            Supplier<T> read, Function<TaskProgressDTO, T> fromMessage,
+            Function<T, Long> versionOf, Function<T, String> tagOf) {
+        if (waitForChangeAfter == null) {
+            DeferredResult<ResponseEntity<Response<T>>> result = new DeferredResult<>();
+            T current = read.get();
+            String etag = etagOf(tagOf.apply(current));
+            result.setResult(matches(etag, ifNoneMatch)
+                    ? ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build()
+                    : ResponseEntity.ok().eTag(etag).body(Response.success(current)));
+            return result;
         }
 
-        emitter.onCompletion(() -> emitters.remove(taskId));
-        emitter.onTimeout(() -> emitters.remove(taskId));
-        emitter.onError(e -> emitters.remove(taskId));
-
-        // 定时推送进度
-        ScheduledFuture<?> future = scheduler.scheduleAtFixedRate(() -> {
+        long waitMs = Math.max(MIN_POLL_WAIT_MS, Math.min(timeoutMs, MAX_POLL_WAIT_MS));
+        DeferredResult<ResponseEntity<Response<T>>> result = new DeferredResult<>(waitMs);
+        AtomicReference<String> lastEtag = new AtomicReference<>();
+        Runnable unwatch = progressBroadcaster.watch(taskId, progress -> {
+            if (progress.getVersion() == null || progress.getVersion() <= waitForChangeAfter || result.isSetOrExpired()) {
+                return;
+            }
+            T message = fromMessage.apply(progress);
+            if (message != null) {
+                result.setResult(ResponseEntity.ok().eTag(etagOf(tagOf.apply(message))).body(Response.success(message)));
+                return;
+            }
             try {
-                TaskProgressDTO progress = taskService.getTaskProgress(taskId);
-                if (progress != null) {
-                    emitter.send(SseEmitter.event()
-                            .name("progress")
-                            .data(progress));
-
-                    // 完成或失败时结束
-                    if ("COMPLETED".equals(progress.getStage()) || "FAILED".equals(progress.getStage())) {
-                        emitter.complete();
+                progressReadExecutor.execute(() -> {
+                    try {
+                        T current = read.get();
+                        result.setResult(ResponseEntity.ok().eTag(etagOf(tagOf.apply(current))).body(Response.success(current)));
+                    } catch (RuntimeException e) {
+                        result.setErrorResult(e);
                     }
-                }
-            } catch (IOException e) {
-                emitter.completeWithError(e);
+                });
+            } catch (RejectedExecutionException e) {
+                // 读取排队已满：立即返回，客户端按原版本号重新请求时直接读到新值
+                result.setResult(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(lastEtag.get()).build());
             }
-        }, 0, 2, TimeUnit.SECONDS);
+        });
+        result.onCompletion(unwatch);
+        result.onTimeout(() -> result.setResult(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(lastEtag.get()).build()));
+
+        T current;
+        try {
+            current = read.get();
+        } catch (RuntimeException e) {
+            // 任务不存在
+            unwatch.run();
+            throw e;
+        }
+        lastEtag.set(etagOf(tagOf.apply(current)));
+        Long version = versionOf.apply(current);
+        if (version != null && version > waitForChangeAfter) {
+            result.setResult(ResponseEntity.ok().eTag(lastEtag.get()).body(Response.success(current)));
+        }
+        return result;
+    }
 
-        // 完成时取消定时任务
-        emitter.onCompletion(() -> future.cancel(true));
-        emitter.onTimeout(() -> future.cancel(true));
+    private static String etagOf(String tag) {
+        // 剩余时间随读取时间变化，内容只是语义上相同，使用弱ETag
+        return "W/\"" + tag + "\"";
+    }
+
+    /**
+     * If-None-Match 是否包含该 ETag（弱比较）
+     */
+    private static boolean matches(String etag, String ifNoneMatch) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return false;
+        }
+        String opaque = etag.substring(2);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*") || (value.startsWith("W/") ? value.substring(2) : value).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
+    /**
+     * SSE实时进度推送：连接时先发送当前进度，之后进度变化时由推送服务立即发送，任务结束后关闭连接
+     */
+    @GetMapping(value = "/{taskId}/progress/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamProgress(@PathVariable Long taskId) {
+        // 先订阅再读取当前进度，期间的变化不会丢失
+        SseEmitter emitter = progressBroadcaster.subscribe(taskId, 300000L); // 5分钟超时
+        try {
+            progressBroadcaster.send(emitter, taskService.getTaskProgress(taskId));
+        } catch (RuntimeException e) {
+            // 任务不存在
+            progressBroadcaster.unsubscribe(taskId, emitter);
+            throw e;
+        }
         return emitter;
     }
 
@@ -153,6 +242,16 @@ public class TaskController {
         return Response.success("任务已重新提交处理", task);
     }
 
+    /**
+     * 取消任务（结束正在运行的处理进程）
+     */
+    @PostMapping("/{taskId}/cancel")
+    public Response<TaskDTO> cancelTask(@PathVariable Long taskId) {
+        log.info("取消任务: taskId={}", taskId);
+        TaskDTO task = taskService.cancelTask(taskId);
+        return Response.success("任务已取消", task);
+    }
+
     /**
      * 删除任务
      */
@@ -233,6 +332,54 @@ public class TaskController {
         return Response.success(tasks);
     }
 
+    /**
+     * 批量任务整体进度：各任务进度、已结束任务数和整个批次的预计剩余时间（按历史耗时估算，包括排队等待）
+     */
+    @GetMapping("/batch/{taskName}/progress")
+    public Response<BatchProgressDTO> getBatchProgress(
+            @RequestParam @NotNull Long userId,
+            @PathVariable String taskName) {
+        return Response.success(taskService.getBatchProgressSummary(userId, taskName));
+    }
+
+    /**
+     * 批量任务进度推送：一个连接接收该批次所有任务的进度
+     * 连接时发送 snapshot 事件（所有任务的进度），之后发送 delta 事件（变化了的任务及字段），全部结束后发送 done 事件并关闭连接。
+     * 断线重连时浏览器自动带上 Last-Event-ID，只补发之后有变化的任务
+     */
+    @GetMapping(value = "/batch/{taskName}/progress/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamBatchProgress(
+            @RequestParam @NotNull Long userId,
+            @PathVariable String taskName,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        List<Long> taskIds = taskService.getBatchTaskIds(userId, taskName);
+        if (taskIds.isEmpty()) {
+            throw new RuntimeException("批量任务不存在: " + taskName);
+        }
+        Long resumeFrom = null;
+        if (lastEventId != null && !lastEventId.isBlank()) {
+            try {
+                resumeFrom = Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                log.debug("忽略无法识别的 Last-Event-ID: {}", lastEventId);
+            }
+        }
+        return progressBroadcaster.subscribeBatch(taskIds, 300000L, resumeFrom, // 5分钟超时，客户端自动重连续传
+                () -> taskService.getBatchProgress(userId, taskName));
+    }
+
+    /**
+     * 取消批量任务（排队中的任务移出队列，处理中的任务结束进程）
+     */
+    @PostMapping("/batch/{taskName}/cancel")
+    public Response<Map<String, Object>> cancelBatchTask(
+            @RequestParam @NotNull Long userId,
+            @PathVariable String taskName) {
+        log.info("取消批量任务: taskName={}, userId={}", taskName, userId);
+        int cancelled = taskService.cancelBatchTask(userId, taskName);
+        return Response.success("已取消 " + cancelled + " 个任务", Map.of("cancelledCount", cancelled));
+    }
+
     /**
      * 删除批量任务
      */
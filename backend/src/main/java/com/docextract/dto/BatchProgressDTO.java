@@ -0,0 +1,55 @@
+package com.docextract.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 批量任务进度DTO
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class BatchProgressDTO {
+
+    private String taskName;
+
+    /**
+     * 总任务数
+     */
+    private int totalCount;
+
+    /**
+     * 已结束（完成、失败、取消）的任务数
+     */
+    private int processedCount;
+
+    /**
+     * 已完成的任务数
+     */
+    private int completedCount;
+
+    /**
+     * 失败的任务数
+     */
+    private int failedCount;
+
+    /**
+     * 整体进度百分比 0-100（各任务进度的平均值）
+     */
+    private int progress;
+
+    /**
+     * 整个批次预计剩余时间（秒），没有足够的历史耗时时为空
+     */
+    private Long estimatedTimeRemaining;
+
+    /**
+     * 各任务的进度
+     */
+    private List<TaskProgressDTO> tasks;
+}
@@ -0,0 +1,126 @@
+package com.docextract.dto;
+
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+import com.fasterxml.jackson.annotation.JsonAnySetter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Python工作进程返回的提取结果
+ * 字段名与 integrated_processor.py 的输出保持一致，未声明的字段保存在 extra 中，转换回Map时不丢失
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ExtractResult {
+
+    /**
+     * 状态: success, partial_success, error
+     */
+    private String status;
+
+    private String message;
+
+    /**
+     * 提取出的字段数据
+     */
+    private Map<String, Object> data;
+
+    private Double confidence;
+
+    /**
+     * 实际使用的模型
+     */
+    private String model;
+
+    @JsonProperty("model_mode")
+    private String modelMode;
+
+    @JsonProperty("mineru_processed")
+    private Boolean mineruProcessed;
+
+    @JsonProperty("task_data_dir")
+    private String taskDataDir;
+
+    /**
+     * OCR阶段生成的Markdown路径（分阶段执行时）
+     */
+    @JsonProperty("md_file")
+    private String mdFile;
+
+    /**
+     * 合并处理多个小文档时，该结果对应的任务
+     */
+    @JsonProperty("task_id")
+    private Long taskId;
+
+    /**
+     * 合并处理多个小文档时，每个文档各自的结果
+     */
+    private List<ExtractResult> results;
+
+    /**
+     * 是否只提取到部分数据
+     */
+    private Boolean partial;
+
+    /**
+     * 本次任务实际消耗的token（云端模型调用时才有）
+     */
+    private TokenUsage usage;
+
+    /**
+     * 其他未声明的字段
+     */
+    @Builder.Default
+    private Map<String, Object> extra = new LinkedHashMap<>();
+
+    @JsonAnySetter
+    public void putExtra(String key, Object value) {
+        extra.put(key, value);
+    }
+
+    @JsonAnyGetter
+    public Map<String, Object> getExtra() {
+        return extra;
+    }
+
+    @JsonIgnore
+    public boolean isSuccess() {
+        return "success".equals(status);
+    }
+
+    @JsonIgnore
+    public boolean hasData() {
+        return data != null;
+    }
+
+    /**
+     * 模型API返回的token用量
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class TokenUsage {
+
+        @JsonProperty("input_tokens")
+        private long inputTokens;
+
+        @JsonProperty("output_tokens")
+        private long outputTokens;
+
+        @JsonProperty("total_tokens")
+        private long totalTokens;
+    }
+}
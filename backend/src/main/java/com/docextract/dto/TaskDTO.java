@@ -44,6 +44,12 @@ public class TaskDTO {
 
     @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
     private LocalDateTime endTime;
+
+    /**
+     * 截止时间
+     */
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime deadline;
     private Map<String, Object> result;
     private Map<String, Object> extractFields;
     private Map<String, Object> processingDetails;
@@ -11,13 +11,13 @@ import lombok.NoArgsConstructor;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@Builder
+@Builder(toBuilder = true)
 public class TaskProgressDTO {
 
     private Long taskId;
 
     /**
-     * 当前阶段: UPLOADING, OCR_PROCESSING, QWEN_EXTRACTING, COMPLETED, FAILED
+     * 当前阶段: UPLOADING, OCR_PROCESSING, EXTRACT_WAITING, QWEN_EXTRACTING, RETRY_WAITING, COMPLETED, FAILED, CANCELLED
      */
     private String stage;
 
@@ -47,7 +47,7 @@ public class TaskProgressDTO {
     private int totalCount;
 
     /**
-     * 预计剩余时间（秒）
+     * 预计剩余时间（秒），按同类任务的历史耗时估算，历史样本不足时为空
      */
     private Long estimatedTimeRemaining;
 
@@ -56,6 +56,16 @@ public class TaskProgressDTO {
      */
     private String errorMessage;
 
+    /**
+     * 最近更新时间（epoch毫秒），作为进度推送的事件ID，断线重连时据此补发
+     */
+    private Long updatedAt;
+
+    /**
+     * 进度版本号，同一任务每次更新都变大（接近epoch毫秒），用于条件请求（ETag）和长轮询
+     */
+    private Long version;
+
     public static TaskProgressDTO of(Long taskId, String stage, int progress) {
         return TaskProgressDTO.builder()
                 .taskId(taskId)
@@ -69,9 +79,12 @@ public class TaskProgressDTO {
         return switch (stage) {
             case "UPLOADING" -> "上传文件中";
             case "OCR_PROCESSING" -> "OCR识别中";
+            case "EXTRACT_WAITING" -> "等待AI提取";
             case "QWEN_EXTRACTING" -> "AI提取中";
+            case "RETRY_WAITING" -> "等待重试";
             case "COMPLETED" -> "处理完成";
             case "FAILED" -> "处理失败";
+            case "CANCELLED" -> "已取消";
             default -> "处理中";
         };
     }
@@ -24,8 +24,12 @@ import java.util.Map;
 @Builder
 public class Task {
 
+    /**
+     * 序列按50个一段预分配ID，批量创建任务时插入语句可以合并成JDBC批量执行（IDENTITY需要逐条插入取回ID）
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "tasks_seq")
+    @SequenceGenerator(name = "tasks_seq", sequenceName = "tasks_seq", allocationSize = 50)
     @Column(name = "task_id")
     private Long taskId;
 
@@ -46,6 +50,18 @@ public class Task {
     @Column(name = "file_path", columnDefinition = "jsonb")
     private Map<String, String> filePath;
 
+    /**
+     * 上传文件内容的SHA-256（十六进制），用于结果缓存
+     */
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    /**
+     * 文档页数（图片为1，无法读取时为空），用于合并小文档
+     */
+    @Column(name = "page_count")
+    private Integer pageCount;
+
     @Enumerated(EnumType.STRING)
     @Column(name = "status", nullable = false, length = 20)
     @Builder.Default
@@ -59,6 +75,13 @@ public class Task {
     @Column(name = "end_time")
     private LocalDateTime endTime;
 
+    /**
+     * 截止时间，超过后不再排队或执行，任务标记失败
+     */
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    @Column(name = "deadline")
+    private LocalDateTime deadline;
+
     @JdbcTypeCode(SqlTypes.JSON)
     @Column(name = "result", columnDefinition = "jsonb")
     private Map<String, Object> result;
@@ -67,6 +90,45 @@ public class Task {
     @Column(name = "extract_fields", columnDefinition = "jsonb")
     private Map<String, Object> extractFields;
 
+    /**
+     * 提交时的提取字段JSON原文（任何节点领取任务后按此处理）
+     */
+    @Column(name = "extract_fields_json", columnDefinition = "text")
+    private String extractFieldsJson;
+
+    /**
+     * 模型模式（normal / pro / local）
+     */
+    @Column(name = "model_mode", length = 20)
+    private String modelMode;
+
+    /**
+     * 调度优先级
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "priority", length = 20)
+    @Builder.Default
+    private Priority priority = Priority.BULK;
+
+    /**
+     * 当前持有任务的处理节点，为空表示未被领取
+     */
+    @Column(name = "lease_owner", length = 100)
+    private String leaseOwner;
+
+    /**
+     * 租约到期时间，节点通过心跳续期，过期未续的任务会被重新放回队列
+     */
+    @Column(name = "lease_expires_at")
+    private LocalDateTime leaseExpiresAt;
+
+    /**
+     * 租约过期后被回收重新排队的次数（节点崩溃或失联），不计入重试次数
+     */
+    @Column(name = "lease_reclaims")
+    @Builder.Default
+    private Integer leaseReclaims = 0;
+
     @Column(name = "error_message", length = 2000)
     private String errorMessage;
 
@@ -98,6 +160,14 @@ public class Task {
     @Column(name = "processing_details", columnDefinition = "jsonb")
     private Map<String, Object> processingDetails;
 
+    /**
+     * 状态版本号，每次状态转换加1（租约续期不变）
+     * 状态转换都是带 WHERE status = ? AND version = ? 的条件更新，任务已被取消、接管或重新领取时不会覆盖
+     */
+    @Version
+    @Column(name = "version", columnDefinition = "bigint default 0 not null")
+    private Long version;
+
     @CreationTimestamp
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -110,6 +180,12 @@ public class Task {
         PENDING,       // 等待处理
         PROCESSING,    // 处理中
         COMPLETED,     // 已完成
-        FAILED         // 失败
+        FAILED,        // 失败
+        CANCELLED      // 已取消
+    }
+
+    public enum Priority {
+        INTERACTIVE,   // 交互任务（单文件上传、手动重试），优先处理
+        BULK           // 批量任务
     }
 }
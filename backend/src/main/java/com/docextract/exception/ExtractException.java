@@ -58,6 +58,15 @@ public class ExtractException extends RuntimeException {
         }
     }
 
+    /**
+     * 超过任务截止时间异常
+     */
+    public static class DeadlineExceeded extends ExtractException {
+        public DeadlineExceeded(Long taskId) {
+            super(taskId, "DEADLINE_EXCEEDED", "任务已超过截止时间，不再处理");
+        }
+    }
+
     /**
      * 重试次数超限异常
      */
@@ -76,6 +85,15 @@ public class ExtractException extends RuntimeException {
         }
     }
 
+    /**
+     * 任务已取消异常
+     */
+    public static class Cancelled extends ExtractException {
+        public Cancelled(Long taskId) {
+            super(taskId, "CANCELLED", "任务已取消: " + taskId);
+        }
+    }
+
     /**
      * Python脚本执行异常
      */
@@ -0,0 +1,84 @@
+package com.docextract.exception;
+
+import java.util.List;
+
+/**
+ * 提取失败类型
+ * 根据错误信息区分是否值得重试，以及是否说明下游已过载（用于收缩并发）
+ */
+public enum FailureType {
+
+    /**
+     * 被限流（429 / Throttling），可重试，说明已过载
+     */
+    THROTTLED(true, true),
+
+    /**
+     * 超时，可重试，说明已过载
+     */
+    TIMEOUT(true, true),
+
+    /**
+     * 临时故障（网络、进程意外退出、服务端5xx等），可重试
+     */
+    TRANSIENT(true, false),
+
+    /**
+     * 重试也无法成功的错误（文件不存在、不支持的文件类型、结果无法解析等），立即失败
+     */
+    FATAL(false, false);
+
+    private static final List<String> THROTTLED_KEYWORDS = List.of(
+            "429", "throttling", "rate limit", "ratelimit", "too many requests", "限流");
+
+    private static final List<String> TIMEOUT_KEYWORDS = List.of(
+            "timeout", "timed out", "超时");
+
+    private static final List<String> FATAL_KEYWORDS = List.of(
+            "不支持的文件类型", "文件不存在", "filepath不能为空", "解析结果失败", "结果过大",
+            "jsondecodeerror", "参数错误", "api_key环境变量未设置", "invalidapikey", "截止时间");
+
+    private final boolean retryable;
+    private final boolean overload;
+
+    FailureType(boolean retryable, boolean overload) {
+        this.retryable = retryable;
+        this.overload = overload;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+
+    public boolean isOverload() {
+        return overload;
+    }
+
+    /**
+     * 根据异常信息分类，无法识别的错误按临时故障处理
+     */
+    public static FailureType classify(Throwable e) {
+        return e == null ? TRANSIENT : classify(e.getMessage());
+    }
+
+    public static FailureType classify(String message) {
+        if (message == null) {
+            return TRANSIENT;
+        }
+        String lower = message.toLowerCase();
+        if (containsAny(lower, FATAL_KEYWORDS)) {
+            return FATAL;
+        }
+        if (containsAny(lower, THROTTLED_KEYWORDS)) {
+            return THROTTLED;
+        }
+        if (containsAny(lower, TIMEOUT_KEYWORDS)) {
+            return TIMEOUT;
+        }
+        return TRANSIENT;
+    }
+
+    private static boolean containsAny(String text, List<String> keywords) {
+        return keywords.stream().anyMatch(text::contains);
+    }
+}
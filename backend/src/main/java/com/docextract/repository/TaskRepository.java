@@ -4,11 +4,16 @@ import com.docextract.entity.Task;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Repository
@@ -20,6 +25,33 @@ public interface TaskRepository extends JpaRepository<Task, Long> {
 
     Optional<Task> findByTaskId(Long taskId);
 
+    /**
+     * 生成进度和状态所需的字段，不加载提取结果等大字段
+     */
+    interface ProgressView {
+        Long getTaskId();
+
+        Task.TaskStatus getStatus();
+
+        String getStage();
+
+        Integer getProgress();
+
+        String getErrorMessage();
+
+        Integer getPageCount();
+
+        Map<String, String> getFilePath();
+
+        String getModelMode();
+
+        LocalDateTime getStartTime();
+
+        LocalDateTime getUpdatedAt();
+    }
+
+    Optional<ProgressView> findProgressByTaskId(Long taskId);
+
     @Query("SELECT t FROM Task t WHERE t.user.userId = :userId AND t.taskName LIKE %:keyword% ORDER BY t.createdAt DESC")
     Page<Task> searchTasks(@Param("userId") Long userId, @Param("keyword") String keyword, Pageable pageable);
 
@@ -56,8 +88,233 @@ public interface TaskRepository extends JpaRepository<Task, Long> {
     @Query("SELECT t FROM Task t WHERE t.user.userId = :userId AND t.taskName = :taskName ORDER BY t.createdAt DESC")
     List<Task> findByUserIdAndTaskName(@Param("userId") Long userId, @Param("taskName") String taskName);
 
+    /**
+     * 获取用户某个任务名称下的所有任务ID
+     */
+    @Query("SELECT t.taskId FROM Task t WHERE t.user.userId = :userId AND t.taskName = :taskName")
+    List<Long> findTaskIdsByUserIdAndTaskName(@Param("userId") Long userId, @Param("taskName") String taskName);
+
     /**
      * 获取用户所有任务
      */
     List<Task> findByUserUserIdOrderByCreatedAtDesc(Long userId);
+
+    /**
+     * 任务ID序列落后于已有的最大任务ID时（原来使用自增列的数据库），把序列推进到最大ID之后，返回序列当前值
+     */
+    @Transactional
+    @Query(value = "SELECT CASE WHEN s.last_value <= m.max_id THEN setval('tasks_seq', m.max_id) ELSE s.last_value END " +
+            "FROM tasks_seq s, (SELECT COALESCE(MAX(task_id), 0) AS max_id FROM tasks) m", nativeQuery = true)
+    long alignTaskIdSequence();
+
+    // ==================== 持久化任务队列 ====================
+    // 时间统一使用数据库时间，避免多个节点之间的时钟偏差
+
+    /**
+     * 锁定可领取的等待任务（SKIP LOCKED：多个节点同时领取时互不阻塞、不会重复领取）
+     * 排序：交互任务和排队超过老化时间的批量任务优先，再按每个用户的排队序号轮流，避免一个用户的大批量占满队首
+     * 已超过截止时间的任务不领取，由 failOverdueTasks 标记失败
+     */
+    @Query(value = """
+            SELECT t.task_id FROM tasks t
+            JOIN (SELECT task_id, ROW_NUMBER() OVER (PARTITION BY user_id ORDER BY created_at, task_id) AS rn
+                  FROM tasks WHERE status = 'PENDING') r ON r.task_id = t.task_id
+            WHERE t.status = 'PENDING' AND t.extract_fields_json IS NOT NULL
+              AND (t.deadline IS NULL OR t.deadline > LOCALTIMESTAMP)
+            ORDER BY CASE WHEN t.priority = 'INTERACTIVE'
+                            OR t.created_at < LOCALTIMESTAMP - make_interval(secs => :agingSeconds)
+                          THEN 0 ELSE 1 END,
+                     r.rn, t.created_at
+            LIMIT :limit
+            FOR UPDATE OF t SKIP LOCKED
+            """, nativeQuery = true)
+    List<Long> lockClaimableTaskIds(@Param("limit") int limit, @Param("agingSeconds") int agingSeconds);
+
+    /**
+     * 为已锁定的任务设置租约
+     */
+    @Modifying
+    @Query(value = "UPDATE tasks SET status = 'PROCESSING', stage = 'DISPATCHED', lease_owner = :owner, " +
+            "lease_expires_at = LOCALTIMESTAMP + make_interval(secs => :leaseSeconds), version = version + 1, updated_at = LOCALTIMESTAMP " +
+            "WHERE task_id IN (:taskIds) AND status = 'PENDING'", nativeQuery = true)
+    int acquireLeases(@Param("taskIds") List<Long> taskIds, @Param("owner") String owner,
+                      @Param("leaseSeconds") int leaseSeconds);
+
+    /**
+     * 心跳：为本节点持有的所有任务续期
+     */
+    @Modifying
+    @Query(value = "UPDATE tasks SET lease_expires_at = LOCALTIMESTAMP + make_interval(secs => :leaseSeconds) " +
+            "WHERE lease_owner = :owner AND status = 'PROCESSING'", nativeQuery = true)
+    int renewLeases(@Param("owner") String owner, @Param("leaseSeconds") int leaseSeconds);
+
+    /**
+     * 租约过期且已多次被回收的任务直接标记失败（避免反复导致节点崩溃的任务无限重试）
+     */
+    @Modifying
+    @Query(value = "UPDATE tasks SET status = 'FAILED', stage = 'FAILED', error_message = :message, " +
+            "lease_owner = NULL, lease_expires_at = NULL, end_time = LOCALTIMESTAMP, version = version + 1, updated_at = LOCALTIMESTAMP " +
+            "WHERE status = 'PROCESSING' AND lease_expires_at < LOCALTIMESTAMP " +
+            "AND COALESCE(lease_reclaims, 0) >= :maxReclaims", nativeQuery = true)
+    int failExpiredLeases(@Param("maxReclaims") int maxReclaims, @Param("message") String message);
+
+    /**
+     * 排队中已超过截止时间的任务标记失败（不再领取处理）
+     */
+    @Modifying
+    @Query(value = "UPDATE tasks SET status = 'FAILED', stage = 'FAILED', error_message = :message, " +
+            "end_time = LOCALTIMESTAMP, version = version + 1, updated_at = LOCALTIMESTAMP " +
+            "WHERE status = 'PENDING' AND deadline <= LOCALTIMESTAMP", nativeQuery = true)
+    int failOverdueTasks(@Param("message") String message);
+
+    /**
+     * 租约过期的任务放回队列，由任意节点重新领取（计入回收次数，不占用用户的重试次数）
+     */
+    @Modifying
+    @Query(value = "UPDATE tasks SET status = 'PENDING', stage = 'PENDING', progress = 0, " +
+            "lease_reclaims = COALESCE(lease_reclaims, 0) + 1, lease_owner = NULL, lease_expires_at = NULL, " +
+            "version = version + 1, updated_at = LOCALTIMESTAMP " +
+            "WHERE status = 'PROCESSING' AND lease_expires_at < LOCALTIMESTAMP", nativeQuery = true)
+    int requeueExpiredLeases();
+
+    /**
+     * 锁定等待中或处理中的任务，用于随后取消（必须在读写事务中调用）
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Query(value = "SELECT task_id FROM tasks WHERE task_id IN (:taskIds) AND status IN ('PENDING', 'PROCESSING') " +
+            "FOR UPDATE", nativeQuery = true)
+    List<Long> lockActiveTaskIds(@Param("taskIds") List<Long> taskIds);
+
+    /**
+     * 取消已锁定的等待中或处理中的任务（等待中的任务随之移出队列），必须与 lockActiveTaskIds 在同一事务中调用
+     */
+    @Modifying
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Query(value = "UPDATE tasks SET status = 'CANCELLED', stage = 'CANCELLED', error_message = '任务已取消', " +
+            "lease_owner = NULL, lease_expires_at = NULL, end_time = LOCALTIMESTAMP, version = version + 1, updated_at = LOCALTIMESTAMP " +
+            "WHERE task_id IN (:taskIds) AND status IN ('PENDING', 'PROCESSING')", nativeQuery = true)
+    int cancelTasks(@Param("taskIds") List<Long> taskIds);
+
+    /**
+     * 按ID删除任务，不比较版本号：删除前取消任务（版本号加1）不会使删除失败
+     */
+    @Modifying
+    @Query("DELETE FROM Task t WHERE t.taskId IN :taskIds")
+    int deleteByTaskIds(@Param("taskIds") List<Long> taskIds);
+
+    /**
+     * 写入领取后读取的文档页数（上传时不解析文档）
+     */
+    @Modifying
+    @Query(value = "UPDATE tasks SET page_count = :pageCount WHERE task_id = :taskId AND page_count IS NULL",
+            nativeQuery = true)
+    int updatePageCount(@Param("taskId") Long taskId, @Param("pageCount") int pageCount);
+
+    // ==================== 任务状态转换 ====================
+    // 每次转换是一条独立的条件更新：只在任务仍处于预期状态且版本号未变时生效，同时版本号加1
+
+    /**
+     * 已领取的任务开始处理
+     */
+    @Modifying
+    @Query("UPDATE Task t SET t.stage = 'UPLOADING', t.progress = 5, t.version = t.version + 1, t.updatedAt = :now " +
+            "WHERE t.taskId = :taskId AND t.status = 'PROCESSING' AND t.version = :version")
+    int startTask(@Param("taskId") Long taskId, @Param("version") Long version, @Param("now") LocalDateTime now);
+
+    /**
+     * 处理中的任务完成，保存结果
+     */
+    @Modifying
+    @Query("UPDATE Task t SET t.status = :status, t.stage = 'COMPLETED', t.progress = 100, t.result = :result, " +
+            "t.processingDetails = :details, t.endTime = :now, t.leaseOwner = NULL, t.leaseExpiresAt = NULL, " +
+            "t.version = t.version + 1, t.updatedAt = :now " +
+            "WHERE t.taskId = :taskId AND t.status = 'PROCESSING' AND t.version = :version")
+    int completeTask(@Param("taskId") Long taskId, @Param("version") Long version,
+                     @Param("status") Task.TaskStatus status, @Param("result") Map<String, Object> result, @Param("details") Map<String, Object> details,
+                     @Param("now") LocalDateTime now);
+
+    /**
+     * 处理中的任务结束于失败或取消
+     *
+     * @param retryIncrement 失败时计入重试次数（1），取消时不计（0）
+     */
+    @Modifying
+    @Query("UPDATE Task t SET t.status = :status, t.stage = :stage, t.errorMessage = :message, " +
+            "t.retryCount = COALESCE(t.retryCount, 0) + :retryIncrement, t.endTime = :now, " +
+            "t.leaseOwner = NULL, t.leaseExpiresAt = NULL, t.version = t.version + 1, t.updatedAt = :now " +
+            "WHERE t.taskId = :taskId AND t.status = 'PROCESSING' AND t.version = :version")
+    int finishTask(@Param("taskId") Long taskId, @Param("version") Long version,
+                   @Param("status") Task.TaskStatus status, @Param("stage") String stage,
+                   @Param("message") String message, @Param("retryIncrement") int retryIncrement,
+                   @Param("now") LocalDateTime now);
+
+    /**
+     * 失败或已取消的任务重新排队（手动重试：普通版模式、交互优先级、重新计算截止时间）
+     */
+    @Modifying
+    @Query("UPDATE Task t SET t.status = :status, t.stage = 'PENDING', t.progress = 0, t.errorMessage = NULL, " +
+            "t.startTime = :now, t.deadline = :deadline, t.extractFieldsJson = :extractFieldsJson, " +
+            "t.modelMode = 'normal', t.priority = :priority, t.leaseOwner = NULL, t.leaseExpiresAt = NULL, t.leaseReclaims = 0, " +
+            "t.version = t.version + 1, t.updatedAt = :now " +
+            "WHERE t.taskId = :taskId AND t.status IN ('FAILED', 'CANCELLED') AND t.version = :version")
+    int requeueTask(@Param("taskId") Long taskId, @Param("version") Long version,
+                    @Param("status") Task.TaskStatus status, @Param("priority") Task.Priority priority,
+                    @Param("extractFieldsJson") String extractFieldsJson, @Param("deadline") LocalDateTime deadline,
+                    @Param("now") LocalDateTime now);
+
+    // ==================== 卡住任务恢复 ====================
+
+    /**
+     * 指定状态下超过时间未更新的任务（按更新时间从早到晚）
+     */
+    @Query("SELECT t FROM Task t WHERE t.status = :status AND t.updatedAt < :before ORDER BY t.updatedAt")
+    List<Task> findStaleTasks(@Param("status") Task.TaskStatus status, @Param("before") LocalDateTime before,
+                              Pageable pageable);
+
+    /**
+     * 缺少提取字段、无法由任务队列处理的等待任务（引入持久化队列之前创建的任务）
+     */
+    @Query("SELECT t FROM Task t WHERE t.status = 'PENDING' AND t.extractFieldsJson IS NULL AND t.updatedAt < :before")
+    List<Task> findUnqueueableTasks(@Param("before") LocalDateTime before, Pageable pageable);
+
+    /**
+     * 卡住的任务放回队列（条件更新：期间任务已完成或被其他节点接管时不受影响），计入回收次数，不占用用户的重试次数
+     */
+    @Modifying
+    @Query(value = "UPDATE tasks SET status = 'PENDING', stage = 'PENDING', progress = 0, " +
+            "lease_reclaims = COALESCE(lease_reclaims, 0) + 1, lease_owner = NULL, lease_expires_at = NULL, " +
+            "version = version + 1, updated_at = LOCALTIMESTAMP " +
+            "WHERE task_id IN (:taskIds) AND status = 'PROCESSING' AND updated_at < :before " +
+            "AND (lease_owner IS NULL OR lease_owner = :owner)", nativeQuery = true)
+    int requeueStaleTasks(@Param("taskIds") List<Long> taskIds, @Param("before") LocalDateTime before,
+                          @Param("owner") String owner);
+
+    /**
+     * 无法恢复的任务标记失败
+     */
+    @Modifying
+    @Query(value = "UPDATE tasks SET status = 'FAILED', stage = 'FAILED', error_message = :message, " +
+            "lease_owner = NULL, lease_expires_at = NULL, end_time = LOCALTIMESTAMP, version = version + 1, updated_at = LOCALTIMESTAMP " +
+            "WHERE task_id IN (:taskIds) AND status IN ('PENDING', 'PROCESSING') AND updated_at < :before " +
+            "AND (lease_owner IS NULL OR lease_owner = :owner)", nativeQuery = true)
+    int failStaleTasks(@Param("taskIds") List<Long> taskIds, @Param("before") LocalDateTime before,
+                       @Param("owner") String owner, @Param("message") String message);
+
+    /**
+     * 节点正常退出时交还持有的任务
+     */
+    @Modifying
+    @Query(value = "UPDATE tasks SET status = 'PENDING', stage = 'PENDING', progress = 0, " +
+            "lease_owner = NULL, lease_expires_at = NULL, version = version + 1, updated_at = LOCALTIMESTAMP " +
+            "WHERE lease_owner = :owner AND status = 'PROCESSING'", nativeQuery = true)
+    int releaseLeases(@Param("owner") String owner);
+
+    // ==================== 耗时统计 ====================
+
+    /**
+     * 最近完成的任务的耗时统计字段（页数、文件信息、模型模式、处理详情），按完成时间从晚到早
+     */
+    @Query("SELECT t.pageCount, t.filePath, t.modelMode, t.processingDetails FROM Task t " +
+            "WHERE t.status = 'COMPLETED' AND t.endTime IS NOT NULL ORDER BY t.endTime DESC")
+    List<Object[]> findRecentCompletionStats(Pageable pageable);
 }
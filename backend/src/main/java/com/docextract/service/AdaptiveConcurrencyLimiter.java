@@ -0,0 +1,218 @@
+package com.docextract.service;
+
+import com.docextract.config.QwenConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 自适应并发限制器（AIMD）
+ * <p>
+ * 正常完成且耗时未明显超过基线延迟时，并发上限缓慢增加（每完成约 limit 个任务 +1）；
+ * 出现限流(429)、超时或耗时超过基线延迟的 latencyTolerance 倍时，上限按 backoffRatio 收缩。
+ * 上限始终在 [minConcurrent, maxConcurrent] 之间，当前值通过 extract.concurrency.limit 指标导出。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    // 基线延迟的平滑系数，越小越稳定
+    private static final double BASELINE_SMOOTHING = 0.05;
+
+    private final QwenConfig qwenConfig;
+    private final MeterRegistry meterRegistry;
+
+    // 公平锁，等待中的任务按到达顺序获得槽位
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition permitReleased = lock.newCondition();
+
+    // 锁内修改，volatile 供指标和状态接口无锁读取
+    private volatile double limit;
+    private volatile int inFlight = 0;
+
+    // 正常完成任务的平滑耗时（毫秒），0 表示尚无样本
+    private double baselineLatencyMs = 0;
+
+    private Counter droppedCounter;
+
+    @PostConstruct
+    public void init() {
+        limit = qwenConfig.isAdaptiveConcurrency()
+                ? clamp(qwenConfig.getInitialConcurrent())
+                : qwenConfig.getMaxConcurrent();
+
+        Gauge.builder("extract.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .description("当前允许的最大并发提取数")
+                .register(meterRegistry);
+        Gauge.builder("extract.concurrency.in_flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("正在执行的提取任务数")
+                .register(meterRegistry);
+        droppedCounter = Counter.builder("extract.concurrency.dropped")
+                .description("因限流或超时导致并发收缩的次数")
+                .register(meterRegistry);
+
+        log.info("并发限制器初始化: limit={}, min={}, max={}, adaptive={}", getLimit(),
+                qwenConfig.getMinConcurrent(), qwenConfig.getMaxConcurrent(), qwenConfig.isAdaptiveConcurrency());
+    }
+
+    /**
+     * 获取执行槽位
+     *
+     * @return 槽位，超时返回 null
+     */
+    public Permit acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long remainingNanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= getLimit()) {
+                if (remainingNanos <= 0) {
+                    return null;
+                }
+                remainingNanos = permitReleased.awaitNanos(remainingNanos);
+            }
+            inFlight++;
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 有空闲槽位且没有任务在等待时立即获取（用于对冲等可有可无的执行，不与排队的任务争抢）
+     *
+     * @return 槽位，没有空闲时返回 null
+     */
+    public Permit tryAcquire() {
+        lock.lock();
+        try {
+            if (inFlight >= getLimit() || lock.hasWaiters(permitReleased)) {
+                return null;
+            }
+            inFlight++;
+            return new Permit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(Permit permit, Outcome outcome) {
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - permit.startNanos);
+        lock.lock();
+        try {
+            int previousLimit = getLimit();
+            boolean fullyUsed = inFlight >= previousLimit;
+            inFlight--;
+
+            if (qwenConfig.isAdaptiveConcurrency()) {
+                adjust(outcome, latencyMs, fullyUsed);
+                if (getLimit() != previousLimit) {
+                    log.info("并发上限调整: {} -> {} (结果={}, 耗时={}ms, 基线={}ms)",
+                            previousLimit, getLimit(), outcome, latencyMs, Math.round(baselineLatencyMs));
+                }
+            }
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void adjust(Outcome outcome, long latencyMs, boolean fullyUsed) {
+        switch (outcome) {
+            case SUCCESS -> {
+                if (baselineLatencyMs == 0) {
+                    baselineLatencyMs = latencyMs;
+                }
+                boolean slow = latencyMs > baselineLatencyMs * qwenConfig.getLatencyTolerance();
+                // 过慢的样本只按容忍上限计入基线，避免基线被持续拉高
+                double sample = Math.min(latencyMs, baselineLatencyMs * qwenConfig.getLatencyTolerance());
+                baselineLatencyMs += (sample - baselineLatencyMs) * BASELINE_SMOOTHING;
+
+                if (slow) {
+                    decrease();
+                } else if (fullyUsed) {
+                    // 只有槽位确实用满时才加大上限，空闲时的成功不能说明可以承受更高并发
+                    limit = clamp(limit + 1.0 / limit);
+                }
+            }
+            case DROPPED -> decrease();
+            case IGNORED -> {
+                // 与负载无关的失败（如文件解析错误），不调整
+            }
+        }
+    }
+
+    private void decrease() {
+        limit = clamp(limit * qwenConfig.getBackoffRatio());
+        droppedCounter.increment();
+    }
+
+    private double clamp(double value) {
+        double min = Math.max(1, qwenConfig.getMinConcurrent());
+        double max = Math.max(min, qwenConfig.getMaxConcurrent());
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * 当前并发上限
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * 当前执行中的任务数
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    private enum Outcome {
+        SUCCESS, DROPPED, IGNORED
+    }
+
+    /**
+     * 已获取的执行槽位，必须且只会释放一次（重复调用无效）
+     */
+    public class Permit {
+
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        /**
+         * 任务正常完成，耗时计入延迟基线
+         */
+        public void onSuccess() {
+            releaseOnce(Outcome.SUCCESS);
+        }
+
+        /**
+         * 任务因过载失败（限流、超时），收缩并发上限
+         */
+        public void onDropped() {
+            releaseOnce(Outcome.DROPPED);
+        }
+
+        /**
+         * 释放槽位但不影响并发上限
+         */
+        public void onIgnore() {
+            releaseOnce(Outcome.IGNORED);
+        }
+
+        private void releaseOnce(Outcome outcome) {
+            if (released.compareAndSet(false, true)) {
+                release(this, outcome);
+            }
+        }
+    }
+}
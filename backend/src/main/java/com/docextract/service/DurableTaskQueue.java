@@ -0,0 +1,279 @@
+package com.docextract.service;
+
+import com.docextract.config.MicroBatchConfig;
+import com.docextract.config.QwenConfig;
+import com.docextract.config.SchedulerConfig;
+import com.docextract.entity.Task;
+import com.docextract.repository.TaskRepository;
+import com.docextract.util.PdfPages;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 基于 tasks 表的持久化任务队列
+ * <p>
+ * 上传只负责写入 PENDING 任务；每个后端节点按自身空闲容量用 SELECT ... FOR UPDATE SKIP LOCKED 领取任务，
+ * 写入租约（lease_owner / lease_expires_at）后交给本地调度器处理。节点定期心跳续期，
+ * 崩溃或失联的节点停止续期后，任意节点都会把过期任务放回队列重新处理。
+ * 重启不再丢任务，处理能力随节点数水平扩展。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DurableTaskQueue {
+
+    /**
+     * 有新任务入队（事务提交后先读取页数，再触发一次立即领取，不必等下一轮轮询）
+     */
+    public record TasksQueuedEvent(List<Long> taskIds) {
+    }
+
+    private final TaskRepository taskRepository;
+    private final TaskService taskService;
+    private final TaskDispatcher taskDispatcher;
+    private final SchedulerConfig schedulerConfig;
+    private final QwenConfig qwenConfig;
+    private final MicroBatchConfig microBatchConfig;
+    private final TransactionTemplate transactionTemplate;
+
+    private final ReentrantLock pollLock = new ReentrantLock();
+    private final AtomicBoolean pollRequested = new AtomicBoolean(false);
+
+    // 本节点已领取、尚未处理完的任务
+    private final Set<Long> heldTasks = ConcurrentHashMap.newKeySet();
+
+    // 租约续期使用独立线程，不受其他定时任务（健康检查、缓存清理、领取任务等）耗时的影响
+    private final ScheduledExecutorService heartbeatScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lease-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private String nodeId;
+
+    @PostConstruct
+    public void init() {
+        nodeId = schedulerConfig.getNodeId() != null && !schedulerConfig.getNodeId().isBlank()
+                ? schedulerConfig.getNodeId()
+                : ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        log.info("任务队列节点标识: {}", nodeId);
+        long interval = Math.max(1, schedulerConfig.getHeartbeatInterval());
+        heartbeatScheduler.scheduleWithFixedDelay(this::heartbeat, interval, interval, TimeUnit.SECONDS);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 任务是否由本节点领取且仍在排队或处理中
+     */
+    public boolean isHeldLocally(Long taskId) {
+        return heldTasks.contains(taskId);
+    }
+
+    @Async("taskExecutor")
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onTasksQueued(TasksQueuedEvent event) {
+        log.debug("新任务入队: {} 个", event.taskIds().size());
+        // 上传请求不解析文档，入队后在这里读取页数，领取时据此合并小文档
+        for (Task task : taskRepository.findAllById(event.taskIds())) {
+            fillPageCount(task);
+        }
+        poll();
+    }
+
+    /**
+     * 按本节点空闲容量领取任务
+     * 同一时刻只有一个线程在领取，其间再有领取请求时在本轮结束后补一轮
+     */
+    @Scheduled(fixedDelayString = "${scheduler.poll-interval:1000}", timeUnit = TimeUnit.MILLISECONDS)
+    public void poll() {
+        pollRequested.set(true);
+        while (pollRequested.get() && pollLock.tryLock()) {
+            try {
+                pollRequested.set(false);
+                claimAndDispatch();
+            } catch (Exception e) {
+                log.warn("领取任务失败: {}", e.getMessage());
+                return;
+            } finally {
+                pollLock.unlock();
+            }
+        }
+    }
+
+    private void claimAndDispatch() {
+        int capacity = schedulerConfig.getMaxInFlight() - taskDispatcher.getBacklog();
+        if (capacity <= 0) {
+            return;
+        }
+
+        List<Task> claimed = transactionTemplate.execute(status -> {
+            List<Long> taskIds = taskRepository.lockClaimableTaskIds(capacity, schedulerConfig.getAgingSeconds());
+            if (taskIds.isEmpty()) {
+                return List.of();
+            }
+            taskRepository.acquireLeases(taskIds, nodeId, schedulerConfig.getLeaseSeconds());
+            return taskRepository.findAllById(taskIds);
+        });
+        if (claimed == null || claimed.isEmpty()) {
+            return;
+        }
+
+        log.info("领取任务 {} 个: {}", claimed.size(), claimed.stream().map(Task::getTaskId).toList());
+        for (List<Task> group : groupSmallDocuments(claimed)) {
+            Task first = group.get(0);
+            List<Long> taskIds = group.stream().map(Task::getTaskId).toList();
+            String extractFieldsJson = first.getExtractFieldsJson();
+            String modelMode = first.getModelMode() != null ? first.getModelMode() : "normal";
+            Task.Priority priority = first.getPriority() != null ? first.getPriority() : Task.Priority.BULK;
+            heldTasks.addAll(taskIds);
+            taskDispatcher.submit(first.getUser().getUserId(), priority, () -> {
+                try {
+                    // 入队后还没读取到页数的任务（领取早于读取，或由其他节点上传）在处理线程上读取，供分片使用
+                    fillPageCount(first);
+                    if (taskIds.size() == 1) {
+                        taskService.processSingleTask(taskIds.get(0), extractFieldsJson, modelMode);
+                    } else {
+                        taskService.processTaskGroup(taskIds, extractFieldsJson, modelMode);
+                    }
+                } finally {
+                    taskIds.forEach(heldTasks::remove);
+                }
+            });
+        }
+    }
+
+    /**
+     * 把同一批次（用户、任务名、提取字段、模型模式、优先级都相同）的小文档分组，每组只调用一次工作进程，其余任务各自一组
+     * 组大小不超过 max-docs 和单次最大图片数（每个小文档至少按一张图片计）；
+     * 文本长度要到OCR之后才知道，由Python端在组内按 maxContextLength 再拆分模型调用
+     */
+    private List<List<Task>> groupSmallDocuments(List<Task> claimed) {
+        int limit = Math.min(microBatchConfig.getMaxDocs(), qwenConfig.getMaxImages());
+        List<List<Task>> groups = new ArrayList<>();
+        Map<List<Object>, List<Task>> open = new LinkedHashMap<>();
+        for (Task task : claimed) {
+            if (!microBatchConfig.isEnabled() || limit < 2 || !isSmallDocument(task)) {
+                groups.add(List.of(task));
+                continue;
+            }
+            List<Object> key = Arrays.asList(task.getUser().getUserId(), task.getTaskName(),
+                    task.getExtractFieldsJson(), task.getModelMode(), task.getPriority());
+            List<Task> group = open.computeIfAbsent(key, k -> new ArrayList<>());
+            group.add(task);
+            if (group.size() >= limit) {
+                groups.add(group);
+                open.remove(key);
+            }
+        }
+        groups.addAll(open.values());
+        return groups;
+    }
+
+    /**
+     * 补齐页数：上传请求不解析文档，入队后（或处理前）读取一次并写回，供小文档分组、分片和耗时估计使用
+     * 不在领取线程上读取，解析PDF不会拖慢领取；读取失败或不支持的类型保持为空，按大文档处理
+     */
+    private void fillPageCount(Task task) {
+        Map<String, String> fileInfo = task.getFilePath();
+        if (task.getPageCount() != null || fileInfo == null
+                || fileInfo.get("taskDataDir") == null || fileInfo.get("filePath") == null) {
+            return;
+        }
+        Integer pageCount = PdfPages.count(Paths.get(fileInfo.get("taskDataDir"), "pdf", fileInfo.get("filePath")));
+        if (pageCount == null) {
+            return;
+        }
+        task.setPageCount(pageCount);
+        try {
+            transactionTemplate.execute(status -> taskRepository.updatePageCount(task.getTaskId(), pageCount));
+        } catch (Exception e) {
+            log.warn("写入页数失败: taskId={}, {}", task.getTaskId(), e.getMessage());
+        }
+    }
+
+    private boolean isSmallDocument(Task task) {
+        return task.getPageCount() != null && task.getPageCount() <= microBatchConfig.getMaxPages();
+    }
+
+    /**
+     * 心跳：续期本节点持有的任务租约（在独立线程上按 heartbeat-interval 执行）
+     */
+    public void heartbeat() {
+        try {
+            Integer renewed = transactionTemplate.execute(status ->
+                    taskRepository.renewLeases(nodeId, schedulerConfig.getLeaseSeconds()));
+            log.debug("租约续期: {} 个任务", renewed);
+        } catch (Exception e) {
+            log.warn("租约续期失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 回收租约过期的任务（持有节点已崩溃或失联），每个节点都会执行，更新语句本身是幂等的
+     * 同时把排队中已超过截止时间的任务标记失败（包括刚放回队列的任务）
+     */
+    @Scheduled(fixedDelayString = "${scheduler.reclaim-interval:30}",
+            initialDelayString = "${scheduler.reclaim-interval:30}",
+            timeUnit = TimeUnit.SECONDS)
+    public void reclaimExpiredLeases() {
+        try {
+            int[] counts = transactionTemplate.execute(status -> new int[]{
+                    taskRepository.failExpiredLeases(schedulerConfig.getMaxLeaseReclaims(), "处理节点多次失联，任务已放弃"),
+                    taskRepository.requeueExpiredLeases(),
+                    taskRepository.failOverdueTasks("任务已超过截止时间，不再处理")
+            });
+            if (counts == null) {
+                return;
+            }
+            if (counts[2] > 0) {
+                log.warn("排队任务超过截止时间: {} 个", counts[2]);
+            }
+            if (counts[0] > 0 || counts[1] > 0) {
+                log.warn("回收过期租约: 重新入队 {} 个, 放弃 {} 个", counts[1], counts[0]);
+                poll();
+            }
+        } catch (Exception e) {
+            log.warn("回收过期租约失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 正常退出时交还本节点持有的任务，其他节点可立即领取
+     */
+    @PreDestroy
+    public void shutdown() {
+        heartbeatScheduler.shutdownNow();
+        try {
+            Integer released = transactionTemplate.execute(status -> taskRepository.releaseLeases(nodeId));
+            log.info("节点退出，交还任务 {} 个", released);
+        } catch (Exception e) {
+            log.warn("交还任务失败: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.docextract.service;
+
+import com.docextract.config.QwenConfig;
+import com.docextract.config.ResultCacheConfig;
+import com.docextract.dto.ExtractResult;
+import com.docextract.entity.Task;
+import com.docextract.util.ContentHash;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * 内容寻址的提取结果缓存
+ * <p>
+ * 键 = SHA-256(文档内容哈希 + 规范化后的提取字段JSON + 模型模式 + 模型名称)，
+ * 同一篇文档用相同字段重复上传时直接复用结果，不再走OCR和大模型。
+ * 条目带TTL（命中时续期），并用有序集合记录访问时间，超过上限时淘汰最久未使用的条目。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ExtractResultCache {
+
+    private static final String ENTRY_PREFIX = "extract:cache:";
+    private static final String INDEX_KEY = "extract:cache:index";
+
+    private final ResultCacheConfig cacheConfig;
+    private final QwenConfig qwenConfig;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    // 规范化JSON用：Map按键排序输出
+    private ObjectMapper canonicalMapper;
+
+    private Counter hitCounter;
+    private Counter missCounter;
+
+    @PostConstruct
+    public void init() {
+        canonicalMapper = objectMapper.copy().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        hitCounter = Counter.builder("extract.result_cache")
+                .tag("result", "hit")
+                .description("结果缓存命中次数")
+                .register(meterRegistry);
+        missCounter = Counter.builder("extract.result_cache")
+                .tag("result", "miss")
+                .description("结果缓存未命中次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 计算任务的缓存键，任务没有内容哈希或缓存关闭时返回 null
+     */
+    public String keyFor(Task task, String extractFieldsJson, String modelMode) {
+        if (!cacheConfig.isEnabled() || task.getContentHash() == null) {
+            return null;
+        }
+        String material = String.join("\n",
+                task.getContentHash(),
+                canonicalize(extractFieldsJson),
+                String.valueOf(modelMode),
+                String.valueOf(qwenConfig.getModel()));
+        return ContentHash.sha256Hex(material);
+    }
+
+    /**
+     * 查询缓存
+     *
+     * @return 未命中返回 null
+     */
+    public ExtractResult get(String key) {
+        if (key == null) {
+            return null;
+        }
+        try {
+            String json = stringRedisTemplate.opsForValue().get(ENTRY_PREFIX + key);
+            if (json == null) {
+                missCounter.increment();
+                return null;
+            }
+            touch(key);
+            hitCounter.increment();
+            return objectMapper.readValue(json, ExtractResult.class);
+        } catch (Exception e) {
+            log.warn("读取结果缓存失败: {}", e.getMessage());
+            missCounter.increment();
+            return null;
+        }
+    }
+
+    /**
+     * 写入缓存（只缓存完整成功的结果）
+     */
+    public void put(String key, ExtractResult result) {
+        if (key == null || !result.isSuccess() || Boolean.TRUE.equals(result.getPartial())) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForValue().set(ENTRY_PREFIX + key, objectMapper.writeValueAsString(result),
+                    Duration.ofHours(cacheConfig.getTtlHours()));
+            touch(key);
+            evictOverflow();
+        } catch (Exception e) {
+            log.warn("写入结果缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private void touch(String key) {
+        stringRedisTemplate.opsForZSet().add(INDEX_KEY, key, System.currentTimeMillis());
+        stringRedisTemplate.expire(ENTRY_PREFIX + key, Duration.ofHours(cacheConfig.getTtlHours()));
+    }
+
+    /**
+     * 淘汰超出上限的最久未使用条目（已过期的条目也会在这里从索引中清除）
+     */
+    private void evictOverflow() {
+        ZSetOperations<String, String> index = stringRedisTemplate.opsForZSet();
+        Long size = index.size(INDEX_KEY);
+        if (size == null || size <= cacheConfig.getMaxEntries()) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<String>> oldest = index.popMin(INDEX_KEY, size - cacheConfig.getMaxEntries());
+        if (oldest == null) {
+            return;
+        }
+        for (ZSetOperations.TypedTuple<String> entry : oldest) {
+            stringRedisTemplate.delete(ENTRY_PREFIX + entry.getValue());
+        }
+        log.debug("结果缓存淘汰 {} 条", oldest.size());
+    }
+
+    /**
+     * 规范化提取字段JSON：对象键排序、去掉空白，使语义相同的配置得到相同的键
+     */
+    private String canonicalize(String extractFieldsJson) {
+        if (extractFieldsJson == null || extractFieldsJson.isBlank()) {
+            return "";
+        }
+        try {
+            Object value = objectMapper.readValue(extractFieldsJson, Object.class);
+            return canonicalMapper.writeValueAsString(value);
+        } catch (Exception e) {
+            return extractFieldsJson.trim();
+        }
+    }
+}
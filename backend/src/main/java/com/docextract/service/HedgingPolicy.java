@@ -0,0 +1,197 @@
+package com.docextract.service;
+
+import com.docextract.config.HedgingConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对冲执行策略
+ * <p>
+ * 按文档页数分档记录最近 window-size 次成功的AI提取耗时。单次执行超过本档耗时的 percentile 分位数
+ * （且不少于 min-delay-seconds）仍未结束时，可以再启动一次相同的执行。
+ * 对冲额度与重试预算类似：每次执行存入 max-ratio，每次对冲消耗1，上限 burst，对冲量不会超过执行量的固定比例。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class HedgingPolicy {
+
+    private final HedgingConfig hedgingConfig;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, LatencyWindow> windows = new ConcurrentHashMap<>();
+
+    private double balance;
+
+    private Counter attemptsCounter;
+    private Counter launchedCounter;
+    private Counter wonCounter;
+    private Counter noCapacityCounter;
+    private Counter noBudgetCounter;
+
+    @PostConstruct
+    public void init() {
+        balance = hedgingConfig.getBurst();
+        attemptsCounter = Counter.builder("extract.hedge.attempts")
+                .description("可对冲的AI提取执行次数")
+                .register(meterRegistry);
+        launchedCounter = Counter.builder("extract.hedge.launched")
+                .description("启动的对冲执行次数")
+                .register(meterRegistry);
+        wonCounter = Counter.builder("extract.hedge.won")
+                .description("对冲执行先于原执行成功的次数")
+                .register(meterRegistry);
+        noCapacityCounter = Counter.builder("extract.hedge.skipped")
+                .tag("reason", "capacity")
+                .description("达到对冲时间但没有空闲槽位、TPM额度或执行线程而放弃的次数")
+                .register(meterRegistry);
+        noBudgetCounter = Counter.builder("extract.hedge.skipped")
+                .tag("reason", "budget")
+                .description("达到对冲时间但对冲额度不足而放弃的次数")
+                .register(meterRegistry);
+        Gauge.builder("extract.hedge.rate", this, HedgingPolicy::getHedgeRate)
+                .description("对冲次数占执行次数的比例")
+                .register(meterRegistry);
+        Gauge.builder("extract.hedge.budget", this, HedgingPolicy::getBalance)
+                .description("当前剩余的对冲额度")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 文档大小分档（按页数）
+     */
+    public static String sizeClass(Integer pageCount) {
+        if (pageCount == null) {
+            return "unknown";
+        }
+        if (pageCount <= 1) {
+            return "single";
+        }
+        if (pageCount <= 10) {
+            return "small";
+        }
+        return pageCount <= 50 ? "medium" : "large";
+    }
+
+    /**
+     * 开始一次执行：存入对冲额度，返回多久之后仍未结束就对冲（毫秒），不对冲时返回 -1
+     */
+    public long onAttempt(String sizeClass) {
+        if (!hedgingConfig.isEnabled()) {
+            return -1;
+        }
+        attemptsCounter.increment();
+        synchronized (this) {
+            balance = Math.min(hedgingConfig.getBurst(), balance + hedgingConfig.getMaxRatio());
+        }
+        LatencyWindow window = windows.get(sizeClass);
+        long percentileMs = window != null ? window.percentile(hedgingConfig.getPercentile(), hedgingConfig.getMinSamples()) : -1;
+        if (percentileMs < 0) {
+            return -1;
+        }
+        return Math.max(percentileMs, TimeUnit.SECONDS.toMillis(hedgingConfig.getMinDelaySeconds()));
+    }
+
+    /**
+     * 记录一次成功执行的耗时
+     */
+    public void recordLatency(String sizeClass, long latencyMs) {
+        windows.computeIfAbsent(sizeClass, key -> new LatencyWindow(Math.max(1, hedgingConfig.getWindowSize())))
+                .add(latencyMs);
+        Timer.builder("extract.attempt.latency")
+                .tag("size_class", sizeClass)
+                .description("成功的AI提取执行耗时")
+                .register(meterRegistry)
+                .record(latencyMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 尝试消耗一次对冲额度
+     */
+    public synchronized boolean tryAcquire() {
+        if (balance < 1) {
+            noBudgetCounter.increment();
+            return false;
+        }
+        balance -= 1;
+        return true;
+    }
+
+    /**
+     * 已消耗额度但对冲没有启动（没有空闲执行线程）时归还
+     */
+    public synchronized void release() {
+        balance = Math.min(hedgingConfig.getBurst(), balance + 1);
+    }
+
+    /**
+     * 对冲执行已启动
+     */
+    public void onLaunched() {
+        launchedCounter.increment();
+    }
+
+    /**
+     * 达到对冲时间但没有空闲槽位、TPM额度或执行线程
+     */
+    public void onNoCapacity() {
+        noCapacityCounter.increment();
+    }
+
+    public void onHedgeWon() {
+        wonCounter.increment();
+    }
+
+    public synchronized double getBalance() {
+        return balance;
+    }
+
+    public double getHedgeRate() {
+        double attempts = attemptsCounter.count();
+        return attempts > 0 ? launchedCounter.count() / attempts : 0;
+    }
+
+    /**
+     * 最近若干次耗时的环形缓冲区
+     */
+    static class LatencyWindow {
+
+        private final long[] samples;
+        private int next = 0;
+        private int size = 0;
+
+        LatencyWindow(int capacity) {
+            this.samples = new long[capacity];
+        }
+
+        synchronized void add(long latencyMs) {
+            samples[next] = latencyMs;
+            next = (next + 1) % samples.length;
+            size = Math.min(size + 1, samples.length);
+        }
+
+        /**
+         * 样本不足 minSamples 时返回 -1
+         */
+        synchronized long percentile(double quantile, int minSamples) {
+            if (size == 0 || size < minSamples) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(quantile * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, index))];
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.docextract.service;
+
+import com.docextract.config.OcrCacheConfig;
+import com.docextract.entity.Task;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 内容寻址的OCR结果存储
+ * <p>
+ * 目录结构: {dir}/{哈希前两位}/{文件SHA-256}/full.md + images/，由Python工作进程在首次OCR后写入，
+ * 之后任何任务上传相同文件都直接复用，只需调用大模型。
+ * 后端负责磁盘配额：每次使用时刷新目录修改时间，定期按最近使用时间淘汰超出配额的条目。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class OcrArtifactStore {
+
+    private static final String MARKDOWN_FILE = "full.md";
+
+    // 写入中断残留的临时目录超过该时间后清理
+    private static final Duration STALE_TMP_AGE = Duration.ofDays(1);
+
+    private final OcrCacheConfig cacheConfig;
+    private final MeterRegistry meterRegistry;
+
+    private final AtomicLong totalBytes = new AtomicLong(0);
+
+    private Counter hitCounter;
+    private Counter missCounter;
+
+    @PostConstruct
+    public void init() {
+        hitCounter = Counter.builder("ocr.artifact_cache")
+                .tag("result", "hit")
+                .description("OCR结果缓存命中次数")
+                .register(meterRegistry);
+        missCounter = Counter.builder("ocr.artifact_cache")
+                .tag("result", "miss")
+                .description("OCR结果缓存未命中次数")
+                .register(meterRegistry);
+        Gauge.builder("ocr.artifact_cache.bytes", totalBytes, AtomicLong::get)
+                .description("OCR结果缓存占用的磁盘空间")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 获取任务对应的缓存目录（绝对路径，交给Python工作进程）
+     * 已有缓存时刷新其使用时间；任务没有内容哈希或缓存关闭时返回 null
+     */
+    public Path resolve(Task task) {
+        String hash = task.getContentHash();
+        if (!cacheConfig.isEnabled() || hash == null || hash.length() < 2) {
+            return null;
+        }
+        Path dir = root().resolve(hash.substring(0, 2)).resolve(hash);
+        if (Files.exists(dir.resolve(MARKDOWN_FILE))) {
+            touch(dir);
+            hitCounter.increment();
+        } else {
+            missCounter.increment();
+        }
+        return dir;
+    }
+
+    /**
+     * 定期检查磁盘配额，按最近使用时间淘汰
+     */
+    @Scheduled(fixedDelayString = "${ocr-cache.cleanup-interval:600}",
+            initialDelayString = "${ocr-cache.cleanup-interval:600}",
+            timeUnit = TimeUnit.SECONDS)
+    public void enforceQuota() {
+        Path root = root();
+        if (!cacheConfig.isEnabled() || !Files.isDirectory(root)) {
+            return;
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        Instant staleBefore = Instant.now().minus(STALE_TMP_AGE);
+        try (Stream<Path> shards = Files.list(root)) {
+            for (Path shard : shards.filter(Files::isDirectory).toList()) {
+                try (Stream<Path> dirs = Files.list(shard)) {
+                    for (Path dir : dirs.filter(Files::isDirectory).toList()) {
+                        FileTime lastUsed = Files.getLastModifiedTime(dir);
+                        if (dir.getFileName().toString().startsWith(".")) {
+                            // 写入中断留下的临时目录
+                            if (lastUsed.toInstant().isBefore(staleBefore)) {
+                                deleteRecursively(dir);
+                            }
+                            continue;
+                        }
+                        entries.add(new Entry(dir, sizeOf(dir), lastUsed.toMillis()));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("扫描OCR缓存失败: {}", e.getMessage());
+            return;
+        }
+
+        long total = entries.stream().mapToLong(Entry::bytes).sum();
+        long quota = cacheConfig.getMaxSizeMb() * 1024 * 1024;
+        long protectAfter = System.currentTimeMillis() - cacheConfig.getProtectMinutes() * 60_000L;
+
+        if (total > quota) {
+            entries.sort(Comparator.comparingLong(Entry::lastUsed));
+            int evicted = 0;
+            for (Entry entry : entries) {
+                if (total <= quota || entry.lastUsed() > protectAfter) {
+                    break;
+                }
+                if (deleteRecursively(entry.dir())) {
+                    total -= entry.bytes();
+                    evicted++;
+                }
+            }
+            log.info("OCR缓存超出配额，淘汰 {} 个条目，当前占用 {} MB", evicted, total / 1024 / 1024);
+        }
+        totalBytes.set(total);
+    }
+
+    private Path root() {
+        return Paths.get(cacheConfig.getDir()).toAbsolutePath().normalize();
+    }
+
+    private void touch(Path dir) {
+        try {
+            Files.setLastModifiedTime(dir, FileTime.from(Instant.now()));
+        } catch (IOException e) {
+            log.debug("刷新OCR缓存使用时间失败: {}", e.getMessage());
+        }
+    }
+
+    private long sizeOf(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private boolean deleteRecursively(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(p);
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("删除OCR缓存失败: {}, {}", dir, e.getMessage());
+            return false;
+        }
+    }
+
+    private record Entry(Path dir, long bytes, long lastUsed) {
+    }
+}
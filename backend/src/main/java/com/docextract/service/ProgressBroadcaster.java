@@ -0,0 +1,399 @@
+package com.docextract.service;
+
+import com.docextract.dto.TaskProgressDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 任务进度推送
+ * <p>
+ * 进度写入Redis后发布到 task:progress 频道（与上次发布的相同则不发布，一批进度用一次管道发布）。每个节点只订阅一次，
+ * 收到消息后推送给本节点上订阅该任务的所有SSE连接，任务结束后关闭这些连接。
+ * 监听容器的线程池不保证消息按发布顺序处理，每个连接记录已发送的版本号，晚到的旧进度直接丢弃。
+ * SSE连接不再各自定时轮询Redis和数据库，进度变化后立即送达。等待进度变化的长轮询请求同样在收到消息时返回。
+ * <p>
+ * 批量任务的推送在一个连接上发送该批次所有任务的进度：连接时发送快照，之后只发送变化了的字段。
+ * 事件ID为进度的更新时间，断线重连时按 Last-Event-ID 只补发之后有变化的任务。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProgressBroadcaster {
+
+    private static final String PROGRESS_CHANNEL = "task:progress";
+
+    private static final Set<String> FINAL_STAGES = Set.of("COMPLETED", "FAILED", "CANCELLED");
+
+    // 断线续传时多补发的时间范围（毫秒），容忍各节点之间的时钟偏差，重复的进度对客户端无影响
+    private static final long RESUME_SKEW_MS = 2000;
+
+    // 批量推送中比较并按需发送的字段
+    private static final Map<String, Function<TaskProgressDTO, Object>> DELTA_FIELDS = deltaFields();
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    // taskId -> 本节点上订阅该任务的SSE连接
+    private final Map<Long, Set<SseEmitter>> emitters = new ConcurrentHashMap<>();
+
+    // SSE连接 -> 已发送给客户端的进度版本号
+    private final Map<SseEmitter, Long> sentVersions = new ConcurrentHashMap<>();
+
+    // taskId -> 本节点上包含该任务的批量订阅
+    private final Map<Long, Set<BatchSubscription>> batchSubscriptions = new ConcurrentHashMap<>();
+
+    // taskId -> 本节点上等待该任务进度变化的长轮询请求
+    private final Map<Long, Set<Consumer<TaskProgressDTO>>> watchers = new ConcurrentHashMap<>();
+
+    // taskId -> 本节点最近一次发布的进度，用于跳过没有变化的更新；收到任务结束的消息或过期时移除
+    private final Map<Long, Published> lastPublished = new ConcurrentHashMap<>();
+
+    /**
+     * 发布过的进度内容（不含更新时间和版本号）及发布时间（epoch毫秒）
+     */
+    private record Published(TaskProgressDTO content, long publishedAt) {
+    }
+
+    @PostConstruct
+    public void init() {
+        listenerContainer.addMessageListener(this::onProgressMessage, new ChannelTopic(PROGRESS_CHANNEL));
+        Gauge.builder("progress.stream.subscribers", emitters,
+                        map -> map.values().stream().mapToInt(Set::size).sum())
+                .description("本节点打开的进度推送连接数")
+                .register(meterRegistry);
+        Gauge.builder("progress.stream.batch_subscribers", batchSubscriptions,
+                        map -> map.values().stream().flatMap(Set::stream).distinct().count())
+                .description("本节点打开的批量进度推送连接数")
+                .register(meterRegistry);
+        Gauge.builder("progress.poll.waiters", watchers,
+                        map -> map.values().stream().mapToInt(Set::size).sum())
+                .description("本节点上等待进度变化的长轮询请求数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 移除发布时间早于指定时间的记录（没有收到结束消息的任务，例如消息丢失）
+     */
+    public void evictPublishedBefore(long before) {
+        lastPublished.values().removeIf(published -> published.publishedAt() < before);
+    }
+
+    public static boolean isFinal(TaskProgressDTO progress) {
+        return progress != null && FINAL_STAGES.contains(progress.getStage());
+    }
+
+    /**
+     * 发布进度变化，与本节点上次发布的相同时不发布
+     */
+    public void publish(TaskProgressDTO progress) {
+        publish(List.of(progress));
+    }
+
+    /**
+     * 批量发布进度变化，用一次管道发送，与本节点上次发布的相同的跳过
+     */
+    public void publish(Collection<TaskProgressDTO> batch) {
+        List<byte[]> messages = new ArrayList<>(batch.size());
+        for (TaskProgressDTO progress : batch) {
+            Long taskId = progress.getTaskId();
+            if (taskId == null) {
+                continue;
+            }
+            // 比较时忽略更新时间和版本号
+            TaskProgressDTO content = progress.toBuilder().updatedAt(null).version(null).build();
+            if (isFinal(progress)) {
+                lastPublished.remove(taskId);
+            } else {
+                Published previous = lastPublished.put(taskId, new Published(content, System.currentTimeMillis()));
+                if (previous != null && content.equals(previous.content())) {
+                    continue;
+                }
+            }
+            try {
+                messages.add(objectMapper.writeValueAsBytes(progress));
+            } catch (Exception e) {
+                log.warn("序列化进度失败: taskId={}, {}", taskId, e.getMessage());
+            }
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+        try {
+            byte[] channel = PROGRESS_CHANNEL.getBytes(StandardCharsets.UTF_8);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (byte[] message : messages) {
+                    connection.publish(channel, message);
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("发布进度失败: {} 条, {}", messages.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * 订阅任务进度，连接结束、超时或出错时自动取消订阅
+     */
+    public SseEmitter subscribe(Long taskId, long timeoutMs) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        sentVersions.put(emitter, Long.MIN_VALUE);
+        emitters.computeIfAbsent(taskId, id -> ConcurrentHashMap.newKeySet()).add(emitter);
+        Runnable unsubscribe = () -> unsubscribe(taskId, emitter);
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(e -> unsubscribe.run());
+        return emitter;
+    }
+
+    /**
+     * 向一个连接发送进度，比已发送的版本旧的进度丢弃；任务已结束时随后关闭连接
+     */
+    public void send(SseEmitter emitter, TaskProgressDTO progress) {
+        synchronized (emitter) {
+            long version = versionOf(progress);
+            Long sent = sentVersions.get(emitter);
+            if (sent == null || version < sent) {
+                // 连接已取消订阅，或是晚到的旧进度
+                return;
+            }
+            sentVersions.replace(emitter, version);
+            try {
+                emitter.send(SseEmitter.event().name("progress").data(progress));
+                if (isFinal(progress)) {
+                    emitter.complete();
+                }
+            } catch (Exception e) {
+                // 客户端已断开
+                emitter.completeWithError(e);
+            }
+        }
+    }
+
+    /**
+     * 订阅批量任务的进度：先登记订阅再读取快照，期间的变化不会丢失
+     *
+     * @param taskIds     批次内的任务
+     * @param lastEventId 客户端重连时带上的 Last-Event-ID，为空时发送完整快照
+     * @param snapshot    读取批次内所有任务的当前进度
+     */
+    public SseEmitter subscribeBatch(Collection<Long> taskIds, long timeoutMs, Long lastEventId,
+                                     Supplier<List<TaskProgressDTO>> snapshot) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        BatchSubscription subscription = new BatchSubscription(emitter, taskIds);
+        for (Long taskId : taskIds) {
+            batchSubscriptions.computeIfAbsent(taskId, id -> ConcurrentHashMap.newKeySet()).add(subscription);
+        }
+        Runnable unsubscribe = () -> unsubscribeBatch(subscription);
+        emitter.onCompletion(unsubscribe);
+        emitter.onTimeout(unsubscribe);
+        emitter.onError(e -> unsubscribe.run());
+
+        try {
+            long resumeAfter = lastEventId != null ? lastEventId - RESUME_SKEW_MS : Long.MIN_VALUE;
+            subscription.offer(snapshot.get(), lastEventId == null ? "snapshot" : "delta", resumeAfter);
+        } catch (RuntimeException e) {
+            unsubscribeBatch(subscription);
+            throw e;
+        }
+        return emitter;
+    }
+
+    /**
+     * 监听任务的进度变化（长轮询使用），返回取消监听的操作
+     */
+    public Runnable watch(Long taskId, Consumer<TaskProgressDTO> listener) {
+        watchers.computeIfAbsent(taskId, id -> ConcurrentHashMap.newKeySet()).add(listener);
+        return () -> watchers.computeIfPresent(taskId, (id, set) -> {
+            set.remove(listener);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private void unsubscribeBatch(BatchSubscription subscription) {
+        for (Long taskId : subscription.taskIds) {
+            batchSubscriptions.computeIfPresent(taskId, (id, set) -> {
+                set.remove(subscription);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    public void unsubscribe(Long taskId, SseEmitter emitter) {
+        emitters.computeIfPresent(taskId, (id, set) -> {
+            set.remove(emitter);
+            return set.isEmpty() ? null : set;
+        });
+        sentVersions.remove(emitter);
+    }
+
+    private void onProgressMessage(Message message, byte[] pattern) {
+        TaskProgressDTO progress;
+        try {
+            progress = objectMapper.readValue(new String(message.getBody(), StandardCharsets.UTF_8),
+                    TaskProgressDTO.class);
+        } catch (Exception e) {
+            log.warn("解析进度消息失败: {}", e.getMessage());
+            return;
+        }
+        if (isFinal(progress)) {
+            // 任务可能在其他节点结束（被接管、取消、删除或恢复时标记），本节点不会再发布它的进度
+            lastPublished.remove(progress.getTaskId());
+        }
+        Set<SseEmitter> subscribers = emitters.get(progress.getTaskId());
+        if (subscribers != null) {
+            for (SseEmitter emitter : subscribers) {
+                send(emitter, progress);
+            }
+        }
+        Set<Consumer<TaskProgressDTO>> listeners = watchers.get(progress.getTaskId());
+        if (listeners != null) {
+            for (Consumer<TaskProgressDTO> listener : listeners) {
+                try {
+                    listener.accept(progress);
+                } catch (Exception e) {
+                    log.warn("通知进度变化失败: taskId={}, {}", progress.getTaskId(), e.getMessage());
+                }
+            }
+        }
+        Set<BatchSubscription> batches = batchSubscriptions.get(progress.getTaskId());
+        if (batches != null) {
+            for (BatchSubscription subscription : batches) {
+                subscription.offer(List.of(progress), "delta", Long.MIN_VALUE);
+            }
+        }
+    }
+
+    private static Map<String, Function<TaskProgressDTO, Object>> deltaFields() {
+        Map<String, Function<TaskProgressDTO, Object>> fields = new LinkedHashMap<>();
+        fields.put("stage", TaskProgressDTO::getStage);
+        fields.put("stageText", TaskProgressDTO::getStageText);
+        fields.put("progress", TaskProgressDTO::getProgress);
+        fields.put("processedCount", TaskProgressDTO::getProcessedCount);
+        fields.put("totalCount", TaskProgressDTO::getTotalCount);
+        fields.put("currentFile", TaskProgressDTO::getCurrentFile);
+        fields.put("estimatedTimeRemaining", TaskProgressDTO::getEstimatedTimeRemaining);
+        fields.put("errorMessage", TaskProgressDTO::getErrorMessage);
+        return fields;
+    }
+
+    private static long updatedAt(TaskProgressDTO progress) {
+        return progress.getUpdatedAt() != null ? progress.getUpdatedAt() : 0;
+    }
+
+    /**
+     * 进度的版本号，没有版本号时（例如从数据库读取的进度）取更新时间
+     */
+    private static long versionOf(TaskProgressDTO progress) {
+        return progress.getVersion() != null ? progress.getVersion() : updatedAt(progress);
+    }
+
+    /**
+     * 一个批量进度推送连接
+     * 记录已发送给客户端的每个任务的进度，只发送变化了的字段；晚到的旧进度直接丢弃，因此快照和实时消息的先后顺序不影响结果
+     */
+    private static class BatchSubscription {
+
+        final SseEmitter emitter;
+        final Set<Long> taskIds;
+        // taskId -> 客户端当前看到的进度
+        final Map<Long, TaskProgressDTO> sent = new ConcurrentHashMap<>();
+        // 尚未结束的任务，全部结束后关闭连接
+        final Set<Long> unfinished;
+
+        BatchSubscription(SseEmitter emitter, Collection<Long> taskIds) {
+            this.emitter = emitter;
+            this.taskIds = Set.copyOf(taskIds);
+            this.unfinished = new HashSet<>(taskIds);
+        }
+
+        /**
+         * 合并一组进度，有变化时作为一个事件发送
+         *
+         * @param resumeAfter 更新时间不晚于该值的进度客户端已有，只记录不发送
+         */
+        synchronized void offer(List<TaskProgressDTO> updates, String eventName, long resumeAfter) {
+            if (unfinished.isEmpty()) {
+                return;
+            }
+            List<Map<String, Object>> changes = new ArrayList<>();
+            long eventId = 0;
+            for (TaskProgressDTO progress : updates) {
+                Long taskId = progress.getTaskId();
+                if (!taskIds.contains(taskId)) {
+                    continue;
+                }
+                TaskProgressDTO previous = sent.get(taskId);
+                if (previous != null && updatedAt(progress) < updatedAt(previous)) {
+                    continue;
+                }
+                sent.put(taskId, progress);
+                if (isFinal(progress)) {
+                    unfinished.remove(taskId);
+                }
+                eventId = Math.max(eventId, updatedAt(progress));
+                if (updatedAt(progress) <= resumeAfter) {
+                    continue;
+                }
+                Map<String, Object> change = diff(previous, progress);
+                if (change != null) {
+                    changes.add(change);
+                }
+            }
+
+            try {
+                if (!changes.isEmpty() || "snapshot".equals(eventName)) {
+                    emitter.send(SseEmitter.event().id(String.valueOf(eventId)).name(eventName).data(changes));
+                }
+                if (unfinished.isEmpty()) {
+                    emitter.send(SseEmitter.event().name("done").data(Map.of("taskCount", taskIds.size())));
+                    emitter.complete();
+                }
+            } catch (Exception e) {
+                // 客户端已断开
+                emitter.completeWithError(e);
+            }
+        }
+
+        /**
+         * 与客户端已有的进度相比变化了的字段，没有变化时返回 null
+         */
+        private static Map<String, Object> diff(TaskProgressDTO previous, TaskProgressDTO current) {
+            Map<String, Object> change = new LinkedHashMap<>();
+            change.put("taskId", current.getTaskId());
+            DELTA_FIELDS.forEach((name, getter) -> {
+                Object value = getter.apply(current);
+                if (previous == null ? value != null : !Objects.equals(value, getter.apply(previous))) {
+                    change.put(name, value);
+                }
+            });
+            return change.size() > 1 ? change : null;
+        }
+    }
+}
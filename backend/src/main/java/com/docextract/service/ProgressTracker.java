@@ -0,0 +1,275 @@
+package com.docextract.service;
+
+import com.docextract.config.ProgressConfig;
+import com.docextract.dto.TaskProgressDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 任务进度记录
+ * <p>
+ * 每个任务的最新进度保存在本地内存中，工作进程频繁上报的进度只覆盖内存中的值；
+ * 定时把有变化的任务用一次管道批量写入Redis并发布，同一任务在一个间隔内的多次更新只写一次。
+ * 任务结束（完成、失败、取消）的进度立即写入。本节点读取进度时优先使用内存中的值，其他节点从Redis读取。
+ * 任务结束后短时间内保留结束标记，其间晚到的中间进度直接丢弃，不会覆盖结束进度。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ProgressTracker {
+
+    private static final String PROGRESS_KEY_PREFIX = "task:progress:";
+
+    // 结束标记的保留时间（毫秒），覆盖结束进度写入前后仍在途的中间进度
+    private static final long FINISHED_RETENTION_MS = 60_000;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final ProgressBroadcaster progressBroadcaster;
+    private final ProgressConfig progressConfig;
+    private final MeterRegistry meterRegistry;
+
+    // taskId -> 本节点上正在处理的任务的最新进度
+    private final Map<Long, TaskProgressDTO> latest = new ConcurrentHashMap<>();
+
+    // taskId -> 尚未写入Redis的进度
+    private final Map<Long, TaskProgressDTO> dirty = new ConcurrentHashMap<>();
+
+    // taskId -> 最近结束的任务的结束进度（结束标记），重新开始处理时清除
+    private final Map<Long, TaskProgressDTO> finished = new ConcurrentHashMap<>();
+
+    // 写入按顺序进行，定时写入的旧进度不会覆盖随后立即写入的结束进度
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    // 定时写入使用独立线程，不与其他定时任务共用调度线程，间隔稳定
+    private final ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "progress-flush");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private Counter updatesCounter;
+    private Counter writesCounter;
+    private Counter staleCounter;
+
+    @PostConstruct
+    public void init() {
+        updatesCounter = Counter.builder("progress.updates")
+                .description("进度更新次数")
+                .register(meterRegistry);
+        writesCounter = Counter.builder("progress.writes")
+                .description("实际写入Redis的进度条数")
+                .register(meterRegistry);
+        staleCounter = Counter.builder("progress.stale")
+                .description("任务结束后晚到而丢弃的进度条数")
+                .register(meterRegistry);
+        Gauge.builder("progress.dirty", dirty, Map::size)
+                .description("等待写入Redis的进度条数")
+                .register(meterRegistry);
+        long interval = Math.max(1, progressConfig.getFlushIntervalMs());
+        flushScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (Exception e) {
+                // 异常不能抛出，否则后续的定时写入会停止
+                log.warn("定时写入进度失败: {}", e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 更新进度：任务结束时立即写入Redis，否则等下一次定时写入；任务已结束时丢弃中间进度
+     */
+    public void update(TaskProgressDTO progress) {
+        Long taskId = progress.getTaskId();
+        if (taskId == null) {
+            return;
+        }
+        updatesCounter.increment();
+        boolean isFinal = ProgressBroadcaster.isFinal(progress);
+        TaskProgressDTO finalProgress = finished.get(taskId);
+        if (!isFinal && finalProgress != null) {
+            staleCounter.increment();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        TaskProgressDTO previous = latest.get(taskId);
+        progress.setUpdatedAt(now);
+        progress.setVersion(versionFor(previous != null ? previous : finalProgress, progress, now));
+        if (!isFinal) {
+            latest.put(taskId, progress);
+            dirty.put(taskId, progress);
+            // 与结束进度并发时再检查一次：结束标记先于清理写入，这里没看到标记时，随后的清理会移除这条进度
+            if (finished.containsKey(taskId)) {
+                latest.remove(taskId, progress);
+                dirty.remove(taskId, progress);
+                staleCounter.increment();
+            }
+            return;
+        }
+
+        finished.put(taskId, progress);
+        flushLock.lock();
+        try {
+            dirty.remove(taskId);
+            write(List.of(progress));
+        } finally {
+            latest.remove(taskId);
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 任务重新开始处理（重试）时清除结束标记
+     */
+    public void reopen(Long taskId) {
+        finished.remove(taskId);
+    }
+
+    /**
+     * 进度的版本号：内容没有变化时沿用上一版本；否则取当前时间，同一毫秒内多次更新或时钟回拨时在上一版本上加1，保证单调递增
+     * 任务结束后的版本号接着结束进度的版本号递增
+     */
+    static long versionFor(TaskProgressDTO previous, TaskProgressDTO progress, long now) {
+        if (previous == null || previous.getVersion() == null) {
+            return now;
+        }
+        if (contentOf(previous).equals(contentOf(progress))) {
+            return previous.getVersion();
+        }
+        return Math.max(now, previous.getVersion() + 1);
+    }
+
+    private static TaskProgressDTO contentOf(TaskProgressDTO progress) {
+        return progress.toBuilder().updatedAt(null).version(null).build();
+    }
+
+    /**
+     * 读取进度，本节点正在处理的任务直接使用内存中的值
+     */
+    public TaskProgressDTO get(Long taskId) {
+        TaskProgressDTO local = latest.get(taskId);
+        if (local != null) {
+            return local;
+        }
+        return (TaskProgressDTO) redisTemplate.opsForValue().get(PROGRESS_KEY_PREFIX + taskId);
+    }
+
+    /**
+     * 批量读取进度（不在本节点内存中的任务一次批量读取Redis），没有进度记录的任务不在结果中
+     */
+    public Map<Long, TaskProgressDTO> get(List<Long> taskIds) {
+        Map<Long, TaskProgressDTO> progress = new HashMap<>();
+        List<Long> remote = new ArrayList<>();
+        for (Long taskId : taskIds) {
+            TaskProgressDTO local = latest.get(taskId);
+            if (local != null) {
+                progress.put(taskId, local);
+            } else {
+                remote.add(taskId);
+            }
+        }
+        if (remote.isEmpty()) {
+            return progress;
+        }
+        List<Object> values = redisTemplate.opsForValue()
+                .multiGet(remote.stream().map(id -> PROGRESS_KEY_PREFIX + id).toList());
+        for (int i = 0; values != null && i < remote.size(); i++) {
+            if (values.get(i) instanceof TaskProgressDTO dto) {
+                progress.put(remote.get(i), dto);
+            }
+        }
+        return progress;
+    }
+
+    /**
+     * 定时把有变化的进度批量写入Redis（在独立线程上按 flush-interval-ms 执行）
+     */
+    public void flush() {
+        // 本节点没有收到结束进度的任务（例如在其他节点取消），过期后不再优先使用内存中的值
+        long expiredBefore = System.currentTimeMillis() - Duration.ofHours(progressConfig.getTtlHours()).toMillis();
+        latest.values().removeIf(progress -> progress.getUpdatedAt() < expiredBefore);
+        progressBroadcaster.evictPublishedBefore(expiredBefore);
+        long finishedBefore = System.currentTimeMillis() - FINISHED_RETENTION_MS;
+        finished.values().removeIf(progress -> progress.getUpdatedAt() < finishedBefore);
+        if (dirty.isEmpty()) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            List<TaskProgressDTO> batch = new ArrayList<>(dirty.size());
+            for (Long taskId : new ArrayList<>(dirty.keySet())) {
+                TaskProgressDTO progress = dirty.remove(taskId);
+                if (progress != null) {
+                    batch.add(progress);
+                }
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flushScheduler.shutdown();
+        try {
+            flushScheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    /**
+     * 用一次管道写入一批进度，再发布进度变化
+     */
+    private void write(List<TaskProgressDTO> batch) {
+        Duration ttl = Duration.ofHours(progressConfig.getTtlHours());
+        try {
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, Object> ops = (RedisOperations<String, Object>) operations;
+                    for (TaskProgressDTO progress : batch) {
+                        ops.opsForValue().set(PROGRESS_KEY_PREFIX + progress.getTaskId(), progress, ttl);
+                    }
+                    return null;
+                }
+            });
+            writesCounter.increment(batch.size());
+        } catch (Exception e) {
+            log.warn("写入进度失败: {} 条, {}", batch.size(), e.getMessage());
+            // 下一次定时写入时重试，期间已有更新的进度不覆盖
+            for (TaskProgressDTO progress : batch) {
+                if (!ProgressBroadcaster.isFinal(progress)) {
+                    dirty.putIfAbsent(progress.getTaskId(), progress);
+                }
+            }
+            return;
+        }
+        progressBroadcaster.publish(batch);
+    }
+}
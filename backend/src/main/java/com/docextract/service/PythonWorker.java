@@ -0,0 +1,276 @@
+package com.docextract.service;
+
+import com.docextract.dto.ExtractResult;
+import com.docextract.util.BoundedLineBuffer;
+import com.docextract.util.ProcessStreamPump;
+import com.docextract.util.ProcessTree;
+import com.docextract.util.WorkerFrameReader;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 常驻Python工作进程
+ * 以 --serve 模式启动 integrated_processor.py，stdin上发送行分隔的JSON请求，
+ * stdout上按帧读取响应（结果载荷流式解析），同一时间只处理一个请求
+ */
+@Slf4j
+public class PythonWorker {
+
+    private final int workerId;
+    private final Process process;
+    private final BufferedWriter stdin;
+    private final ObjectMapper objectMapper;
+    private final long maxResultBytes;
+
+    // stderr尾部，进程异常退出时用于诊断
+    private final BoundedLineBuffer stderrTail;
+
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private final AtomicInteger completedJobs = new AtomicInteger(0);
+
+    // 当前等待响应的请求（ping 或 job）
+    private volatile String pendingId;
+    private volatile CompletableFuture<Object> pendingResponse;
+    private volatile Consumer<Map<String, Object>> progressListener;
+
+    private volatile boolean retired = false;
+
+    // stderr单行保留的最大长度
+    private static final int STDERR_LINE_LIMIT = 2000;
+
+    private PythonWorker(int workerId, Process process, ObjectMapper objectMapper,
+                         long maxResultBytes, int stderrTailLines) {
+        this.workerId = workerId;
+        this.process = process;
+        this.objectMapper = objectMapper;
+        this.maxResultBytes = maxResultBytes;
+        this.stderrTail = new BoundedLineBuffer(stderrTailLines, STDERR_LINE_LIMIT);
+        this.stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 启动工作进程并等待其就绪（预热完成）
+     */
+    public static PythonWorker start(int workerId, List<String> command, File workDir, Map<String, String> extraEnv,
+                                     ObjectMapper objectMapper, long startupTimeoutMs,
+                                     long maxResultBytes, int stderrTailLines) throws Exception {
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.directory(workDir);
+        pb.environment().putAll(extraEnv);
+
+        log.info("启动Python工作进程 #{}: {}", workerId, command);
+        PythonWorker worker = new PythonWorker(workerId, pb.start(), objectMapper, maxResultBytes, stderrTailLines);
+        worker.startReaders();
+
+        try {
+            worker.ready.get(startupTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            worker.destroy();
+            throw new RuntimeException("Python工作进程启动超时");
+        } catch (ExecutionException e) {
+            worker.destroy();
+            throw new RuntimeException("Python工作进程启动失败: " + e.getCause().getMessage());
+        }
+
+        log.info("Python工作进程 #{} 已就绪: pid={}", workerId, worker.process.pid());
+        return worker;
+    }
+
+    private void startReaders() {
+        Thread stdoutReader = new Thread(this::readFrames, "python-worker-" + workerId + "-stdout");
+        stdoutReader.setDaemon(true);
+        stdoutReader.start();
+
+        ProcessStreamPump.start("python-worker-" + workerId + "-stderr", process.getErrorStream(),
+                line -> {
+                    stderrTail.add(line);
+                    log.debug("Python日志 #{}: {}", workerId, line);
+                });
+    }
+
+    /**
+     * 执行提取任务
+     */
+    public ExtractResult runJob(String jobId, Map<String, Object> input, String extractFieldsJson,
+                                Consumer<Map<String, Object>> onProgress, long timeoutMs) throws Exception {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("type", "job");
+        request.put("jobId", jobId);
+        request.put("input", input);
+        request.put("extractFields", extractFieldsJson);
+
+        Object response = call(jobId, request, onProgress, timeoutMs);
+        completedJobs.incrementAndGet();
+
+        if (!(response instanceof ExtractResult)) {
+            throw new RuntimeException("Python工作进程返回格式错误");
+        }
+        return (ExtractResult) response;
+    }
+
+    /**
+     * 健康检查
+     */
+    public boolean ping(long timeoutMs) {
+        String id = "ping-" + System.nanoTime();
+        try {
+            call(id, Map.of("type", "ping", "id", id), null, timeoutMs);
+            return true;
+        } catch (Exception e) {
+            log.warn("Python工作进程 #{} 健康检查失败: {}", workerId, e.getMessage());
+            return false;
+        }
+    }
+
+    private Object call(String id, Map<String, Object> request,
+                        Consumer<Map<String, Object>> onProgress, long timeoutMs) throws Exception {
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        pendingId = id;
+        pendingResponse = response;
+        progressListener = onProgress;
+
+        try {
+            send(request);
+            return response.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 无法中断进程内的任务，超时直接回收该进程
+            destroy();
+            throw new RuntimeException("处理超时 (" + timeoutMs / 1000 + "秒)");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof PayloadException) {
+                throw (PayloadException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause().getMessage());
+        } finally {
+            pendingId = null;
+            pendingResponse = null;
+            progressListener = null;
+        }
+    }
+
+    private synchronized void send(Map<String, Object> message) throws IOException {
+        stdin.write(objectMapper.writeValueAsString(message));
+        stdin.newLine();
+        stdin.flush();
+    }
+
+    /**
+     * 按帧读取stdout，直到进程退出
+     */
+    private void readFrames() {
+        WorkerFrameReader reader = new WorkerFrameReader(process.getInputStream(), objectMapper, maxResultBytes);
+        try {
+            Map<String, Object> header;
+            while ((header = reader.nextHeader()) != null) {
+                handleFrame(header, reader);
+            }
+        } catch (IOException e) {
+            log.debug("Python工作进程 #{} stdout已关闭: {}", workerId, e.getMessage());
+        } finally {
+            // stdout关闭意味着进程已退出，让等待中的请求立即失败
+            if (!retired) {
+                log.warn("Python工作进程 #{} 意外退出，stderr尾部:\n{}", workerId, stderrTail);
+            }
+            RuntimeException exited = new RuntimeException("Python工作进程已退出");
+            ready.completeExceptionally(exited);
+            CompletableFuture<Object> response = pendingResponse;
+            if (response != null) {
+                response.completeExceptionally(exited);
+            }
+        }
+    }
+
+    private void handleFrame(Map<String, Object> header, WorkerFrameReader reader) throws IOException {
+        String type = String.valueOf(header.get("type"));
+        switch (type) {
+            case "ready" -> ready.complete(null);
+            case "fatal" -> ready.completeExceptionally(new RuntimeException(String.valueOf(header.get("message"))));
+            case "progress" -> {
+                Consumer<Map<String, Object>> listener = progressListener;
+                if (listener != null && Objects.equals(pendingId, header.get("jobId"))) {
+                    listener.accept(header);
+                }
+            }
+            case "pong" -> completePending(header.get("id"), header);
+            case "result" -> {
+                Object response;
+                try {
+                    response = reader.readPayload(ExtractResult.class);
+                } catch (IOException e) {
+                    // 载荷过大或格式错误，读取器已跳过该载荷，进程仍可继续使用
+                    log.error("Python工作进程 #{} 结果解析失败: {}", workerId, e.getMessage());
+                    response = new PayloadException("解析结果失败: " + e.getMessage());
+                }
+                completePending(header.get("jobId"), response);
+            }
+            default -> log.debug("Python工作进程 #{} 未知消息类型: {}", workerId, type);
+        }
+    }
+
+    private void completePending(Object id, Object response) {
+        CompletableFuture<Object> pending = pendingResponse;
+        if (pending == null || !Objects.equals(pendingId, id)) {
+            return;
+        }
+        if (response instanceof Throwable) {
+            pending.completeExceptionally((Throwable) response);
+        } else {
+            pending.complete(response);
+        }
+    }
+
+    /**
+     * 正常关闭：发送shutdown指令，超时后强制结束
+     */
+    public void shutdown() {
+        retired = true;
+        try {
+            send(Map.of("type", "shutdown"));
+            if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                ProcessTree.destroyForcibly(process);
+            }
+        } catch (Exception e) {
+            ProcessTree.destroyForcibly(process);
+        }
+    }
+
+    /**
+     * 强制结束进程（连同其子进程）
+     */
+    public void destroy() {
+        retired = true;
+        ProcessTree.destroyForcibly(process);
+    }
+
+    public boolean isAlive() {
+        return !retired && process.isAlive();
+    }
+
+    public int getWorkerId() {
+        return workerId;
+    }
+
+    public int getCompletedJobs() {
+        return completedJobs.get();
+    }
+
+    /**
+     * 结果载荷过大或格式错误：读取器已跳过该载荷，进程本身仍可继续使用
+     */
+    public static class PayloadException extends RuntimeException {
+
+        public PayloadException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.docextract.service;
+
+import com.docextract.config.PythonPoolConfig;
+import com.docextract.dto.ExtractResult;
+import com.docextract.util.Cancellation;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 常驻Python工作进程池
+ * 避免每个任务都重新启动解释器、重新导入 dashscope/MinerU 依赖；
+ * 支持启动预热、定时健康检查以及处理N个任务后回收重启
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class PythonWorkerPool {
+
+    @Value("${python.worker-dir}")
+    private String pythonWorkerDir;
+
+    @Value("${python.script-path}")
+    private String scriptPath;
+
+    @Value("${python.python-path:python}")
+    private String pythonPath;
+
+    @Value("${python.max-result-bytes:16777216}")
+    private long maxResultBytes;
+
+    @Value("${python.stderr-tail-lines:200}")
+    private int stderrTailLines;
+
+    private final PythonPoolConfig poolConfig;
+    private final ObjectMapper objectMapper;
+    private final TpmRateLimiter tpmRateLimiter;
+
+    // 空闲进程队列
+    private final BlockingDeque<PythonWorker> idleWorkers = new LinkedBlockingDeque<>();
+
+    // 存活（含启动中）的进程数
+    private final AtomicInteger liveWorkers = new AtomicInteger(0);
+
+    private final AtomicInteger workerIdSequence = new AtomicInteger(0);
+
+    // 后台启动/替换进程使用的线程
+    private final ExecutorService spawnExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "python-pool-spawn");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 关闭回收的进程使用的线程（正常关闭最多等待数秒，不阻塞归还进程的执行线程）
+    private final ExecutorService retireExecutor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "python-pool-retire");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 等待空闲进程时检查进程池是否仍可用的间隔（毫秒）
+    private static final long BORROW_POLL_MS = 1000;
+
+    // 关闭应用时等待进程退出的时间（秒）
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 10;
+
+    // 启动失败后置为不可用，由健康检查尝试恢复
+    private volatile boolean available = true;
+
+    private volatile boolean shuttingDown = false;
+
+    /**
+     * 应用启动后预热工作进程
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!poolConfig.isEnabled() || !poolConfig.isWarmUp() || !scriptExists()) {
+            return;
+        }
+        log.info("预热Python工作进程池: size={}", poolConfig.getSize());
+        for (int i = 0; i < poolConfig.getSize(); i++) {
+            spawnInBackground();
+        }
+    }
+
+    /**
+     * 进程池是否可用（关闭或启动失败时调用方应退回单进程模式）
+     */
+    public boolean isAvailable() {
+        return poolConfig.isEnabled() && available && !shuttingDown && scriptExists();
+    }
+
+    /**
+     * 将任务交给空闲的常驻进程执行
+     * 任务取消时直接结束该进程（进程内的任务无法单独中止），进程池随后补齐
+     */
+    public ExtractResult execute(Map<String, Object> input, String extractFieldsJson,
+                                 Consumer<Map<String, Object>> onProgress, long timeoutMs,
+                                 Cancellation cancellation) throws Exception {
+        PythonWorker worker = borrow(timeoutMs);
+        boolean healthy = false;
+        cancellation.onCancel(worker::destroy);
+        try {
+            String jobId = input.get("taskId") + "-" + UUID.randomUUID();
+            ExtractResult result = worker.runJob(jobId, input, extractFieldsJson, onProgress, timeoutMs);
+            healthy = true;
+            return result;
+        } catch (PythonWorker.PayloadException e) {
+            // 结果载荷解析失败不影响进程本身，进程继续复用
+            healthy = true;
+            throw e;
+        } finally {
+            cancellation.clear();
+            release(worker, healthy);
+        }
+    }
+
+    /**
+     * 借出空闲进程；没有空闲进程时在后台补齐（未达到进程数上限时），本线程只等待，不在派发路径上启动解释器
+     */
+    private PythonWorker borrow(long timeoutMs) throws Exception {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            PythonWorker worker = idleWorkers.pollFirst();
+            if (worker == null) {
+                spawnInBackground();
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new RuntimeException("获取Python工作进程超时");
+                }
+                worker = idleWorkers.pollFirst(Math.min(remaining, BORROW_POLL_MS), TimeUnit.MILLISECONDS);
+                if (worker == null) {
+                    if (!available) {
+                        // 后台启动失败，由重试退回单进程模式
+                        throw new RuntimeException("Python工作进程启动失败");
+                    }
+                    continue;
+                }
+            }
+            if (worker.isAlive()) {
+                return worker;
+            }
+            retire(worker);
+        }
+    }
+
+    private void release(PythonWorker worker, boolean healthy) {
+        if (!healthy || !worker.isAlive()) {
+            retire(worker);
+            spawnInBackground();
+        } else if (worker.getCompletedJobs() >= poolConfig.getMaxJobsPerWorker()) {
+            log.info("Python工作进程 #{} 已处理 {} 个任务，回收重启", worker.getWorkerId(), worker.getCompletedJobs());
+            retire(worker);
+            spawnInBackground();
+        } else if (shuttingDown) {
+            retire(worker);
+        } else {
+            idleWorkers.offerFirst(worker);
+        }
+    }
+
+    /**
+     * 定时健康检查：ping所有空闲进程，移除无响应的进程并补齐
+     */
+    @Scheduled(fixedDelayString = "${python.pool.health-check-interval:30}",
+            initialDelayString = "${python.pool.health-check-interval:30}",
+            timeUnit = TimeUnit.SECONDS)
+    public void healthCheck() {
+        if (!poolConfig.isEnabled() || shuttingDown || !scriptExists()) {
+            return;
+        }
+
+        long timeoutMs = poolConfig.getHealthCheckTimeout() * 1000L;
+        for (PythonWorker worker : new ArrayList<>(idleWorkers)) {
+            // 只检查此刻仍空闲的进程，检查期间不会被借出
+            if (!idleWorkers.remove(worker)) {
+                continue;
+            }
+            if (worker.isAlive() && worker.ping(timeoutMs)) {
+                idleWorkers.offerLast(worker);
+            } else {
+                log.warn("Python工作进程 #{} 无响应，重新启动", worker.getWorkerId());
+                retire(worker);
+            }
+        }
+
+        if (!available || poolConfig.isWarmUp()) {
+            int missing = poolConfig.getSize() - liveWorkers.get();
+            for (int i = 0; i < missing; i++) {
+                spawnInBackground();
+            }
+        }
+    }
+
+    private void spawnInBackground() {
+        if (shuttingDown || !reserveSlot()) {
+            return;
+        }
+        spawnExecutor.execute(() -> {
+            try {
+                PythonWorker worker = startWorker();
+                if (shuttingDown) {
+                    retire(worker);
+                } else {
+                    idleWorkers.offerLast(worker);
+                }
+            } catch (Exception e) {
+                log.warn("后台启动Python工作进程失败: {}", e.getMessage());
+            }
+        });
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int current = liveWorkers.get();
+            if (current >= poolConfig.getSize()) {
+                return false;
+            }
+            if (liveWorkers.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 启动新进程（调用前必须已通过 reserveSlot 占用名额）
+     */
+    private PythonWorker startWorker() throws Exception {
+        List<String> command = List.of(pythonPath, scriptPath, "--serve");
+        Map<String, String> env = new HashMap<>();
+        env.put("PYTHONIOENCODING", "utf-8");
+        env.put("PYTHONPATH", pythonWorkerDir + File.pathSeparator + System.getenv().getOrDefault("PYTHONPATH", ""));
+        if (tpmRateLimiter.isEnabled()) {
+            // TPM由Java端全局令牌桶控制，Python进程内不再重复限流
+            env.put("QWEN_TPM_MANAGED", "1");
+        }
+
+        try {
+            PythonWorker worker = PythonWorker.start(workerIdSequence.incrementAndGet(), command,
+                    new File(pythonWorkerDir), env, objectMapper, poolConfig.getStartupTimeout() * 1000L,
+                    maxResultBytes, stderrTailLines);
+            available = true;
+            return worker;
+        } catch (Exception e) {
+            liveWorkers.decrementAndGet();
+            available = false;
+            log.error("Python工作进程启动失败，暂时退回单进程模式: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * 回收进程：立即让出名额，进程在后台关闭
+     */
+    private void retire(PythonWorker worker) {
+        idleWorkers.remove(worker);
+        liveWorkers.decrementAndGet();
+        try {
+            retireExecutor.execute(worker::shutdown);
+        } catch (RejectedExecutionException e) {
+            worker.destroy();
+        }
+    }
+
+    private boolean scriptExists() {
+        return new File(pythonWorkerDir, scriptPath).exists();
+    }
+
+    /**
+     * 获取当前存活的工作进程数
+     */
+    public int getLiveWorkerCount() {
+        return liveWorkers.get();
+    }
+
+    /**
+     * 获取当前空闲的工作进程数
+     */
+    public int getIdleWorkerCount() {
+        return idleWorkers.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown = true;
+        spawnExecutor.shutdownNow();
+        PythonWorker worker;
+        while ((worker = idleWorkers.pollFirst()) != null) {
+            retire(worker);
+        }
+        // 等待进程正常退出，避免应用退出后留下Python进程
+        retireExecutor.shutdown();
+        try {
+            retireExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
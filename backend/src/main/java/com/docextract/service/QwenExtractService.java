@@ -1,29 +1,54 @@
 package com.docextract.service;
 
+import com.docextract.config.DeadlineConfig;
+import com.docextract.config.PipelineConfig;
 import com.docextract.config.QwenConfig;
+import com.docextract.config.ShardingConfig;
+import com.docextract.dto.ExtractResult;
 import com.docextract.dto.TaskProgressDTO;
 import com.docextract.entity.Task;
+import com.docextract.exception.ExtractException;
+import com.docextract.exception.FailureType;
+import com.docextract.util.BoundedLineBuffer;
+import com.docextract.util.Cancellation;
+import com.docextract.util.PdfPages;
+import com.docextract.util.ProcessStreamPump;
+import com.docextract.util.ProcessTree;
+import com.docextract.util.WorkerFrameReader;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
 
 /**
  * Qwen智能提取服务 - 优化版
- * 支持进程池管理、进度追踪、重试机制
+ * 支持常驻进程池、进度追踪、重试机制
+ * <p>
+ * 分阶段执行：OCR阶段（ocrStageExecutor）→ 有界交接队列 → AI提取阶段（pythonProcessExecutor），
+ * 两个阶段各自限制并发，OCR耗时长的文档不会占住大模型的执行槽位。
  */
 @Service
 @RequiredArgsConstructor
@@ -42,127 +67,1240 @@ public class QwenExtractService {
     @Value("${file.data-dir:./data}")
     private String dataDir;
 
+    @Value("${python.max-result-bytes:16777216}")
+    private long maxResultBytes;
+
+    @Value("${python.stderr-tail-lines:200}")
+    private int stderrTailLines;
+
+    // 单进程模式下任务数据的传递方式: pipe(通过stdin，默认) 或 file(写临时输入文件，兼容旧脚本)
+    // pipe 方式写入stdin失败时，本次执行改用临时文件重新启动进程
+    @Value("${python.input-transport:pipe}")
+    private String inputTransport;
+
     private final QwenConfig qwenConfig;
     private final RedisTemplate<String, Object> redisTemplate;
     private final ObjectMapper objectMapper;
+    private final PythonWorkerPool workerPool;
+
+    // 自适应并发限制
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    // 全局TPM令牌桶
+    private final TpmRateLimiter tpmRateLimiter;
+
+    // 全局重试预算
+    private final RetryBudget retryBudget;
+
+    // 内容寻址的结果缓存
+    private final ExtractResultCache resultCache;
+
+    // 内容寻址的OCR结果存储
+    private final OcrArtifactStore ocrArtifactStore;
+
+    private final PipelineConfig pipelineConfig;
+    private final ShardingConfig shardingConfig;
+    private final HedgingPolicy hedgingPolicy;
+    private final DeadlineConfig deadlineConfig;
+    private final ProgressTracker progressTracker;
+    private final StageDurationModel durationModel;
+    private final MeterRegistry meterRegistry;
+
+    // AI提取阶段：执行单次尝试的线程池
+    private final Executor pythonProcessExecutor;
+
+    // 对冲执行线程池：没有空闲线程时立即拒绝，不排队
+    private final Executor hedgeExecutor;
+
+    // OCR阶段线程池
+    private final Executor ocrStageExecutor;
+
+    // OCR完成、等待AI提取的任务名额，用完时OCR线程等待（背压），最多等到任务截止时间或任务被取消
+    private Semaphore handoffSlots;
 
-    // 活跃进程计数器
-    private final AtomicInteger activeProcesses = new AtomicInteger(0);
+    // 排队或正在执行OCR的任务数
+    private final AtomicInteger ocrPending = new AtomicInteger(0);
 
-    // 进程信号量，控制并发数
-    private final Semaphore processSemaphore = new Semaphore(3, true);
+    // 本节点正在处理的任务（用于取消）
+    private final ConcurrentHashMap<Long, ExtractionJob> activeJobs = new ConcurrentHashMap<>();
 
-    // 任务进度缓存前缀
-    private static final String PROGRESS_KEY_PREFIX = "task:progress:";
+    // 重试延迟队列：退避期间不占用执行槽位，到期后重新提交
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "extract-retry-scheduler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 进程退出后等待输出流读完的时间（秒）
+    private static final long PUMP_DRAIN_TIMEOUT_SECONDS = 5;
+
+    // stderr单行保留的最大长度
+    private static final int STDERR_LINE_LIMIT = 2000;
+
+    // 等待交接名额时检查取消和截止时间的间隔（毫秒）
+    private static final long HANDOFF_POLL_MS = 1000;
+
+    private static final String DEADLINE_MESSAGE = "任务已超过截止时间，不再处理";
+
+    private Counter deadlineExceededCounter;
+
+    @PostConstruct
+    public void init() {
+        deadlineExceededCounter = Counter.builder("extract.deadline.exceeded")
+                .description("超过截止时间而放弃处理的任务数")
+                .register(meterRegistry);
+        int handoffCapacity = Math.max(1, pipelineConfig.getHandoffCapacity());
+        handoffSlots = new Semaphore(handoffCapacity, true);
+        Gauge.builder("extract.pipeline.ocr_pending", ocrPending, AtomicInteger::get)
+                .description("排队或正在执行OCR的任务数")
+                .register(meterRegistry);
+        Gauge.builder("extract.pipeline.handoff", handoffSlots, slots -> handoffCapacity - slots.availablePermits())
+                .description("OCR完成、等待AI提取的任务数")
+                .register(meterRegistry);
+    }
 
     /**
-     * 处理提取任务
+     * 处理提取任务（阻塞直到完成，失败时抛出异常）
      */
-    public Map<String, Object> processTask(Task task, String extractFieldsJson, String modelMode) {
-        String progressKey = PROGRESS_KEY_PREFIX + task.getTaskId();
+    public ExtractResult processTask(Task task, String extractFieldsJson, String modelMode) {
+        return await(processTaskAsync(task, extractFieldsJson, modelMode));
+    }
 
+    /**
+     * 等待提取结果，失败时抛出原始异常
+     */
+    public ExtractResult await(CompletableFuture<ExtractResult> result) {
         try {
-            // 获取信号量（限制并发）
-            if (!processSemaphore.tryAcquire(qwenConfig.getTaskTimeout(), TimeUnit.SECONDS)) {
-                throw new RuntimeException("获取处理槽位超时，请稍后重试");
+            return result.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * 提交提取任务
+     * 先进入OCR阶段，完成后交接给AI提取阶段；
+     * 每次尝试单独获取TPM额度和执行槽位，失败后释放槽位，经重试延迟队列按退避时间重新提交
+     */
+    public CompletableFuture<ExtractResult> processTaskAsync(Task task, String extractFieldsJson, String modelMode) {
+        ExtractionJob job = register(task, extractFieldsJson, modelMode);
+        if (prepare(job)) {
+            start(job);
+        }
+        return job.result;
+    }
+
+    /**
+     * 合并提交同一批次的多个小文档：一次工作进程调用内依次完成OCR，再按图片数和上下文长度合并调用大模型，结果按任务拆分。
+     * 命中结果缓存的文档直接完成；组内没有得到结果的文档退回单独处理，按正常流程重试
+     *
+     * @return taskId -> 该文档的提取结果
+     */
+    public Map<Long, CompletableFuture<ExtractResult>> processGroupAsync(List<Task> tasks, String extractFieldsJson,
+                                                                         String modelMode) {
+        Map<Long, CompletableFuture<ExtractResult>> results = new LinkedHashMap<>();
+        List<ExtractionJob> members = new ArrayList<>();
+        for (Task task : tasks) {
+            ExtractionJob member = register(task, extractFieldsJson, modelMode);
+            results.put(task.getTaskId(), member.result);
+            if (prepare(member)) {
+                members.add(member);
             }
+        }
+
+        if (members.size() == 1) {
+            start(members.get(0));
+        } else if (members.size() > 1) {
+            ExtractionJob group = new ExtractionJob(members, extractFieldsJson, modelMode);
+            members.forEach(member -> member.group = group);
+            group.inputData = prepareGroupInput(members);
+            // 小文档的OCR很快，整组在一次执行中完成OCR和提取，不经过OCR阶段
+            retryBudget.deposit();
+            submitAttempt(group, 0);
+        }
+        return results;
+    }
 
-            activeProcesses.incrementAndGet();
-            log.info("开始处理任务: taskId={}, modelMode={}, 活跃进程数={}", task.getTaskId(), modelMode, activeProcesses.get());
+    private ExtractionJob register(Task task, String extractFieldsJson, String modelMode) {
+        ExtractionJob job = new ExtractionJob(task, extractFieldsJson, modelMode);
+        activeJobs.put(task.getTaskId(), job);
+        // 重新处理（重试）的任务接受新的中间进度
+        progressTracker.reopen(task.getTaskId());
+        job.result.whenComplete((r, e) -> activeJobs.remove(task.getTaskId(), job));
+        return job;
+    }
 
+    /**
+     * 准备输入数据并查询结果缓存
+     *
+     * @return 是否需要执行提取（命中缓存或准备失败时任务已结束）
+     */
+    private boolean prepare(ExtractionJob job) {
+        Task task = job.task;
+        try {
             // 更新进度：准备阶段
-            updateProgress(progressKey, TaskProgressDTO.of(task.getTaskId(), "UPLOADING", 10));
+            job.progress(TaskProgressDTO.of(task.getTaskId(), "UPLOADING", 10));
 
             // 准备输入数据（包含 modelMode）
-            Map<String, Object> inputData = prepareInputData(task, modelMode);
-            Path inputFilePath = writeInputFile(task, inputData);
+            job.inputData = prepareInputData(task, job.modelMode);
+
+            // 相同文档、相同字段、相同模式已经提取过，直接复用结果
+            ExtractResult cached = resultCache.get(job.cacheKey);
+            if (cached != null) {
+                log.info("命中结果缓存: taskId={}, contentHash={}", task.getTaskId(), task.getContentHash());
+                complete(job, adaptCachedResult(job, cached));
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            fail(job, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 单独处理一个任务：页数较多的PDF拆成分片并行处理；分阶段执行时先进入OCR阶段，否则直接提交一次完整执行
+     */
+    private void start(ExtractionJob job) {
+        if (failIfOverdue(job)) {
+            return;
+        }
+        int pagesPerShard = job.parent == null ? shardingConfig.pagesPerShardFor(job.task.getPageCount()) : 0;
+        if (pagesPerShard > 0 && startSharded(job, pagesPerShard)) {
+            return;
+        }
+        retryBudget.deposit();
+        if (job.pipelined) {
+            submitOcr(job, 0);
+        } else {
+            submitAttempt(job, 0);
+        }
+    }
 
-            // 更新进度：OCR阶段
-            updateProgress(progressKey, TaskProgressDTO.of(task.getTaskId(), "OCR_PROCESSING", 30));
+    /**
+     * 按页码范围拆分文档，各分片作为独立的子任务经OCR、AI提取阶段并行处理（各自重试），全部结束后按页码顺序合并。
+     * 每完成一个分片更新一次进度
+     *
+     * @return 是否已按分片提交，拆分失败时返回 false，由调用方按整个文档处理
+     */
+    private boolean startSharded(ExtractionJob job, int pagesPerShard) {
+        Task task = job.task;
+        Map<String, Object> fileInfo = (Map<String, Object>) job.inputData.get("fileInfo");
+        if (fileInfo == null || fileInfo.get("taskDataDir") == null
+                || !((String) fileInfo.get("filePath")).toLowerCase().endsWith(".pdf")) {
+            return false;
+        }
 
-            // 执行Python脚本（带重试）
-            Map<String, Object> result = executeWithRetry(inputFilePath, extractFieldsJson, progressKey, task.getTaskId());
+        Path shardDir = Paths.get((String) fileInfo.get("taskDataDir"), "shards", String.valueOf(task.getTaskId()));
+        List<ExtractionJob> shards = new ArrayList<>();
+        try {
+            Path source = Paths.get((String) fileInfo.get("filePath"));
+            String stem = source.getFileName().toString().replaceFirst("\\.[^.]+$", "");
+            List<Path> files = PdfPages.split(source, pagesPerShard, shardDir.resolve("pdf"), stem);
+            for (int i = 0; i < files.size(); i++) {
+                Path file = files.get(i);
+                String pages = (i * pagesPerShard + 1) + "-" + Math.min((i + 1) * pagesPerShard, task.getPageCount());
+                // 分片只在内存中作为任务处理，不写数据库；以原文档内容哈希加页码范围作为分片的缓存标识，
+                // 拆分出的文件字节不稳定（PDFBox写入的文档ID、时间戳等），不能用来计算哈希
+                Task shardTask = Task.builder()
+                        .taskId(task.getTaskId())
+                        .user(task.getUser())
+                        .taskName(task.getTaskName())
+                        .filePath(Map.of(
+                                "fileName", fileInfo.get("fileName") + " (第" + pages + "页)",
+                                "filePath", file.getFileName().toString(),
+                                "taskDataDir", shardDir.toString()))
+                        .contentHash(task.getContentHash() != null ? task.getContentHash() + "_p" + pages : null)
+                        .pageCount(Math.min((i + 1) * pagesPerShard, task.getPageCount()) - i * pagesPerShard)
+                        .deadline(task.getDeadline())
+                        .build();
+                ExtractionJob shard = new ExtractionJob(shardTask, job.extractFieldsJson, job.modelMode, job);
+                shard.pages = pages;
+                shard.inputData = prepareInputData(shardTask, job.modelMode);
+                shards.add(shard);
+            }
+        } catch (Exception e) {
+            log.warn("拆分文档失败，按整个文档处理: taskId={}, {}", task.getTaskId(), e.getMessage());
+            FileSystemUtils.deleteRecursively(shardDir.toFile());
+            return false;
+        }
 
-            // 更新进度：完成
-            updateProgress(progressKey, TaskProgressDTO.of(task.getTaskId(), "COMPLETED", 100));
+        log.info("文档拆分为 {} 个分片: taskId={}, 页数={}", shards.size(), task.getTaskId(), task.getPageCount());
+        job.shards = shards;
+        reportShardProgress(job, 0, shards.size());
+        AtomicInteger finished = new AtomicInteger(0);
+        for (ExtractionJob shard : shards) {
+            shard.result.whenComplete((r, e) -> reportShardProgress(job, finished.incrementAndGet(), shards.size()));
+        }
+        CompletableFuture.allOf(shards.stream().map(shard -> shard.result).toArray(CompletableFuture[]::new))
+                .whenComplete((r, e) -> {
+                    try {
+                        completeSharded(job, shards);
+                    } finally {
+                        FileSystemUtils.deleteRecursively(shardDir.toFile());
+                    }
+                });
+        shards.forEach(this::start);
+        return true;
+    }
 
-            // 清理临时文件
-            Files.deleteIfExists(inputFilePath);
+    private void reportShardProgress(ExtractionJob job, int finished, int total) {
+        if (job.isDone()) {
+            return;
+        }
+        job.progress(TaskProgressDTO.builder()
+                .taskId(job.task.getTaskId())
+                .stage("QWEN_EXTRACTING")
+                .stageText("分片处理中 (" + finished + "/" + total + ")")
+                .progress(30 + 65 * finished / total)
+                .processedCount(finished)
+                .totalCount(total)
+                .build());
+    }
 
-            // 缓存结果
-            cacheTaskResult(task.getTaskId(), result);
+    /**
+     * 所有分片结束后合并结果：全部失败时任务失败，部分失败时以部分成功完成
+     */
+    private void completeSharded(ExtractionJob job, List<ExtractionJob> shards) {
+        if (job.isDone()) {
+            return;
+        }
+        List<ShardResultMerger.Shard> parts = new ArrayList<>();
+        String failure = null;
+        for (ExtractionJob shard : shards) {
+            ExtractResult result = null;
+            try {
+                result = shard.result.join();
+            } catch (CompletionException | CancellationException e) {
+                String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+                log.warn("分片处理失败: taskId={}, 第{}页, {}", job.task.getTaskId(), shard.pages, message);
+                failure = failure != null ? failure : message;
+            }
+            parts.add(new ShardResultMerger.Shard(shard.pages, result));
+        }
+        if (parts.stream().allMatch(part -> part.result() == null)) {
+            fail(job, "所有分片均处理失败: " + failure);
+            return;
+        }
 
-            return result;
+        try {
+            ExtractResult merged = writeJsonResult(job, ShardResultMerger.merge(parts));
+            resultCache.put(job.cacheKey, merged);
+            complete(job, merged);
+        } catch (Exception e) {
+            fail(job, "合并分片结果失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 取消任务：结束正在运行的Python进程（连同子进程），执行槽位和TPM预扣额度随即归还；
+     * 排队等待OCR、交接或重试的任务不再继续执行
+     *
+     * @return 本节点是否有该任务正在处理
+     */
+    public boolean cancel(Long taskId) {
+        ExtractionJob job = activeJobs.get(taskId);
+        if (job == null) {
+            return false;
+        }
+        log.info("取消任务: taskId={}", taskId);
+        updateProgress(TaskProgressDTO.of(taskId, "CANCELLED", 0));
+        // 先结束任务再结束进程，执行线程看到任务已结束后只归还资源，不再按失败重试
+        job.result.completeExceptionally(new ExtractException.Cancelled(taskId));
+        job.cancellation.cancel();
+        releaseHandoff(job);
+
+        AttemptRace race = job.race;
+        if (race != null) {
+            race.hedgeCancellation.cancel();
+        }
+        for (ExtractionJob shard : job.shards) {
+            shard.result.completeExceptionally(new ExtractException.Cancelled(taskId));
+            shard.cancellation.cancel();
+            if (shard.race != null) {
+                shard.race.hedgeCancellation.cancel();
+            }
+            releaseHandoff(shard);
+        }
+
+        ExtractionJob group = job.group;
+        if (group != null && group.members.stream().allMatch(ExtractionJob::isDone)) {
+            // 合并处理的文档都已取消，结束整组的进程
+            group.result.completeExceptionally(new ExtractException.Cancelled(taskId));
+            group.cancellation.cancel();
+        }
+        return true;
+    }
+
+    /**
+     * 提交OCR阶段，delayMs > 0 时先进入重试延迟队列
+     */
+    private void submitOcr(ExtractionJob job, long delayMs) {
+        Runnable dispatch = () -> {
+            if (job.isDone() || failIfOverdue(job)) {
+                return;
+            }
+            ocrPending.incrementAndGet();
+            try {
+                ocrStageExecutor.execute(() -> runOcrStage(job));
+            } catch (RejectedExecutionException e) {
+                ocrPending.decrementAndGet();
+                fail(job, "提交任务失败: " + e.getMessage());
+            }
+        };
+        if (delayMs > 0) {
+            retryScheduler.schedule(dispatch, delayMs, TimeUnit.MILLISECONDS);
+        } else {
+            dispatch.run();
+        }
+    }
+
+    /**
+     * 执行OCR阶段：只调用MinerU生成Markdown，不占用大模型的执行槽位和TPM额度
+     * 完成后占用一个交接名额再提交AI提取阶段，交接队列满时阻塞在这里，OCR线程不再领取新任务
+     */
+    private void runOcrStage(ExtractionJob job) {
+        Long taskId = job.task.getTaskId();
+        try {
+            if (job.isDone() || failIfOverdue(job)) {
+                return;
+            }
+            // 已有OCR缓存时直接进入提取阶段
+            if (!hasOcrArtifacts(job)) {
+                int attempt = ++job.ocrAttempt;
+                log.info("执行OCR阶段: taskId={}, 尝试 {}/{}", taskId, attempt, qwenConfig.getMaxRetries());
+                job.enterPhase(StageDurationModel.Stage.OCR);
+                job.progress(TaskProgressDTO.of(taskId, "OCR_PROCESSING", 30));
+
+                ExtractResult ocr = executeOnce(job, job.stageInput("ocr"), job.cancellation);
+                if (!ocr.isSuccess()) {
+                    throw new RuntimeException(ocr.getMessage() != null ? ocr.getMessage() : "OCR失败");
+                }
+                durationModel.record(StageDurationModel.Stage.OCR, job.profile,
+                        System.currentTimeMillis() - job.phaseStartedAt);
+                job.mdFile = ocr.getMdFile();
+            }
+
+            job.enterPhase(StageDurationModel.Stage.EXTRACT);
+            job.progress(TaskProgressDTO.of(taskId, "EXTRACT_WAITING", 40));
+            if (acquireHandoff(job)) {
+                submitAttempt(job, 0);
+            }
 
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            throw new RuntimeException("任务被中断");
+            fail(job, "任务被中断");
         } catch (Exception e) {
-            log.error("任务处理失败: taskId={}", task.getTaskId(), e);
-            updateProgress(progressKey, TaskProgressDTO.builder()
-                    .taskId(task.getTaskId())
-                    .stage("FAILED")
-                    .stageText("处理失败")
-                    .errorMessage(e.getMessage())
-                    .build());
-            throw new RuntimeException("处理失败: " + e.getMessage());
+            if (job.isDone()) {
+                return;
+            }
+            handleFailure(job, e, FailureType.classify(e), job.ocrAttempt, 30, delayMs -> submitOcr(job, delayMs));
         } finally {
-            activeProcesses.decrementAndGet();
-            processSemaphore.release();
+            ocrPending.decrementAndGet();
+        }
+    }
+
+    /**
+     * 等待交接名额：分段等待，任务已结束（如被取消）时放弃，到截止时间时按超时失败，OCR线程不会无限阻塞
+     *
+     * @return 是否已占用交接名额
+     */
+    private boolean acquireHandoff(ExtractionJob job) throws InterruptedException {
+        while (true) {
+            if (job.isDone() || failIfOverdue(job)) {
+                return false;
+            }
+            long untilOverdue = job.remainingMillis() - deadlineConfig.getMinRemainingSeconds() * 1000L;
+            long waitMs = Math.max(1, Math.min(HANDOFF_POLL_MS, untilOverdue));
+            if (handoffSlots.tryAcquire(waitMs, TimeUnit.MILLISECONDS)) {
+                job.handoffHeld.set(true);
+                if (job.isDone()) {
+                    // 等待期间已取消
+                    releaseHandoff(job);
+                    return false;
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 相同文件的OCR结果已在缓存中
+     */
+    private boolean hasOcrArtifacts(ExtractionJob job) {
+        Map<String, Object> fileInfo = (Map<String, Object>) job.inputData.get("fileInfo");
+        String ocrCacheDir = fileInfo != null ? (String) fileInfo.get("ocrCacheDir") : null;
+        return ocrCacheDir != null && Files.exists(Paths.get(ocrCacheDir, "full.md"));
+    }
+
+    /**
+     * 归还交接名额（任务离开交接队列时调用，可重复调用）
+     */
+    private void releaseHandoff(ExtractionJob job) {
+        if (job.handoffHeld.compareAndSet(true, false)) {
+            handoffSlots.release();
+        }
+    }
+
+    /**
+     * 提交一次尝试，delayMs > 0 时先进入重试延迟队列
+     */
+    private void submitAttempt(ExtractionJob job, long delayMs) {
+        long waitingSince = System.nanoTime();
+        Runnable dispatch = () -> dispatchAttempt(job, waitingSince);
+        if (delayMs > 0) {
+            retryScheduler.schedule(dispatch, delayMs, TimeUnit.MILLISECONDS);
+        } else {
+            dispatch.run();
         }
     }
 
     /**
-     * 带重试机制的执行
+     * 预扣TPM额度后交给执行线程；额度不足时经重试延迟队列延后派发，不占用执行线程，直到截止时间
+     *
+     * @param waitingSince 开始等待TPM额度的时间（System.nanoTime）
      */
-    private Map<String, Object> executeWithRetry(Path inputFilePath, String extractFieldsJson,
-                                                  String progressKey, Long taskId) {
-        Exception lastException = null;
+    private void dispatchAttempt(ExtractionJob job, long waitingSince) {
+        if (job.isDone() || failIfOverdue(job)) {
+            releaseHandoff(job);
+            return;
+        }
+        long reserved = 0;
+        if (job.metered) {
+            TpmRateLimiter.Reservation reservation =
+                    tpmRateLimiter.tryAcquire(tpmRateLimiter.estimateCost(job.pageCount()));
+            if (!reservation.granted()) {
+                retryScheduler.schedule(() -> dispatchAttempt(job, waitingSince),
+                        reservation.waitMs(), TimeUnit.MILLISECONDS);
+                return;
+            }
+            tpmRateLimiter.recordWait(System.nanoTime() - waitingSince);
+            reserved = reservation.tokens();
+        }
+        long tokens = reserved;
+        try {
+            pythonProcessExecutor.execute(() -> runAttempt(job, tokens));
+        } catch (RejectedExecutionException e) {
+            tpmRateLimiter.reconcile(tokens, 0);
+            fail(job, "提交任务失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 执行一次尝试，槽位只在本次执行期间占用
+     *
+     * @param reserved 派发前预扣的TPM额度，本次尝试结束时按实际用量校正，失败或取消时退回
+     */
+    private void runAttempt(ExtractionJob job, long reserved) {
+        Long taskId = job.task.getTaskId();
+        if (job.isDone() || failIfOverdue(job)) {
+            tpmRateLimiter.reconcile(reserved, 0);
+            releaseHandoff(job);
+            return;
+        }
+        int attempt = ++job.attempt;
+        AdaptiveConcurrencyLimiter.Permit permit = null;
+        AttemptRace race = null;
+        Exception failure;
+
+        try {
+            // 获取执行槽位（自适应限制并发）
+            permit = concurrencyLimiter.acquire(Math.max(0, job.remainingMillis()), TimeUnit.MILLISECONDS);
+            if (permit == null) {
+                tpmRateLimiter.reconcile(reserved, 0);
+                reserved = 0;
+                if (failIfOverdue(job)) {
+                    return;
+                }
+                throw new RuntimeException("获取处理槽位超时，请稍后重试");
+            }
+            releaseHandoff(job);
+            if (job.isDone() || failIfOverdue(job)) {
+                // 等待期间已取消或已超过截止时间
+                permit.onIgnore();
+                tpmRateLimiter.reconcile(reserved, 0);
+                return;
+            }
+
+            log.info("执行Python脚本: taskId={}, modelMode={}, 尝试 {}/{}, 活跃进程数={}/{}", taskId, job.modelMode,
+                    attempt, qwenConfig.getMaxRetries(), concurrencyLimiter.getInFlight(), concurrencyLimiter.getLimit());
 
-        for (int attempt = 1; attempt <= qwenConfig.getMaxRetries(); attempt++) {
+            if (attempt == 1 && !job.pipelined) {
+                // 更新进度：OCR阶段
+                job.progress(TaskProgressDTO.of(taskId, "OCR_PROCESSING", 30));
+            }
+            // 更新进度：AI提取阶段
+            if (job.pipelined) {
+                job.enterPhase(StageDurationModel.Stage.EXTRACT);
+            }
+            int baseProgress = 50 + (attempt - 1) * 15;
+            job.progress(TaskProgressDTO.of(taskId, "QWEN_EXTRACTING", baseProgress));
+
+            Map<String, Object> input = job.pipelined ? job.stageInput("extract") : job.inputData;
+            race = new AttemptRace();
+            job.race = race;
+            scheduleHedge(job, race, input);
+            long startNanos = System.nanoTime();
+            ExtractResult result;
             try {
-                log.info("执行Python脚本: taskId={}, 尝试 {}/{}", taskId, attempt, qwenConfig.getMaxRetries());
+                result = executeOnce(job, input, job.cancellation);
+            } finally {
+                race.stopTimer();
+            }
+
+            // 按实际用量校正预扣额度
+            if (job.metered) {
+                tpmRateLimiter.reconcile(reserved, result.getUsage() != null ? result.getUsage().getTotalTokens() : 0,
+                        job.pageCount());
+            }
+            reserved = 0;
+
+            // 如果返回了部分数据，也算成功
+            if (result.isSuccess() || result.hasData()) {
+                if (!result.isSuccess()) {
+                    result.setPartial(true);
+                }
+                permit.onSuccess();
+                long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                hedgingPolicy.recordLatency(job.sizeClass(), latencyMs);
+                if (job.pipelined) {
+                    durationModel.record(StageDurationModel.Stage.EXTRACT, job.profile, latencyMs);
+                }
+                resultCache.put(job.cacheKey, result);
+                complete(job, result);
+                // 对冲执行（如有）落后，结束其进程
+                race.hedgeCancellation.cancel();
+                return;
+            }
+            failure = new RuntimeException(result.getMessage() != null ? result.getMessage() : "提取失败");
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (permit != null) {
+                permit.onIgnore();
+            }
+            tpmRateLimiter.reconcile(reserved, 0);
+            fail(job, "任务被中断");
+            return;
+        } catch (Exception e) {
+            failure = e;
+        }
+
+        // 执行异常或已取消：用量未知，退回预扣的TPM额度（已按实际用量校正的不再退回）
+        tpmRateLimiter.reconcile(reserved, 0);
+        if (job.isDone()) {
+            // 已取消：进程已被结束，立即归还槽位
+            if (permit != null) {
+                permit.onIgnore();
+            }
+            return;
+        }
+
+        FailureType type = FailureType.classify(failure);
+        if (permit != null) {
+            if (type.isOverload()) {
+                permit.onDropped();
+            } else {
+                permit.onIgnore();
+            }
+        }
+        if (race != null && !race.leave(failure)) {
+            log.info("原执行失败，等待对冲执行结果: taskId={}, {}", taskId, failure.getMessage());
+            return;
+        }
+        handleFailure(job, failure, type, job.attempt, 50 + (job.attempt - 1) * 15, delayMs -> submitAttempt(job, delayMs));
+    }
+
+    /**
+     * 按同类大小文档的历史耗时安排对冲：到时仍未结束时，如果有空闲槽位和对冲额度，再启动一次相同的执行
+     * 只对分阶段执行的AI提取阶段对冲（重复的只是模型调用，不会重复OCR），合并处理的小文档不对冲
+     */
+    private void scheduleHedge(ExtractionJob job, AttemptRace race, Map<String, Object> input) {
+        if (!job.pipelined || job.isGroup()) {
+            return;
+        }
+        long delayMs = hedgingPolicy.onAttempt(job.sizeClass());
+        if (delayMs < 0) {
+            return;
+        }
+        race.hedgeTimer = retryScheduler.schedule(() -> launchHedge(job, race, input), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void launchHedge(ExtractionJob job, AttemptRace race, Map<String, Object> input) {
+        if (job.isDone() || race.running.get() == 0 || job.overdue()) {
+            return;
+        }
+        // 只用空闲容量：不等待槽位、TPM额度和执行线程
+        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquire();
+        if (permit == null) {
+            hedgingPolicy.onNoCapacity();
+            return;
+        }
+        TpmRateLimiter.Reservation reservation = job.metered
+                ? tpmRateLimiter.tryAcquire(tpmRateLimiter.estimateCost(job.pageCount()))
+                : TpmRateLimiter.Reservation.granted(0);
+        if (!reservation.granted()) {
+            permit.onIgnore();
+            hedgingPolicy.onNoCapacity();
+            return;
+        }
+        long reserved = reservation.tokens();
+        if (!race.tryJoin()) {
+            permit.onIgnore();
+            tpmRateLimiter.reconcile(reserved, 0);
+            return;
+        }
+        if (!hedgingPolicy.tryAcquire()) {
+            permit.onIgnore();
+            tpmRateLimiter.reconcile(reserved, 0);
+            hedgeFinished(job, race, null);
+            return;
+        }
+
+        try {
+            hedgeExecutor.execute(() -> runHedge(job, race, input, permit, reserved));
+        } catch (RejectedExecutionException e) {
+            // 没有空闲线程：不启动对冲，归还槽位、TPM额度和对冲额度
+            permit.onIgnore();
+            tpmRateLimiter.reconcile(reserved, 0);
+            hedgingPolicy.release();
+            hedgingPolicy.onNoCapacity();
+            hedgeFinished(job, race, null);
+            return;
+        }
+        hedgingPolicy.onLaunched();
+        log.info("执行耗时超过同类文档的历史分位数，启动对冲执行: taskId={}, 尝试 {}", job.task.getTaskId(), job.attempt);
+    }
+
+    /**
+     * 执行对冲：先于原执行成功时完成任务并结束原执行的进程；失败时不影响原执行
+     */
+    private void runHedge(ExtractionJob job, AttemptRace race, Map<String, Object> input,
+                          AdaptiveConcurrencyLimiter.Permit permit, long reserved) {
+        Long taskId = job.task.getTaskId();
+        long startNanos = System.nanoTime();
+        long unreconciled = reserved;
+        Exception failure;
+        try {
+            ExtractResult result = executeOnce(job, input, race.hedgeCancellation);
+            if (job.metered) {
+                tpmRateLimiter.reconcile(reserved, result.getUsage() != null ? result.getUsage().getTotalTokens() : 0,
+                        job.pageCount());
+            }
+            unreconciled = 0;
+
+            if (result.isSuccess() || result.hasData()) {
+                if (!result.isSuccess()) {
+                    result.setPartial(true);
+                }
+                permit.onSuccess();
+                hedgingPolicy.recordLatency(job.sizeClass(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                if (!job.isDone()) {
+                    log.info("对冲执行先完成: taskId={}", taskId);
+                    hedgingPolicy.onHedgeWon();
+                    resultCache.put(job.cacheKey, result);
+                    complete(job, result);
+                    // 结束仍在等待模型响应的原执行
+                    job.cancellation.cancel();
+                }
+                return;
+            }
+            failure = new RuntimeException(result.getMessage() != null ? result.getMessage() : "提取失败");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        } catch (Exception e) {
+            failure = e;
+        }
+
+        permit.onIgnore();
+        tpmRateLimiter.reconcile(unreconciled, 0);
+        if (job.isDone()) {
+            // 原执行已完成，对冲进程已被结束
+            return;
+        }
+        log.warn("对冲执行失败: taskId={}, {}", taskId, failure.getMessage());
+        hedgeFinished(job, race, failure);
+    }
+
+    /**
+     * 对冲执行没有成功结束；原执行也已失败时，由这里按原执行的错误决定重试或失败
+     */
+    private void hedgeFinished(ExtractionJob job, AttemptRace race, Exception failure) {
+        if (!race.leave(failure) || job.isDone() || race.failure == null) {
+            return;
+        }
+        Exception primaryFailure = race.failure;
+        handleFailure(job, primaryFailure, FailureType.classify(primaryFailure), job.attempt,
+                50 + (job.attempt - 1) * 15, delayMs -> submitAttempt(job, delayMs));
+    }
+
+    /**
+     * 按错误类型决定立即失败还是退避后重试
+     *
+     * @param attempt  当前阶段已尝试次数
+     * @param progress 等待重试期间显示的进度
+     * @param resubmit 退避结束后重新提交当前阶段
+     */
+    private void handleFailure(ExtractionJob job, Exception failure, FailureType type, int attempt, int progress,
+                               LongConsumer resubmit) {
+        releaseHandoff(job);
+        Long taskId = job.task.getTaskId();
+        int maxRetries = qwenConfig.getMaxRetries();
+        log.warn("尝试 {}/{} 失败 [{}]: taskId={}, {}", attempt, maxRetries, type, taskId, failure.getMessage());
+
+        if (!type.isRetryable()) {
+            fail(job, failure.getMessage());
+            return;
+        }
+        if (attempt >= maxRetries) {
+            fail(job, "重试" + maxRetries + "次后仍然失败: " + failure.getMessage());
+            return;
+        }
+        long delayMs = backoffDelayMs(attempt);
+        if (job.remainingMillis() - delayMs < deadlineConfig.getMinRemainingSeconds() * 1000L) {
+            // 等到重试时已超过截止时间，不再消耗重试额度
+            deadlineExceededCounter.increment();
+            fail(job, "任务即将超过截止时间，不再重试: " + failure.getMessage());
+            return;
+        }
+        if (!retryBudget.tryWithdraw()) {
+            fail(job, "重试预算已用尽: " + failure.getMessage());
+            return;
+        }
+
+        log.info("任务 {} 将在 {}ms 后重试", taskId, delayMs);
+        job.progress(TaskProgressDTO.builder()
+                .taskId(taskId)
+                .stage("RETRY_WAITING")
+                .stageText("等待重试")
+                .progress(progress)
+                .estimatedTimeRemaining(toSeconds(estimateRetryMillis(job, delayMs)))
+                .errorMessage(failure.getMessage())
+                .build());
+        resubmit.accept(delayMs);
+    }
+
+    /**
+     * 指数退避加随机抖动：基础间隔 × 2^(n-1)，不超过最大间隔，实际取其 50%~100%
+     */
+    private long backoffDelayMs(int failedAttempts) {
+        long baseMs = qwenConfig.getRetryInterval() * 1000L;
+        long maxMs = qwenConfig.getMaxRetryInterval() * 1000L;
+        long exponential = Math.min(maxMs, baseMs << Math.min(failedAttempts - 1, 20));
+        long half = exponential / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    private void complete(ExtractionJob job, ExtractResult result) {
+        if (job.isDone()) {
+            return;
+        }
+        if (job.isGroup()) {
+            demux(job, result);
+            job.result.complete(result);
+            return;
+        }
+        if (job.parent != null) {
+            // 分片结果由整个文档合并后再更新进度和缓存
+            job.result.complete(result);
+            return;
+        }
+        Long taskId = job.task.getTaskId();
+        // 更新进度：完成
+        job.progress(TaskProgressDTO.of(taskId, "COMPLETED", 100));
+
+        // 缓存结果
+        cacheTaskResult(taskId, result);
+
+        job.result.complete(result);
+    }
+
+    /**
+     * 将缓存结果转换为当前任务的结果
+     */
+    private ExtractResult adaptCachedResult(ExtractionJob job, ExtractResult cached) throws IOException {
+        // 命中缓存没有调用模型，不计用量
+        cached.setUsage(null);
+        cached.putExtra("cache_hit", true);
+        return writeJsonResult(job, cached);
+    }
+
+    /**
+     * 像Python端一样把结果JSON写入当前任务的 json_data 目录（批量打包下载依赖该文件），
+     * 用于Python端没有为该任务写过文件的结果：命中缓存、分片合并
+     */
+    private ExtractResult writeJsonResult(ExtractionJob job, ExtractResult result) throws IOException {
+        Map<String, Object> fileInfo = (Map<String, Object>) job.inputData.get("fileInfo");
+        String taskDataDir = fileInfo != null ? (String) fileInfo.get("taskDataDir") : null;
+        result.setTaskDataDir(taskDataDir);
+
+        String storedName = job.task.getFilePath() != null ? job.task.getFilePath().get("filePath") : null;
+        if (taskDataDir == null || storedName == null || result.getData() == null) {
+            return result;
+        }
+
+        int dot = storedName.lastIndexOf('.');
+        String stem = dot > 0 ? storedName.substring(0, dot) : storedName;
+        Path jsonPath = Paths.get(taskDataDir, "json_data", stem + ".json");
+        Files.createDirectories(jsonPath.getParent());
+
+        Map<String, Object> data = new LinkedHashMap<>(result.getData());
+        data.put("_json_path", jsonPath.toString());
+        result.setData(data);
+
+        Map<String, Object> jsonResult = new LinkedHashMap<>();
+        jsonResult.put("status", "success");
+        jsonResult.put("source_file", job.task.getFilePath().get("fileName"));
+        jsonResult.put("file_type", dot > 0 ? storedName.substring(dot).toLowerCase() : "");
+        jsonResult.put("extracted_at", LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")));
+        jsonResult.put("data", data);
+        objectMapper.writerWithDefaultPrettyPrinter().writeValue(jsonPath.toFile(), jsonResult);
+        return result;
+    }
+
+    /**
+     * 把合并处理的结果按任务拆分，没有得到结果的文档退回单独处理
+     */
+    private void demux(ExtractionJob group, ExtractResult combined) {
+        Map<Long, ExtractResult> byTask = new HashMap<>();
+        if (combined.getResults() != null) {
+            for (ExtractResult item : combined.getResults()) {
+                if (item.getTaskId() != null) {
+                    byTask.put(item.getTaskId(), item);
+                }
+            }
+        }
+        for (ExtractionJob member : group.members) {
+            if (member.isDone()) {
+                continue;
+            }
+            ExtractResult item = byTask.get(member.task.getTaskId());
+            if (item != null && (item.isSuccess() || item.hasData())) {
+                if (!item.isSuccess()) {
+                    item.setPartial(true);
+                }
+                resultCache.put(member.cacheKey, item);
+                complete(member, item);
+            } else {
+                log.warn("合并处理未得到结果，改为单独处理: taskId={}, {}", member.task.getTaskId(),
+                        item != null ? item.getMessage() : "结果缺失");
+                member.group = null;
+                start(member);
+            }
+        }
+    }
 
-                // 更新进度：AI提取阶段
-                int baseProgress = 50 + (attempt - 1) * 15;
-                updateProgress(progressKey, TaskProgressDTO.of(taskId, "QWEN_EXTRACTING", baseProgress));
+    /**
+     * 已超过截止时间（或剩余时间不足以开始一次执行）时结束任务，不再占用执行槽位
+     *
+     * @return 是否已结束
+     */
+    private boolean failIfOverdue(ExtractionJob job) {
+        if (job.isDone() || !job.overdue()) {
+            return false;
+        }
+        log.warn("任务超过截止时间: taskId={}, 已尝试 OCR {} 次 / 提取 {} 次", job.task.getTaskId(), job.ocrAttempt, job.attempt);
+        deadlineExceededCounter.increment();
+        fail(job, DEADLINE_MESSAGE);
+        return true;
+    }
 
-                Map<String, Object> result = executePythonScript(inputFilePath, extractFieldsJson, progressKey, taskId);
+    private void fail(ExtractionJob job, String message) {
+        releaseHandoff(job);
+        if (job.isDone()) {
+            return;
+        }
+        if (job.isGroup()) {
+            for (ExtractionJob member : job.members) {
+                fail(member, message);
+            }
+            job.result.completeExceptionally(new RuntimeException("处理失败: " + message));
+            return;
+        }
+        log.error("任务处理失败: taskId={}, {}", job.task.getTaskId(), message);
+        job.progress(TaskProgressDTO.builder()
+                .taskId(job.task.getTaskId())
+                .stage("FAILED")
+                .stageText("处理失败")
+                .errorMessage(message)
+                .build());
+        job.result.completeExceptionally(new RuntimeException("处理失败: " + message));
+    }
 
-                if ("success".equals(result.get("status"))) {
-                    return result;
+    /**
+     * 一次尝试中原执行与对冲执行的竞争状态：先成功的一方完成任务并结束另一方的进程；
+     * 都失败时由最后结束的一方按先失败的错误决定重试或失败
+     */
+    private static class AttemptRace {
+
+        // 仍在执行的进程数（原执行 + 对冲执行）
+        final AtomicInteger running = new AtomicInteger(1);
+        final Cancellation hedgeCancellation = new Cancellation();
+        volatile ScheduledFuture<?> hedgeTimer;
+        volatile Exception failure;
+
+        /**
+         * 加入对冲执行，原执行已结束时返回 false
+         */
+        boolean tryJoin() {
+            int current;
+            do {
+                current = running.get();
+                if (current == 0) {
+                    return false;
                 }
+            } while (!running.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        /**
+         * 一方没有成功结束
+         *
+         * @return 是否是最后结束的一方
+         */
+        boolean leave(Exception e) {
+            if (failure == null && e != null) {
+                failure = e;
+            }
+            return running.decrementAndGet() == 0;
+        }
+
+        void stopTimer() {
+            ScheduledFuture<?> timer = hedgeTimer;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 一个提取任务在多次尝试之间共享的状态（同一时刻只有一次尝试在执行）
+     * 合并处理小文档时，整组是一个 ExtractionJob，组内每个文档各有一个只用于结果和取消的 ExtractionJob
+     */
+    private class ExtractionJob {
+
+        // 合并处理时为组内第一个文档的任务
+        final Task task;
+        final String extractFieldsJson;
+        final String modelMode;
+        // 结果缓存键，无内容哈希时或分片为 null（分片结果只在合并后按整个文档缓存）
+        final String cacheKey;
+        // 本地模型不占用云端TPM
+        final boolean metered;
+        // 是否分OCR、AI提取两个阶段执行
+        final boolean pipelined;
+        // 合并处理时组内的文档，单独处理时为空
+        final List<ExtractionJob> members;
+        // 截止时间（epoch毫秒），合并处理时取组内最早的
+        final long deadlineMillis;
+        // 分类特征和开始处理的时间（epoch毫秒），用于估算剩余时间
+        final StageDurationModel.Profile profile;
+        final long startedAt = System.currentTimeMillis();
+        final CompletableFuture<ExtractResult> result = new CompletableFuture<>();
+        final Cancellation cancellation = new Cancellation();
+
+        volatile Map<String, Object> inputData;
+        volatile int attempt = 0;
+        volatile int ocrAttempt = 0;
+        // OCR阶段生成的Markdown路径
+        volatile String mdFile;
+        // 是否占用着交接名额
+        final AtomicBoolean handoffHeld = new AtomicBoolean(false);
+        // 所在的合并处理组
+        volatile ExtractionJob group;
+        // 大文档的分片（按页码顺序），未拆分时为空
+        volatile List<ExtractionJob> shards = List.of();
+        // 分片所属的文档及页码范围
+        volatile ExtractionJob parent;
+        volatile String pages;
+        // 当前尝试的原执行与对冲执行
+        volatile AttemptRace race;
+        // 分阶段执行时所处的阶段（OCR / EXTRACT）及其开始时间
+        volatile StageDurationModel.Stage phase;
+        volatile long phaseStartedAt;
+
+        ExtractionJob(Task task, String extractFieldsJson, String modelMode) {
+            this(task, extractFieldsJson, modelMode, null);
+        }
+
+        ExtractionJob(Task task, String extractFieldsJson, String modelMode, ExtractionJob parent) {
+            this.task = task;
+            this.extractFieldsJson = extractFieldsJson;
+            this.modelMode = modelMode;
+            this.cacheKey = parent == null ? resultCache.keyFor(task, extractFieldsJson, modelMode) : null;
+            this.parent = parent;
+            this.metered = tpmRateLimiter.isEnabled() && !"local".equals(modelMode);
+            this.pipelined = pipelineConfig.isEnabled();
+            this.members = List.of();
+            this.deadlineMillis = deadlineMillis(task);
+            this.profile = StageDurationModel.Profile.of(task, modelMode);
+        }
 
-                // 如果返回了部分数据，也算成功
-                if (result.containsKey("data") && result.get("data") != null) {
-                    result.put("partial", true);
-                    return result;
+        ExtractionJob(List<ExtractionJob> members, String extractFieldsJson, String modelMode) {
+            this.task = members.get(0).task;
+            this.extractFieldsJson = extractFieldsJson;
+            this.modelMode = modelMode;
+            this.cacheKey = null;
+            this.metered = tpmRateLimiter.isEnabled() && !"local".equals(modelMode);
+            this.pipelined = false;
+            this.members = List.copyOf(members);
+            this.deadlineMillis = members.stream().mapToLong(member -> member.deadlineMillis).min().orElseThrow();
+            this.profile = StageDurationModel.Profile.of(task, modelMode);
+        }
+
+        boolean isGroup() {
+            return !members.isEmpty();
+        }
+
+        /**
+         * 按页数划分的文档大小档位，对冲按同档文档的历史耗时判断
+         */
+        String sizeClass() {
+            return HedgingPolicy.sizeClass(task.getPageCount());
+        }
+
+        /**
+         * 文档页数，合并处理时为组内页数之和，有页数未知的文档时为 null
+         */
+        Integer pageCount() {
+            if (!isGroup()) {
+                return task.getPageCount();
+            }
+            int total = 0;
+            for (ExtractionJob member : members) {
+                if (member.task.getPageCount() == null) {
+                    return null;
                 }
+                total += member.task.getPageCount();
+            }
+            return total;
+        }
 
-            } catch (Exception e) {
-                lastException = e;
-                log.warn("尝试 {}/{} 失败: {}", attempt, qwenConfig.getMaxRetries(), e.getMessage());
+        /**
+         * 单次执行的超时时间（毫秒）：合并处理时组内文档依次OCR，按文档数放宽，且不超过截止时间
+         */
+        long timeoutMillis() {
+            long attemptMillis = qwenConfig.getTaskTimeout() * 1000L * Math.max(1, members.size());
+            return Math.max(0, Math.min(attemptMillis, remainingMillis()));
+        }
 
-                if (attempt < qwenConfig.getMaxRetries()) {
-                    try {
-                        Thread.sleep(qwenConfig.getRetryInterval() * 1000L);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
+        /**
+         * 距截止时间的剩余毫秒数
+         */
+        long remainingMillis() {
+            return deadlineMillis - System.currentTimeMillis();
+        }
+
+        /**
+         * 剩余时间已不足以开始一次执行
+         */
+        boolean overdue() {
+            return remainingMillis() < deadlineConfig.getMinRemainingSeconds() * 1000L;
+        }
+
+        /**
+         * 进入分阶段执行的一个阶段
+         */
+        void enterPhase(StageDurationModel.Stage stage) {
+            phaseStartedAt = System.currentTimeMillis();
+            phase = stage;
+        }
+
+        /**
+         * 更新进度（未结束时按历史耗时填写剩余时间），合并处理时写入组内每个未结束的文档
+         */
+        void progress(TaskProgressDTO progress) {
+            if (parent != null) {
+                // 分片不单独显示进度，由所属文档按完成的分片数更新
+                return;
+            }
+            if (isDone() && !ProgressBroadcaster.isFinal(progress)) {
+                // 已结束的任务不再接受中间进度，不会覆盖结束进度
+                return;
+            }
+            if (progress.getEstimatedTimeRemaining() == null && !ProgressBroadcaster.isFinal(progress)) {
+                progress.setEstimatedTimeRemaining(toSeconds(estimateRemainingMillis(this)));
+            }
+            if (!isGroup()) {
+                updateProgress(progress);
+                return;
+            }
+            for (ExtractionJob member : members) {
+                if (!member.isDone()) {
+                    member.progress(progress.toBuilder().taskId(member.task.getTaskId()).build());
                 }
             }
         }
 
-        throw new RuntimeException("重试" + qwenConfig.getMaxRetries() + "次后仍然失败: " +
-                (lastException != null ? lastException.getMessage() : "未知错误"));
+        /**
+         * 已完成、失败或已取消
+         */
+        boolean isDone() {
+            return result.isDone();
+        }
+
+        /**
+         * 指定执行阶段的输入数据（ocr / extract），提取阶段带上OCR阶段的Markdown路径
+         */
+        Map<String, Object> stageInput(String stage) {
+            Map<String, Object> input = new HashMap<>(inputData);
+            input.put("stage", stage);
+            if (mdFile != null && inputData.get("fileInfo") != null) {
+                Map<String, Object> fileInfo = new HashMap<>((Map<String, Object>) inputData.get("fileInfo"));
+                fileInfo.put("mdFile", mdFile);
+                input.put("fileInfo", fileInfo);
+            }
+            return input;
+        }
     }
 
     /**
-     * 执行Python脚本
+     * 执行一次提取：优先交给常驻进程池，不可用时退回单独启动进程
      */
-    private Map<String, Object> executePythonScript(Path inputFilePath, String extractFieldsJson,
-                                                     String progressKey, Long taskId) throws Exception {
+    private ExtractResult executeOnce(ExtractionJob job, Map<String, Object> input, Cancellation cancellation)
+            throws Exception {
+        // 截止时间传给Python端，MinerU轮询和模型调用的重试都不会超过它
+        Map<String, Object> inputData = new HashMap<>(input);
+        inputData.put("deadline", job.deadlineMillis);
+        if (workerPool.isAvailable()) {
+            return workerPool.execute(inputData, job.extractFieldsJson,
+                    progress -> applyProgressUpdate(progress, job),
+                    job.timeoutMillis(), cancellation);
+        }
+
+        if (!"file".equalsIgnoreCase(inputTransport)) {
+            // 任务数据通过stdin传入，不落盘，也不受命令行长度限制
+            Map<String, Object> stdinJob = new HashMap<>();
+            stdinJob.put("input", inputData);
+            stdinJob.put("extractFields", job.extractFieldsJson);
+            try {
+                return executePythonScript(List.of(pythonPath, scriptPath, "-"), stdinJob, job, cancellation);
+            } catch (StdinHandoffException e) {
+                if (cancellation.isCancelled()) {
+                    throw e;
+                }
+                log.warn("通过stdin传递任务数据失败，改用临时输入文件: taskId={}, {}", job.task.getTaskId(), e.getMessage());
+            }
+        }
+
+        Path inputFilePath = writeInputFile(job.task, inputData);
+        try {
+            return executePythonScript(buildCommand(inputFilePath, job.extractFieldsJson), null, job, cancellation);
+        } finally {
+            // 清理临时文件
+            Files.deleteIfExists(inputFilePath);
+        }
+    }
+
+    /**
+     * 执行Python脚本（单独启动进程）
+     *
+     * @param stdinJob 写入进程stdin的任务数据，为 null 时表示任务数据已在命令行参数中
+     */
+    private ExtractResult executePythonScript(List<String> command, Map<String, Object> stdinJob, ExtractionJob job,
+                                              Cancellation cancellation) throws Exception {
         File scriptFile = new File(pythonWorkerDir, scriptPath);
 
         if (!scriptFile.exists()) {
@@ -170,7 +1308,6 @@ public class QwenExtractService {
             return generateMockResult();
         }
 
-        List<String> command = buildCommand(inputFilePath, extractFieldsJson);
         ProcessBuilder pb = new ProcessBuilder(command);
         pb.directory(new File(pythonWorkerDir));
         // 不要合并stderr和stdout，因为Python脚本通过stderr输出日志，stdout输出JSON结果
@@ -180,76 +1317,114 @@ public class QwenExtractService {
         Map<String, String> env = pb.environment();
         env.put("PYTHONIOENCODING", "utf-8");
         env.put("PYTHONPATH", pythonWorkerDir + File.pathSeparator + env.getOrDefault("PYTHONPATH", ""));
+        if (tpmRateLimiter.isEnabled()) {
+            // TPM由Java端全局令牌桶控制，Python进程内不再重复限流
+            env.put("QWEN_TPM_MANAGED", "1");
+        }
 
         log.info("启动Python进程: {}", command);
         Process process = pb.start();
+        cancellation.onCancel(() -> ProcessTree.destroyForcibly(process));
+        try {
+            return awaitPythonProcess(process, stdinJob, job);
+        } finally {
+            cancellation.clear();
+        }
+    }
 
-        StringBuilder output = new StringBuilder();
-        StringBuilder errorOutput = new StringBuilder();
-        long startTime = System.currentTimeMillis();
-        long timeoutMs = qwenConfig.getTaskTimeout() * 1000L;
-
-        // 分别读取stdout和stderr
-        try (BufferedReader stdoutReader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
-             BufferedReader stderrReader = new BufferedReader(new InputStreamReader(process.getErrorStream(), "UTF-8"))) {
-            
-            while (true) {
-                // 检查超时
-                if (System.currentTimeMillis() - startTime > timeoutMs) {
-                    process.destroyForcibly();
-                    throw new RuntimeException("处理超时 (" + qwenConfig.getTaskTimeout() + "秒)");
-                }
+    /**
+     * 等待单独启动的Python进程结束并读取结果
+     */
+    private ExtractResult awaitPythonProcess(Process process, Map<String, Object> stdinJob, ExtractionJob job)
+            throws Exception {
+        Long taskId = job.task.getTaskId();
+
+        // stderr只保留尾部若干行，内存占用与日志量无关
+        BoundedLineBuffer errorOutput = new BoundedLineBuffer(stderrTailLines, STDERR_LINE_LIMIT);
+
+        // stdout按帧读取，结果载荷直接流式解析；stderr每行立即处理，进度即时写入Redis
+        CompletableFuture<ExtractResult> resultFuture = new CompletableFuture<>();
+        Thread stdoutReader = new Thread(() -> readResultFrame(process, resultFuture), "python-stdout-" + taskId);
+        stdoutReader.setDaemon(true);
+        stdoutReader.start();
+        ProcessStreamPump stderrPump = ProcessStreamPump.start("python-stderr-" + taskId, process.getErrorStream(),
+                line -> {
+                    errorOutput.add(line);
+                    log.debug("Python日志: {}", line);
+                    // 解析进度信息
+                    parseProgressUpdate(line, job);
+                });
+
+        // 输出流读取线程启动后再写入stdin，避免双方互相等待管道缓冲区
+        try (OutputStream stdin = process.getOutputStream()) {
+            if (stdinJob != null) {
+                objectMapper.writeValue(stdin, stdinJob);
+            }
+        } catch (IOException e) {
+            // 任务数据没有完整交给进程，结束进程，由调用方改用临时输入文件
+            ProcessTree.destroyForcibly(process);
+            stderrPump.awaitDrained(PUMP_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            log.warn("写入Python进程stdin失败: {}, stderr={}", e.getMessage(), errorOutput);
+            throw new StdinHandoffException(e);
+        }
 
-                // 读取stdout
-                while (stdoutReader.ready()) {
-                    String line = stdoutReader.readLine();
-                    if (line != null) {
-                        output.append(line).append("\n");
-                    }
-                }
+        // 等待进程退出，超时由 onExit 上的定时器触发
+        long timeoutMs = job.timeoutMillis();
+        int exitCode;
+        try {
+            exitCode = process.onExit()
+                    .orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                    .get()
+                    .exitValue();
+        } catch (ExecutionException e) {
+            ProcessTree.destroyForcibly(process);
+            if (e.getCause() instanceof TimeoutException) {
+                throw new RuntimeException("处理超时 (" + timeoutMs / 1000 + "秒)");
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            ProcessTree.destroyForcibly(process);
+            throw e;
+        }
 
-                // 读取stderr（日志输出）
-                while (stderrReader.ready()) {
-                    String line = stderrReader.readLine();
-                    if (line != null) {
-                        errorOutput.append(line).append("\n");
-                        log.debug("Python日志: {}", line);
-                        // 解析进度信息
-                        parseProgressUpdate(line, progressKey, taskId);
-                    }
-                }
+        // 读取剩余输出
+        stderrPump.awaitDrained(PUMP_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
 
-                // 检查进程状态
-                try {
-                    int exitCode = process.exitValue();
-                    // 读取剩余输出
-                    String line;
-                    while ((line = stdoutReader.readLine()) != null) {
-                        output.append(line).append("\n");
-                    }
-                    while ((line = stderrReader.readLine()) != null) {
-                        errorOutput.append(line).append("\n");
-                        log.debug("Python日志: {}", line);
-                    }
+        if (exitCode != 0) {
+            log.error("Python脚本执行失败: exitCode={}, stderr={}", exitCode, errorOutput);
+            throw new RuntimeException("脚本执行失败，退出码: " + exitCode);
+        }
 
-                    if (exitCode != 0) {
-                        log.error("Python脚本执行失败: exitCode={}, stderr={}", exitCode, errorOutput);
-                        throw new RuntimeException("脚本执行失败，退出码: " + exitCode);
-                    }
+        try {
+            return resultFuture.get(PUMP_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            throw new RuntimeException("读取Python输出超时");
+        }
+    }
 
-                    break;
-                } catch (IllegalThreadStateException e) {
-                    Thread.sleep(200);
+    /**
+     * 从stdout读取结果帧，流式解析为 ExtractResult
+     */
+    private void readResultFrame(Process process, CompletableFuture<ExtractResult> resultFuture) {
+        WorkerFrameReader reader = new WorkerFrameReader(process.getInputStream(), objectMapper, maxResultBytes);
+        try {
+            Map<String, Object> header;
+            while ((header = reader.nextHeader()) != null) {
+                if ("result".equals(header.get("type"))) {
+                    resultFuture.complete(reader.readPayload(ExtractResult.class));
                 }
             }
+            resultFuture.completeExceptionally(new RuntimeException("Python脚本无输出"));
+        } catch (Exception e) {
+            log.error("解析Python输出失败: {}", e.getMessage());
+            resultFuture.completeExceptionally(new RuntimeException("解析结果失败: " + e.getMessage()));
         }
-
-        String outputStr = output.toString().trim();
-        return parseOutput(outputStr);
     }
 
     /**
-     * 构建命令
+     * 构建命令（临时文件方式）
      */
     private List<String> buildCommand(Path inputFilePath, String extractFieldsJson) {
         List<String> command = new ArrayList<>();
@@ -260,18 +1435,37 @@ public class QwenExtractService {
         return command;
     }
 
+    /**
+     * 写入输入文件
+     */
+    private Path writeInputFile(Task task, Map<String, Object> inputData) throws Exception {
+        String inputFileName = "input_" + task.getTaskId() + "_" + System.currentTimeMillis() + ".json";
+        Path inputFilePath = Paths.get(pythonWorkerDir, inputFileName);
+        objectMapper.writeValue(inputFilePath.toFile(), inputData);
+        log.debug("输入数据已写入: {}", inputFilePath);
+        return inputFilePath;
+    }
+
+    /**
+     * 任务数据没有通过stdin完整交给Python进程
+     */
+    private static class StdinHandoffException extends IOException {
+
+        StdinHandoffException(IOException cause) {
+            super("写入stdin失败: " + cause.getMessage(), cause);
+        }
+    }
+
     /**
      * 解析进度更新
      */
-    private void parseProgressUpdate(String line, String progressKey, Long taskId) {
+    private void parseProgressUpdate(String line, ExtractionJob job) {
         try {
             if (line.contains("\"progress\":")) {
                 // 尝试解析JSON格式的进度信息
                 if (line.startsWith("{") && line.endsWith("}")) {
                     Map<String, Object> progressInfo = objectMapper.readValue(line, Map.class);
-                    int progress = (Integer) progressInfo.getOrDefault("progress", 0);
-                    String stage = (String) progressInfo.getOrDefault("stage", "QWEN_EXTRACTING");
-                    updateProgress(progressKey, TaskProgressDTO.of(taskId, stage, progress));
+                    applyProgressUpdate(progressInfo, job);
                 }
             }
         } catch (Exception e) {
@@ -280,28 +1474,26 @@ public class QwenExtractService {
     }
 
     /**
-     * 解析输出
+     * 应用Python端上报的进度
      */
-    private Map<String, Object> parseOutput(String outputStr) {
-        if (outputStr.isEmpty()) {
-            throw new RuntimeException("Python脚本无输出");
-        }
-
-        // 尝试提取JSON部分
-        String jsonStr = outputStr;
-        int jsonStart = outputStr.indexOf('{');
-        int jsonEnd = outputStr.lastIndexOf('}');
-
-        if (jsonStart >= 0 && jsonEnd > jsonStart) {
-            jsonStr = outputStr.substring(jsonStart, jsonEnd + 1);
-        }
-
+    private void applyProgressUpdate(Map<String, Object> progressInfo, ExtractionJob job) {
         try {
-            return objectMapper.readValue(jsonStr, Map.class);
+            int progress = ((Number) progressInfo.getOrDefault("progress", 0)).intValue();
+            String stage = (String) progressInfo.getOrDefault("stage", "QWEN_EXTRACTING");
+            job.progress(TaskProgressDTO.of(job.task.getTaskId(), stage, progress));
         } catch (Exception e) {
-            log.error("解析Python输出失败: {}", jsonStr, e);
-            throw new RuntimeException("解析结果失败: " + e.getMessage());
+            // 忽略解析错误
+        }
+    }
+
+    /**
+     * 任务的截止时间（epoch毫秒），没有截止时间的旧任务从现在起按默认时限计算
+     */
+    private long deadlineMillis(Task task) {
+        if (task.getDeadline() != null) {
+            return task.getDeadline().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
         }
+        return System.currentTimeMillis() + deadlineConfig.getDefaultSeconds() * 1000L;
     }
 
     /**
@@ -328,11 +1520,17 @@ public class QwenExtractService {
                 pdfFullPath = Paths.get("data", "uploads", filePath).toString();
             }
 
-            inputData.put("fileInfo", Map.of(
-                    "fileName", fileName,
-                    "filePath", pdfFullPath,
-                    "taskDataDir", taskDataDir != null ? taskDataDir : Paths.get(dataDir, sanitizeTaskName(task.getTaskName())).toString()
-            ));
+            Map<String, Object> fileInfo = new HashMap<>();
+            fileInfo.put("fileName", fileName);
+            fileInfo.put("filePath", pdfFullPath);
+            fileInfo.put("taskDataDir", taskDataDir != null ? taskDataDir : Paths.get(dataDir, sanitizeTaskName(task.getTaskName())).toString());
+
+            // 相同文件内容的OCR结果可跨任务复用，已有缓存时Python端跳过MinerU
+            Path ocrCacheDir = ocrArtifactStore.resolve(task);
+            if (ocrCacheDir != null) {
+                fileInfo.put("ocrCacheDir", ocrCacheDir.toString());
+            }
+            inputData.put("fileInfo", fileInfo);
         }
 
         // 添加Qwen配置
@@ -345,6 +1543,23 @@ public class QwenExtractService {
         return inputData;
     }
 
+    /**
+     * 合并处理的输入数据：公共部分沿用第一个文档，batch 中列出每个文档的任务ID和文件信息
+     */
+    private Map<String, Object> prepareGroupInput(List<ExtractionJob> members) {
+        Map<String, Object> inputData = new HashMap<>(members.get(0).inputData);
+        inputData.remove("fileInfo");
+        List<Map<String, Object>> batch = new ArrayList<>();
+        for (ExtractionJob member : members) {
+            Map<String, Object> item = new HashMap<>();
+            item.put("taskId", member.task.getTaskId());
+            item.put("fileInfo", member.inputData.get("fileInfo"));
+            batch.add(item);
+        }
+        inputData.put("batch", batch);
+        return inputData;
+    }
+
     /**
      * 清理任务名称，移除不安全的字符
      */
@@ -354,22 +1569,69 @@ public class QwenExtractService {
     }
 
     /**
-     * 写入输入文件
+     * 按历史耗时估算剩余处理时间（毫秒），没有足够的历史样本时返回 null
+     * 分阶段执行时按当前阶段的条件分位数加后续阶段的分位数估算，否则按整体处理耗时估算
      */
-    private Path writeInputFile(Task task, Map<String, Object> inputData) throws Exception {
-        String inputFileName = "input_" + task.getTaskId() + "_" + System.currentTimeMillis() + ".json";
-        Path inputFilePath = Paths.get(pythonWorkerDir, inputFileName);
-        objectMapper.writeValue(inputFilePath.toFile(), inputData);
-        log.debug("输入数据已写入: {}", inputFilePath);
-        return inputFilePath;
+    private Long estimateRemainingMillis(ExtractionJob job) {
+        List<ExtractionJob> shards = job.shards;
+        if (!shards.isEmpty()) {
+            // 分片并行处理，按最慢的未完成分片估算
+            Long slowest = null;
+            for (ExtractionJob shard : shards) {
+                if (shard.isDone()) {
+                    continue;
+                }
+                Long remaining = estimateRemainingMillis(shard);
+                if (remaining == null) {
+                    return null;
+                }
+                slowest = slowest == null ? remaining : Math.max(slowest, remaining);
+            }
+            return slowest;
+        }
+        long now = System.currentTimeMillis();
+        StageDurationModel.Stage phase = job.phase;
+        if (job.pipelined && phase != null) {
+            Long current = durationModel.remainingMillis(phase, job.profile, now - job.phaseStartedAt);
+            Long following = phase == StageDurationModel.Stage.OCR
+                    ? durationModel.expectedMillis(StageDurationModel.Stage.EXTRACT, job.profile)
+                    : Long.valueOf(0);
+            if (current != null && following != null) {
+                return current + following;
+            }
+        }
+        return durationModel.remainingMillis(StageDurationModel.Stage.PROCESS, job.profile, now - job.startedAt);
     }
 
     /**
-     * 更新进度
+     * 等待重试时的剩余时间（毫秒）：退避时间加重新执行失败阶段及其后续阶段的耗时
      */
-    private void updateProgress(String key, TaskProgressDTO progress) {
+    private Long estimateRetryMillis(ExtractionJob job, long delayMs) {
+        StageDurationModel.Stage phase = job.phase;
+        Long rerun = null;
+        if (job.pipelined && phase != null) {
+            Long current = durationModel.expectedMillis(phase, job.profile);
+            Long following = phase == StageDurationModel.Stage.OCR
+                    ? durationModel.expectedMillis(StageDurationModel.Stage.EXTRACT, job.profile)
+                    : Long.valueOf(0);
+            rerun = current != null && following != null ? current + following : null;
+        }
+        if (rerun == null) {
+            rerun = durationModel.expectedMillis(StageDurationModel.Stage.PROCESS, job.profile);
+        }
+        return rerun != null ? delayMs + rerun : null;
+    }
+
+    private static Long toSeconds(Long millis) {
+        return millis != null ? (millis + 999) / 1000 : null;
+    }
+
+    /**
+     * 更新进度（按间隔合并写入Redis，任务结束时立即写入）
+     */
+    private void updateProgress(TaskProgressDTO progress) {
         try {
-            redisTemplate.opsForValue().set(key, progress, Duration.ofHours(24));
+            progressTracker.update(progress);
             log.debug("进度更新: taskId={}, stage={}, progress={}%",
                     progress.getTaskId(), progress.getStage(), progress.getProgress());
         } catch (Exception e) {
@@ -381,16 +1643,29 @@ public class QwenExtractService {
      * 获取任务进度
      */
     public TaskProgressDTO getProgress(Long taskId) {
-        String key = PROGRESS_KEY_PREFIX + taskId;
-        return (TaskProgressDTO) redisTemplate.opsForValue().get(key);
+        return progressTracker.get(taskId);
+    }
+
+    /**
+     * 批量读取进度，没有进度记录的任务不在结果中
+     */
+    public Map<Long, TaskProgressDTO> getProgress(List<Long> taskIds) {
+        return progressTracker.get(taskIds);
     }
 
     /**
      * 缓存任务结果
      */
-    private void cacheTaskResult(Long taskId, Map<String, Object> result) {
+    private void cacheTaskResult(Long taskId, ExtractResult result) {
         String key = "task:result:" + taskId;
-        redisTemplate.opsForValue().set(key, result, Duration.ofHours(24));
+        redisTemplate.opsForValue().set(key, toResultMap(result), Duration.ofHours(24));
+    }
+
+    /**
+     * 转换为持久化/返回给前端的Map格式（与Python输出的字段名一致）
+     */
+    public Map<String, Object> toResultMap(ExtractResult result) {
+        return objectMapper.convertValue(result, Map.class);
     }
 
     /**
@@ -405,18 +1680,13 @@ public class QwenExtractService {
      * 获取当前活跃进程数
      */
     public int getActiveProcessCount() {
-        return activeProcesses.get();
+        return concurrencyLimiter.getInFlight();
     }
 
     /**
      * 生成模拟结果
      */
-    private Map<String, Object> generateMockResult() {
-        Map<String, Object> mockResult = new HashMap<>();
-        mockResult.put("status", "success");
-        mockResult.put("message", "模拟处理完成");
-        mockResult.put("model", qwenConfig.getModel());
-
+    private ExtractResult generateMockResult() {
         Map<String, Object> extractedData = new LinkedHashMap<>();
         extractedData.put("名称", "示例材料");
         extractedData.put("熔点", "85-87°C");
@@ -425,8 +1695,12 @@ public class QwenExtractService {
         extractedData.put("溶解度", "易溶于乙醇、丙酮");
         extractedData.put("密度", "1.23 g/cm³");
 
-        mockResult.put("data", extractedData);
-        mockResult.put("confidence", 0.95);
-        return mockResult;
+        return ExtractResult.builder()
+                .status("success")
+                .message("模拟处理完成")
+                .model(qwenConfig.getModel())
+                .data(extractedData)
+                .confidence(0.95)
+                .build();
     }
 }
@@ -0,0 +1,72 @@
+package com.docextract.service;
+
+import com.docextract.config.QwenConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+/**
+ * 全局重试预算
+ * <p>
+ * 每个新任务存入 retryBudgetRatio 个重试额度，每次重试消耗1个，余额上限 retryBudgetMax。
+ * 正常情况下偶发失败总能重试；整批文档都失败时重试量被限制在新任务量的一定比例内，
+ * 不会让重试占满执行槽位。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class RetryBudget {
+
+    private final QwenConfig qwenConfig;
+    private final MeterRegistry meterRegistry;
+
+    private double balance;
+
+    private Counter retriesCounter;
+    private Counter exhaustedCounter;
+
+    @PostConstruct
+    public void init() {
+        balance = qwenConfig.getRetryBudgetMax();
+        Gauge.builder("extract.retry.budget", this, RetryBudget::getBalance)
+                .description("当前剩余的重试额度")
+                .register(meterRegistry);
+        retriesCounter = Counter.builder("extract.retry.attempts")
+                .description("已执行的重试次数")
+                .register(meterRegistry);
+        exhaustedCounter = Counter.builder("extract.retry.exhausted")
+                .description("因重试预算耗尽而放弃的重试次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一个新任务，存入重试额度
+     */
+    public synchronized void deposit() {
+        balance = Math.min(qwenConfig.getRetryBudgetMax(), balance + qwenConfig.getRetryBudgetRatio());
+    }
+
+    /**
+     * 尝试消耗一次重试额度
+     *
+     * @return 额度不足时返回 false
+     */
+    public synchronized boolean tryWithdraw() {
+        if (balance < 1) {
+            exhaustedCounter.increment();
+            log.warn("重试预算已用尽，放弃重试");
+            return false;
+        }
+        balance -= 1;
+        retriesCounter.increment();
+        return true;
+    }
+
+    public synchronized double getBalance() {
+        return balance;
+    }
+}
@@ -0,0 +1,168 @@
+package com.docextract.service;
+
+import com.docextract.dto.ExtractResult;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 大文档分片结果合并
+ * <p>
+ * 按分片顺序合并各分片提取出的字段：对象逐个字段合并，列表按分片顺序拼接并去重，
+ * 其他值在多个分片都有非空结果时取置信度最高的分片，置信度相同时取页码靠前的分片。
+ * 以 "_" 开头的元数据字段不参与合并。相同的分片结果总是合并出相同的结果
+ */
+final class ShardResultMerger {
+
+    private ShardResultMerger() {
+    }
+
+    /**
+     * 一个分片的提取结果
+     *
+     * @param pages  页码范围，例如 "31-60"
+     * @param result 提取结果，分片失败时为 null
+     */
+    record Shard(String pages, ExtractResult result) {
+    }
+
+    private record Candidate(int shard, double confidence, Object value) {
+    }
+
+    /**
+     * 合并分片结果（分片按页码顺序排列，至少一个分片成功）
+     * 有分片失败或只提取到部分数据时，合并结果标记为部分成功
+     */
+    static ExtractResult merge(List<Shard> shards) {
+        List<Candidate> candidates = new ArrayList<>();
+        List<Map<String, Object>> details = new ArrayList<>();
+        List<String> failedPages = new ArrayList<>();
+        double confidence = 1.0;
+        boolean partial = false;
+        String model = null;
+        String modelMode = null;
+        long inputTokens = 0;
+        long outputTokens = 0;
+        long totalTokens = 0;
+
+        for (int i = 0; i < shards.size(); i++) {
+            Shard shard = shards.get(i);
+            ExtractResult result = shard.result();
+            Map<String, Object> detail = new LinkedHashMap<>();
+            detail.put("pages", shard.pages());
+            details.add(detail);
+            if (result == null) {
+                detail.put("status", "error");
+                failedPages.add(shard.pages());
+                continue;
+            }
+
+            double shardConfidence = confidenceOf(result);
+            detail.put("status", result.getStatus());
+            detail.put("model", result.getModel());
+            detail.put("confidence", shardConfidence);
+            if (result.getData() != null) {
+                candidates.add(new Candidate(i, shardConfidence, result.getData()));
+            }
+            confidence = Math.min(confidence, shardConfidence);
+            partial |= !result.isSuccess() || Boolean.TRUE.equals(result.getPartial());
+            model = model != null ? model : result.getModel();
+            modelMode = modelMode != null ? modelMode : result.getModelMode();
+            if (result.getUsage() != null) {
+                inputTokens += result.getUsage().getInputTokens();
+                outputTokens += result.getUsage().getOutputTokens();
+                totalTokens += result.getUsage().getTotalTokens();
+            }
+        }
+        partial |= !failedPages.isEmpty();
+
+        Map<String, Object> data = mergeMaps(candidates);
+        data.put("_shards", details);
+
+        ExtractResult merged = ExtractResult.builder()
+                .status(partial ? "partial_success" : "success")
+                .message(failedPages.isEmpty()
+                        ? "分片提取完成（" + shards.size() + " 个分片）"
+                        : "部分分片提取失败，缺少第 " + String.join("、", failedPages) + " 页的结果")
+                .data(data)
+                .confidence(confidence)
+                .model(model)
+                .modelMode(modelMode)
+                .mineruProcessed(true)
+                .partial(partial ? Boolean.TRUE : null)
+                .usage(new ExtractResult.TokenUsage(inputTokens, outputTokens, totalTokens))
+                .build();
+        merged.putExtra("shard_count", shards.size());
+        return merged;
+    }
+
+    private static double confidenceOf(ExtractResult result) {
+        return result.getConfidence() != null ? result.getConfidence() : 0.0;
+    }
+
+    private static Map<String, Object> mergeMaps(List<Candidate> candidates) {
+        // 字段顺序按首次出现的分片排列
+        Map<String, List<Candidate>> byKey = new LinkedHashMap<>();
+        for (Candidate candidate : candidates) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) candidate.value()).entrySet()) {
+                String key = String.valueOf(entry.getKey());
+                if (key.startsWith("_")) {
+                    continue;
+                }
+                byKey.computeIfAbsent(key, k -> new ArrayList<>())
+                        .add(new Candidate(candidate.shard(), candidate.confidence(), entry.getValue()));
+            }
+        }
+        Map<String, Object> merged = new LinkedHashMap<>();
+        byKey.forEach((key, values) -> merged.put(key, mergeValues(values)));
+        return merged;
+    }
+
+    private static Object mergeValues(List<Candidate> candidates) {
+        List<Candidate> present = candidates.stream().filter(c -> !isEmpty(c.value())).toList();
+        if (present.isEmpty()) {
+            return candidates.get(0).value();
+        }
+        if (present.stream().allMatch(c -> c.value() instanceof Map)) {
+            return mergeMaps(present);
+        }
+        if (present.stream().allMatch(c -> c.value() instanceof List)) {
+            List<Object> merged = new ArrayList<>();
+            for (Candidate candidate : present) {
+                for (Object item : (List<?>) candidate.value()) {
+                    if (!merged.contains(item)) {
+                        merged.add(item);
+                    }
+                }
+            }
+            return merged;
+        }
+        // 候选按分片顺序排列，置信度严格更高才替换，相同时保留靠前的分片
+        Candidate best = present.get(0);
+        for (Candidate candidate : present) {
+            if (candidate.confidence() > best.confidence()) {
+                best = candidate;
+            }
+        }
+        return best.value();
+    }
+
+    private static boolean isEmpty(Object value) {
+        if (value == null) {
+            return true;
+        }
+        if (value instanceof String text) {
+            return text.isBlank();
+        }
+        if (value instanceof Collection<?> collection) {
+            return collection.isEmpty();
+        }
+        if (value instanceof Map<?, ?> map) {
+            return map.isEmpty();
+        }
+        return false;
+    }
+}
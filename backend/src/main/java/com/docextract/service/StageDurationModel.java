@@ -0,0 +1,172 @@
+package com.docextract.service;
+
+import com.docextract.config.EstimateConfig;
+import com.docextract.entity.Task;
+import com.docextract.repository.TaskRepository;
+import com.docextract.util.QuantileSketch;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 阶段耗时模型
+ * <p>
+ * 按阶段记录历史耗时，每个阶段再按页数分档、文件类型、模型模式分类，每类一个分位数草图。
+ * 同时记录到逐级变粗的分类（去掉文件类型、去掉页数分档、全部），样本不足 min-samples 的分类退回到更粗的一级。
+ * <p>
+ * 剩余时间按条件分位数估算：某阶段已耗时 t 时，取历史上耗时超过 t 的样本的分位数减去 t，
+ * 运行越久估算越接近长尾，不会出现剩余时间为负或长期停在0的情况。
+ * 排队等待和整体处理耗时随任务结果保存在处理详情中，启动时从最近完成的任务加载。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class StageDurationModel {
+
+    /**
+     * 阶段
+     */
+    public enum Stage {
+        // 创建或重试后到开始处理
+        QUEUE,
+        // 开始处理到完成（包括OCR、AI提取、重试等待）
+        PROCESS,
+        // 分阶段执行的OCR
+        OCR,
+        // 分阶段执行的AI提取
+        EXTRACT
+    }
+
+    /**
+     * 任务分类特征
+     */
+    public record Profile(String sizeClass, String fileType, String modelMode) {
+
+        public static Profile of(Task task, String modelMode) {
+            Map<String, String> fileInfo = task.getFilePath();
+            return of(task.getPageCount(), fileInfo != null ? fileInfo.get("fileName") : null,
+                    modelMode != null ? modelMode : task.getModelMode());
+        }
+
+        static Profile of(Integer pageCount, String fileName, String modelMode) {
+            String fileType = "unknown";
+            if (fileName != null && fileName.lastIndexOf('.') >= 0) {
+                fileType = fileName.substring(fileName.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+            }
+            return new Profile(HedgingPolicy.sizeClass(pageCount), fileType,
+                    modelMode != null ? modelMode : "normal");
+        }
+    }
+
+    private final EstimateConfig estimateConfig;
+    private final TaskRepository taskRepository;
+
+    // 分类键 -> 耗时草图
+    private final Map<String, QuantileSketch> sketches = new ConcurrentHashMap<>();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (estimateConfig.getWarmupTasks() <= 0) {
+            return;
+        }
+        try {
+            List<Object[]> rows = taskRepository.findRecentCompletionStats(
+                    PageRequest.of(0, estimateConfig.getWarmupTasks()));
+            int loaded = 0;
+            for (Object[] row : rows) {
+                Map<String, String> fileInfo = (Map<String, String>) row[1];
+                Map<String, Object> details = (Map<String, Object>) row[3];
+                if (details == null || Boolean.TRUE.equals(details.get("cacheHit"))
+                        || !(details.get("queueWaitMs") instanceof Number queueWaitMs)
+                        || !(details.get("processingMs") instanceof Number processingMs)) {
+                    continue;
+                }
+                Profile profile = Profile.of((Integer) row[0], fileInfo != null ? fileInfo.get("fileName") : null,
+                        (String) row[2]);
+                record(Stage.QUEUE, profile, queueWaitMs.longValue());
+                record(Stage.PROCESS, profile, processingMs.longValue());
+                loaded++;
+            }
+            log.info("加载历史耗时: {} 个已完成任务", loaded);
+        } catch (Exception e) {
+            log.warn("加载历史耗时失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 记录一次阶段耗时
+     */
+    public void record(Stage stage, Profile profile, long durationMs) {
+        for (String key : keys(stage, profile)) {
+            sketches.computeIfAbsent(key, k -> new QuantileSketch(estimateConfig.getRelativeAccuracy()))
+                    .add(durationMs);
+        }
+    }
+
+    /**
+     * 阶段已耗时 elapsedMs 时的预计剩余耗时（毫秒），没有足够的历史样本时返回 null
+     */
+    public Long remainingMillis(Stage stage, Profile profile, long elapsedMs) {
+        QuantileSketch sketch = sketchFor(stage, profile);
+        if (sketch == null) {
+            return null;
+        }
+        long elapsed = Math.max(0, elapsedMs);
+        long total = sketch.quantileAbove(estimateConfig.getQuantile(), elapsed);
+        if (total < 0) {
+            // 已超过所有历史样本的耗时，无法估算
+            return null;
+        }
+        return Math.max(0, total - elapsed);
+    }
+
+    /**
+     * 阶段尚未开始时的预计耗时（毫秒），没有足够的历史样本时返回 null
+     */
+    public Long expectedMillis(Stage stage, Profile profile) {
+        return remainingMillis(stage, profile, 0);
+    }
+
+    /**
+     * 排队中的任务的预计剩余时间（毫秒）：排队等待的剩余时间加整体处理耗时
+     *
+     * @param waitedMs 已排队时间
+     */
+    public Long pendingMillis(Profile profile, long waitedMs) {
+        Long queue = remainingMillis(Stage.QUEUE, profile, waitedMs);
+        Long process = expectedMillis(Stage.PROCESS, profile);
+        if (process == null) {
+            return null;
+        }
+        return process + (queue != null ? queue : 0);
+    }
+
+    private QuantileSketch sketchFor(Stage stage, Profile profile) {
+        for (String key : keys(stage, profile)) {
+            QuantileSketch sketch = sketches.get(key);
+            if (sketch != null && sketch.count() >= Math.max(1, estimateConfig.getMinSamples())) {
+                return sketch;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从细到粗的分类键
+     */
+    private static List<String> keys(Stage stage, Profile profile) {
+        return List.of(
+                stage + "|" + profile.sizeClass() + "|" + profile.fileType() + "|" + profile.modelMode(),
+                stage + "|" + profile.sizeClass() + "|*|" + profile.modelMode(),
+                stage + "|*|*|" + profile.modelMode(),
+                stage + "|*|*|*");
+    }
+}
@@ -0,0 +1,134 @@
+package com.docextract.service;
+
+import com.docextract.dto.TaskProgressDTO;
+import com.docextract.repository.TaskRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 任务取消
+ * <p>
+ * 先在独立事务中把等待中/处理中的任务置为 CANCELLED 并提交（等待中的任务随之移出队列，不会再被领取），
+ * 再通过Redis广播给其他节点，持有该任务的节点结束对应的Python进程树并归还执行槽位和TPM额度。
+ * 调用方所在的事务之后回滚也不影响已提交的取消，不会出现进程已结束而任务仍在处理中的状态。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TaskCancellationService {
+
+    private static final String CANCEL_CHANNEL = "task:cancel";
+
+    private final TaskRepository taskRepository;
+    private final QwenExtractService qwenExtractService;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final ProgressTracker progressTracker;
+
+    // 本节点实例标识，收到自己发出的广播时跳过
+    private final String instanceId = UUID.randomUUID().toString();
+
+    // 独立事务（REQUIRES_NEW）
+    private TransactionTemplate requiresNew;
+
+    @PostConstruct
+    public void init() {
+        requiresNew = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        listenerContainer.addMessageListener(this::onCancelMessage, new ChannelTopic(CANCEL_CHANNEL));
+    }
+
+    /**
+     * 取消任务
+     *
+     * @return 实际被取消的任务ID（已完成、失败或已取消的任务不受影响）
+     */
+    public List<Long> cancel(List<Long> taskIds) {
+        if (taskIds.isEmpty()) {
+            return List.of();
+        }
+        List<Long> cancelled = requiresNew.execute(status -> {
+            List<Long> active = taskRepository.lockActiveTaskIds(taskIds);
+            if (!active.isEmpty()) {
+                taskRepository.cancelTasks(active);
+            }
+            return active;
+        });
+        if (cancelled == null || cancelled.isEmpty()) {
+            return List.of();
+        }
+        log.info("取消任务: {}", cancelled);
+
+        // 取消已提交，本节点立即处理，其他节点通过广播处理
+        for (Long taskId : cancelled) {
+            if (!cancelLocally(taskId)) {
+                // 本节点没有在处理（排队中或由其他节点处理）：由发起取消的节点写入一次取消进度，
+                // 持有该任务的节点结束进程后也会写入
+                progressTracker.update(TaskProgressDTO.of(taskId, "CANCELLED", 0));
+            }
+        }
+        try {
+            stringRedisTemplate.convertAndSend(CANCEL_CHANNEL,
+                    objectMapper.writeValueAsString(new CancelMessage(instanceId, cancelled)));
+        } catch (Exception e) {
+            log.warn("广播任务取消失败: {}", e.getMessage());
+        }
+        return cancelled;
+    }
+
+    /**
+     * 取消批量任务下所有未结束的任务
+     */
+    public List<Long> cancelBatch(Long userId, String taskName) {
+        // 只查询任务ID，不把任务实体加载进调用方的持久化上下文；已结束的任务由取消语句过滤
+        return cancel(taskRepository.findTaskIdsByUserIdAndTaskName(userId, taskName));
+    }
+
+    private void onCancelMessage(Message message, byte[] pattern) {
+        try {
+            CancelMessage cancel = objectMapper.readValue(new String(message.getBody(), StandardCharsets.UTF_8),
+                    CancelMessage.class);
+            if (instanceId.equals(cancel.origin())) {
+                // 本节点发起的取消已在发送前处理
+                return;
+            }
+            cancel.taskIds().forEach(this::cancelLocally);
+        } catch (Exception e) {
+            log.warn("处理任务取消广播失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 结束本节点正在处理的任务
+     *
+     * @return 本节点是否有该任务正在处理
+     */
+    private boolean cancelLocally(Long taskId) {
+        if (qwenExtractService.cancel(taskId)) {
+            log.info("已结束本节点正在处理的任务: taskId={}", taskId);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 取消广播：发起节点的实例标识和被取消的任务ID
+     */
+    record CancelMessage(String origin, List<Long> taskIds) {
+    }
+}
@@ -0,0 +1,240 @@
+package com.docextract.service;
+
+import com.docextract.config.SchedulerConfig;
+import com.docextract.entity.Task.Priority;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 任务调度器：按用户加权公平排队，区分交互/批量优先级，并对等待过久的批量任务做老化提升
+ * <p>
+ * 每个优先级内，每个用户有自己的FIFO队列，按起始时间公平排队（SFQ）：用户派发一个任务后虚拟时间前进 1/权重，
+ * 每次选择虚拟时间最小的用户，一个用户上传几百个文件也只是和其他用户轮流派发。
+ * 交互任务（单文件上传、手动重试）优先；批量任务排队超过 aging-seconds 后与交互任务按到达时间竞争，不会被饿死。
+ * 在途任务数受 max-in-flight 限制，下游OCR/AI提取的队列保持较短，先后顺序在这里决定。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TaskDispatcher {
+
+    private final SchedulerConfig schedulerConfig;
+    private final MeterRegistry meterRegistry;
+    private final Executor taskDispatchExecutor;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Priority, FairQueue> queues = new EnumMap<>(Priority.class);
+    private final Map<Priority, Timer> waitTimers = new EnumMap<>(Priority.class);
+    private int inFlight = 0;
+
+    @PostConstruct
+    public void init() {
+        for (Priority priority : Priority.values()) {
+            FairQueue queue = new FairQueue();
+            queues.put(priority, queue);
+            String tag = priority.name().toLowerCase();
+            Gauge.builder("extract.scheduler.queued", queue, q -> q.size)
+                    .tag("priority", tag)
+                    .description("调度队列中等待派发的任务数")
+                    .register(meterRegistry);
+            waitTimers.put(priority, Timer.builder("extract.scheduler.wait")
+                    .tag("priority", tag)
+                    .description("任务在调度队列中的等待时间")
+                    .register(meterRegistry));
+        }
+        Gauge.builder("extract.scheduler.in_flight", this, TaskDispatcher::getInFlight)
+                .description("已派发、处理中的任务数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 提交任务，按公平顺序派发到处理线程
+     */
+    public void submit(Long userId, Priority priority, Runnable work) {
+        lock.lock();
+        try {
+            queues.get(priority).offer(new Item(userId, priority, work, System.nanoTime()),
+                    schedulerConfig.weightOf(userId));
+        } finally {
+            lock.unlock();
+        }
+        pump();
+    }
+
+    /**
+     * 本节点已接收但未完成的任务数（排队 + 处理中）
+     */
+    public int getBacklog() {
+        lock.lock();
+        try {
+            int queued = 0;
+            for (FairQueue queue : queues.values()) {
+                queued += queue.size;
+            }
+            return inFlight + queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在途数未满时持续派发
+     */
+    private void pump() {
+        while (true) {
+            Item item;
+            lock.lock();
+            try {
+                if (inFlight >= schedulerConfig.getMaxInFlight()) {
+                    return;
+                }
+                item = next();
+                if (item == null) {
+                    return;
+                }
+                inFlight++;
+            } finally {
+                lock.unlock();
+            }
+
+            waitTimers.get(item.priority()).record(System.nanoTime() - item.enqueuedAt(), TimeUnit.NANOSECONDS);
+            try {
+                taskDispatchExecutor.execute(() -> run(item));
+            } catch (RejectedExecutionException e) {
+                log.error("派发任务失败: userId={}, {}", item.userId(), e.getMessage());
+                release();
+                return;
+            }
+        }
+    }
+
+    private void run(Item item) {
+        try {
+            item.work().run();
+        } catch (Exception e) {
+            log.error("任务执行异常: userId={}", item.userId(), e);
+        } finally {
+            release();
+            pump();
+        }
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            inFlight--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 选择下一个任务（调用方持有锁）
+     * 批量任务的到达时间加上老化时间后再与交互任务比较，两类都有任务时先到者优先
+     */
+    private Item next() {
+        FairQueue interactive = queues.get(Priority.INTERACTIVE);
+        FairQueue bulk = queues.get(Priority.BULK);
+        Long interactiveSince = interactive.oldestEnqueuedAt();
+        Long bulkSince = bulk.oldestEnqueuedAt();
+        if (interactiveSince == null) {
+            return bulk.poll();
+        }
+        if (bulkSince == null) {
+            return interactive.poll();
+        }
+        long agingNanos = TimeUnit.SECONDS.toNanos(schedulerConfig.getAgingSeconds());
+        return interactiveSince - (bulkSince + agingNanos) <= 0 ? interactive.poll() : bulk.poll();
+    }
+
+    private record Item(Long userId, Priority priority, Runnable work, long enqueuedAt) {
+    }
+
+    /**
+     * 单个优先级内的用户公平队列（非线程安全，由外层锁保护）
+     */
+    private static class FairQueue {
+
+        // 有任务排队的用户，按加入顺序排列（虚拟时间相同时先加入者优先）
+        final Map<Long, UserQueue> users = new LinkedHashMap<>();
+        double virtualTime = 0;
+        volatile int size = 0;
+
+        void offer(Item item, int weight) {
+            UserQueue queue = users.get(item.userId());
+            if (queue == null) {
+                // 新加入的用户从当前虚拟时间开始，不能用空闲期间积累的份额插队
+                queue = new UserQueue(weight, virtualTime);
+                users.put(item.userId(), queue);
+            }
+            queue.items.add(item);
+            size++;
+        }
+
+        Item poll() {
+            UserQueue selected = null;
+            for (UserQueue queue : users.values()) {
+                if (selected == null || queue.tag < selected.tag) {
+                    selected = queue;
+                }
+            }
+            if (selected == null) {
+                return null;
+            }
+            Item item = selected.items.poll();
+            virtualTime = selected.tag;
+            selected.tag += 1.0 / selected.weight;
+            if (selected.items.isEmpty()) {
+                users.remove(item.userId());
+            }
+            size--;
+            return item;
+        }
+
+        Long oldestEnqueuedAt() {
+            Long oldest = null;
+            for (UserQueue queue : users.values()) {
+                long since = queue.items.peek().enqueuedAt();
+                if (oldest == null || since - oldest < 0) {
+                    oldest = since;
+                }
+            }
+            return oldest;
+        }
+    }
+
+    private static class UserQueue {
+
+        final ArrayDeque<Item> items = new ArrayDeque<>();
+        final int weight;
+        double tag;
+
+        UserQueue(int weight, double tag) {
+            this.weight = weight;
+            this.tag = tag;
+        }
+    }
+}
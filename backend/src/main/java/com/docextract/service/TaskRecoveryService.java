@@ -0,0 +1,128 @@
+package com.docextract.service;
+
+import com.docextract.config.RecoveryConfig;
+import com.docextract.config.SchedulerConfig;
+import com.docextract.entity.Task;
+import com.docextract.repository.TaskRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 卡住任务恢复
+ * <p>
+ * 启动时和定期检查长时间没有更新的 PROCESSING 任务：没有租约持有者（旧版本遗留或异常中断），
+ * 或由本节点持有但本节点已不在处理，视为处理进程已不存在，放回队列或标记失败。
+ * 其他节点持有的任务由租约过期机制回收，这里不处理。
+ * 每次最多恢复 batch-size 个，恢复的任务再由各节点按空闲容量领取，避免重启后大量任务同时涌入。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TaskRecoveryService {
+
+    private final TaskRepository taskRepository;
+    private final DurableTaskQueue taskQueue;
+    private final RecoveryConfig recoveryConfig;
+    private final SchedulerConfig schedulerConfig;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private Counter requeuedCounter;
+    private Counter failedCounter;
+
+    @PostConstruct
+    public void init() {
+        requeuedCounter = Counter.builder("task.recovery")
+                .tag("action", "requeued")
+                .description("卡住后重新入队的任务数")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("task.recovery")
+                .tag("action", "failed")
+                .description("卡住后无法恢复、标记失败的任务数")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverOnStartup() {
+        log.info("启动检查卡住的任务");
+        recover();
+    }
+
+    @Scheduled(fixedDelayString = "${recovery.interval:60}",
+            initialDelayString = "${recovery.interval:60}",
+            timeUnit = TimeUnit.SECONDS)
+    public void recover() {
+        if (!recoveryConfig.isEnabled()) {
+            return;
+        }
+        try {
+            recoverStaleTasks();
+        } catch (Exception e) {
+            log.warn("恢复卡住任务失败: {}", e.getMessage());
+        }
+    }
+
+    private void recoverStaleTasks() {
+        LocalDateTime before = LocalDateTime.now().minusMinutes(recoveryConfig.getStaleMinutes());
+        PageRequest batch = PageRequest.of(0, recoveryConfig.getBatchSize());
+        String nodeId = taskQueue.getNodeId();
+
+        List<Long> requeue = new ArrayList<>();
+        List<Long> abandon = new ArrayList<>();
+        for (Task task : taskRepository.findStaleTasks(Task.TaskStatus.PROCESSING, before, batch)) {
+            String owner = task.getLeaseOwner();
+            if (owner != null && !owner.equals(nodeId)) {
+                // 其他节点持有，由租约过期机制判断该节点是否存活
+                continue;
+            }
+            if (owner != null && taskQueue.isHeldLocally(task.getTaskId())) {
+                // 本节点仍在处理（耗时较长的任务）
+                continue;
+            }
+            boolean exhausted = task.getLeaseReclaims() != null
+                    && task.getLeaseReclaims() >= schedulerConfig.getMaxLeaseReclaims();
+            if (task.getExtractFieldsJson() == null || exhausted) {
+                abandon.add(task.getTaskId());
+            } else {
+                requeue.add(task.getTaskId());
+            }
+        }
+        // 旧版本创建、缺少提取字段的等待任务无法由队列处理，标记失败以便用户重新提交
+        for (Task task : taskRepository.findUnqueueableTasks(before, batch)) {
+            abandon.add(task.getTaskId());
+        }
+        if (requeue.isEmpty() && abandon.isEmpty()) {
+            return;
+        }
+
+        int[] counts = transactionTemplate.execute(status -> new int[]{
+                requeue.isEmpty() ? 0 : taskRepository.requeueStaleTasks(requeue, before, nodeId),
+                abandon.isEmpty() ? 0 : taskRepository.failStaleTasks(abandon, before, nodeId,
+                        "任务处理中断（服务重启或处理进程退出），请重试")
+        });
+        if (counts == null) {
+            return;
+        }
+        requeuedCounter.increment(counts[0]);
+        failedCounter.increment(counts[1]);
+        log.warn("恢复卡住的任务: 重新入队 {} 个, 标记失败 {} 个", counts[0], counts[1]);
+
+        if (counts[0] > 0) {
+            taskQueue.poll();
+        }
+    }
+}
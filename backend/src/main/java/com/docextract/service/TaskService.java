@@ -1,33 +1,40 @@
 package com.docextract.service;
 
+import com.docextract.config.DeadlineConfig;
 import com.docextract.config.QwenConfig;
+import com.docextract.config.SchedulerConfig;
+import com.docextract.dto.BatchProgressDTO;
+import com.docextract.dto.ExtractResult;
 import com.docextract.dto.TaskDTO;
 import com.docextract.dto.TaskProgressDTO;
 import com.docextract.entity.Task;
 import com.docextract.entity.User;
+import com.docextract.exception.ExtractException;
 import com.docextract.repository.TaskRepository;
 import com.docextract.repository.UserRepository;
+import com.docextract.util.ContentHash;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.transaction.support.TransactionSynchronization;
-import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
@@ -43,6 +50,12 @@ public class TaskService {
     private final UserRepository userRepository;
     private final QwenExtractService qwenExtractService;
     private final QwenConfig qwenConfig;
+    private final SchedulerConfig schedulerConfig;
+    private final DeadlineConfig deadlineConfig;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TaskCancellationService cancellationService;
+    private final StageDurationModel durationModel;
+    private final TaskStateMachine stateMachine;
 
     @Value("${file.upload-dir:./data/uploads}")
     private String uploadDir;
@@ -55,13 +68,23 @@ public class TaskService {
 
     /**
      * 创建批量提取任务
+     *
+     * @param deadlineSeconds 处理时限（秒），为空时使用默认时限，超过后任务不再处理
      */
     @Transactional
-    public List<TaskDTO> createTasks(Long userId, String taskName, String extractFieldsJson, String modelMode, MultipartFile[] files) {
+    public List<TaskDTO> createTasks(Long userId, String taskName, String extractFieldsJson, String modelMode,
+                                     Integer deadlineSeconds, MultipartFile[] files) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("用户不存在"));
 
         List<Task> createdTasks = new ArrayList<>();
+        LocalDateTime deadline = LocalDateTime.now().plusSeconds(deadlineConfig.secondsFor(deadlineSeconds));
+
+        // 单文件上传是交互任务，优先处理；多文件上传按批量任务排队
+        long fileCount = Arrays.stream(files).filter(f -> !f.isEmpty()).count();
+        Task.Priority priority = fileCount <= schedulerConfig.getInteractiveMaxFiles()
+                ? Task.Priority.INTERACTIVE
+                : Task.Priority.BULK;
 
         // 创建任务目录结构: data/taskName/{pdf, json_data, result}
         Path taskPdfDir = Paths.get(dataDir, sanitizeTaskName(taskName), "pdf");
@@ -84,9 +107,12 @@ public class TaskService {
                 String fileExtension = originalFilename.substring(originalFilename.lastIndexOf("."));
                 String uniqueFileName = UUID.randomUUID().toString() + fileExtension;
 
-                // 保存文件到任务目录下的pdf文件夹
+                // 保存文件到任务目录下的pdf文件夹，写入时同时计算内容哈希（用于结果缓存）
                 Path filePath = taskPdfDir.resolve(uniqueFileName);
-                file.transferTo(filePath.toFile());
+                String contentHash;
+                try (InputStream in = file.getInputStream()) {
+                    contentHash = ContentHash.copyAndHash(in, filePath);
+                }
 
                 // 创建任务 - 使用用户自定义的任务名称
                 Task task = Task.builder()
@@ -98,24 +124,33 @@ public class TaskService {
                             "filePath", uniqueFileName,
                             "taskDataDir", Paths.get(dataDir, sanitizeTaskName(taskName)).toString()
                         ))
+                        .contentHash(contentHash)
+                        .extractFieldsJson(extractFieldsJson)
+                        .modelMode(modelMode)
+                        .priority(priority)
                         .status(Task.TaskStatus.PENDING)
                         .stage("PENDING")
                         .progress(0)
                         .retryCount(0)
                         .startTime(LocalDateTime.now())
+                        .deadline(deadline)
                         .build();
 
-                task = taskRepository.save(task);
                 createdTasks.add(task);
 
-                log.info("任务创建成功: taskId={}, fileName={}, savedTo={}", task.getTaskId(), originalFilename, filePath);
-
             } catch (IOException e) {
                 log.error("文件上传失败: {}", file.getOriginalFilename(), e);
                 throw new RuntimeException("文件上传失败: " + file.getOriginalFilename());
             }
         }
 
+        // 任务ID由序列预分配，插入语句在事务提交时按 hibernate.jdbc.batch_size 合并批量执行
+        createdTasks = taskRepository.saveAll(createdTasks);
+        for (Task task : createdTasks) {
+            log.info("任务创建成功: taskId={}, fileName={}, savedTo={}", task.getTaskId(),
+                    task.getFilePath().get("fileName"), taskPdfDir.resolve(task.getFilePath().get("filePath")));
+        }
+
         // 更新用户文档数量
         user.setDocumentCount(user.getDocumentCount() + createdTasks.size());
         userRepository.save(user);
@@ -125,15 +160,9 @@ public class TaskService {
                 .map(Task::getTaskId)
                 .collect(Collectors.toList());
 
-        // 在事务提交后再启动异步处理
-        String finalModelMode = modelMode;
-        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
-            @Override
-            public void afterCommit() {
-                log.info("事务已提交，开始异步处理任务: {}, modelMode={}", taskIds, finalModelMode);
-                processTasksBatchAsync(taskIds, extractFieldsJson, finalModelMode);
-            }
-        });
+        // 任务已持久化为 PENDING，由任意节点从任务队列领取；事务提交后通知本节点立即领取
+        log.info("任务已入队: {}, modelMode={}, priority={}", taskIds, modelMode, priority);
+        eventPublisher.publishEvent(new DurableTaskQueue.TasksQueuedEvent(taskIds));
 
         return createdTasks.stream()
                 .map(this::convertToDTO)
@@ -141,69 +170,126 @@ public class TaskService {
     }
 
     /**
-     * 异步批量处理任务
+     * 处理单个任务（由任务队列领取后调用）
+     * 不开启事务：处理期间可能长达数分钟，只在读取任务和每次状态转换时短暂占用数据库连接（见 TaskStateMachine），
+     * 也不阻塞租约心跳对该行的更新
      */
-    @Async("taskExecutor")
-    public void processTasksBatchAsync(List<Long> taskIds, String extractFieldsJson, String modelMode) {
-        log.info("开始批量处理任务: {} 个, modelMode={}", taskIds.size(), modelMode);
-
-        // 使用CompletableFuture进行并行处理
-        List<CompletableFuture<Void>> futures = taskIds.stream()
-                .map(taskId -> CompletableFuture.runAsync(() -> processSingleTask(taskId, extractFieldsJson, modelMode)))
-                .toList();
-
-        // 等待所有任务完成
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    public void processSingleTask(Long taskId, String extractFieldsJson, String modelMode) {
+        Task task = taskRepository.findById(taskId)
+                .orElseThrow(() -> new RuntimeException("任务不存在: " + taskId));
+        if (task.getStatus() != Task.TaskStatus.PROCESSING) {
+            // 在本地调度队列中等待期间已被取消或接管
+            log.info("任务状态已变为 {}，跳过处理: taskId={}", task.getStatus(), taskId);
+            return;
+        }
+        if (isOverdue(task)) {
+            // 在本地调度队列中等待期间已超过截止时间，不再占用处理槽位
+            saveOutcome(task, modelMode,
+                    CompletableFuture.failedFuture(new ExtractException.DeadlineExceeded(taskId)), null);
+            return;
+        }
 
-        log.info("批量处理完成");
+        LocalDateTime startedAt = LocalDateTime.now();
+        if (!stateMachine.start(task)) {
+            // 读取之后被取消或接管
+            return;
+        }
+        CompletableFuture<ExtractResult> result;
+        try {
+            // 调用Qwen提取服务，传递 modelMode
+            result = qwenExtractService.processTaskAsync(task, extractFieldsJson, modelMode);
+        } catch (Exception e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        saveOutcome(task, modelMode, result, startedAt);
     }
 
     /**
-     * 处理单个任务
+     * 合并处理同一批次的多个小文档（由任务队列领取后调用），各任务的结果分别保存
      */
-    @Transactional
-    public void processSingleTask(Long taskId, String extractFieldsJson, String modelMode) {
-        Task task = taskRepository.findById(taskId)
-                .orElseThrow(() -> new RuntimeException("任务不存在: " + taskId));
+    public void processTaskGroup(List<Long> taskIds, String extractFieldsJson, String modelMode) {
+        List<Task> tasks = new ArrayList<>();
+        Map<Long, LocalDateTime> startedAt = new HashMap<>();
+        for (Task task : taskRepository.findAllById(taskIds)) {
+            if (task.getStatus() != Task.TaskStatus.PROCESSING) {
+                log.info("任务状态已变为 {}，跳过处理: taskId={}", task.getStatus(), task.getTaskId());
+                continue;
+            }
+            if (isOverdue(task)) {
+                saveOutcome(task, modelMode,
+                        CompletableFuture.failedFuture(new ExtractException.DeadlineExceeded(task.getTaskId())), null);
+                continue;
+            }
+            LocalDateTime now = LocalDateTime.now();
+            if (stateMachine.start(task)) {
+                startedAt.put(task.getTaskId(), now);
+                tasks.add(task);
+            }
+        }
+        if (tasks.isEmpty()) {
+            return;
+        }
 
-        try {
-            task.setStatus(Task.TaskStatus.PROCESSING);
-            task.setStage("UPLOADING");
-            task.setProgress(5);
-            taskRepository.save(task);
+        log.info("合并处理小文档: {}", tasks.stream().map(Task::getTaskId).toList());
+        Map<Long, CompletableFuture<ExtractResult>> results =
+                qwenExtractService.processGroupAsync(tasks, extractFieldsJson, modelMode);
+        for (Task task : tasks) {
+            saveOutcome(task, modelMode, results.get(task.getTaskId()), startedAt.get(task.getTaskId()));
+        }
+    }
 
-            // 调用Qwen提取服务，传递 modelMode
-            Map<String, Object> result = qwenExtractService.processTask(task, extractFieldsJson, modelMode);
+    private boolean isOverdue(Task task) {
+        return task.getDeadline() != null && !LocalDateTime.now().isBefore(task.getDeadline());
+    }
 
-            // 保存结果
-            task.setResult(result);
-            task.setStatus(Task.TaskStatus.COMPLETED);
-            task.setStage("COMPLETED");
-            task.setProgress(100);
-            task.setEndTime(LocalDateTime.now());
+    /**
+     * 等待提取完成（不占用数据库连接），再用一次条件更新保存结果、取消或失败状态
+     * 等待期间任务已被取消、接管或重新领取时，状态转换不生效，结果不覆盖当前状态
+     *
+     * @param startedAt 开始处理的时间，未开始处理时为空
+     */
+    private void saveOutcome(Task task, String modelMode, CompletableFuture<ExtractResult> future,
+                             LocalDateTime startedAt) {
+        try {
+            ExtractResult result = qwenExtractService.await(future);
+            LocalDateTime endTime = LocalDateTime.now();
 
             // 添加处理详情
             Map<String, Object> details = new HashMap<>();
-            details.put("model", result.getOrDefault("model", "unknown"));
+            details.put("model", result.getModel() != null ? result.getModel() : "unknown");
             details.put("modelMode", modelMode);
-            details.put("confidence", result.getOrDefault("confidence", 0.0));
+            details.put("confidence", result.getConfidence() != null ? result.getConfidence() : 0.0);
             details.put("processedAt", LocalDateTime.now().toString());
-            task.setProcessingDetails(details);
+            details.put("cacheHit", Boolean.TRUE.equals(result.getExtra().get("cache_hit")));
+            details.put("batched", Boolean.TRUE.equals(result.getExtra().get("batched")));
+            if (result.getExtra().get("shard_count") != null) {
+                details.put("shardCount", result.getExtra().get("shard_count"));
+            }
+            if (startedAt != null && task.getStartTime() != null) {
+                // 排队等待和处理耗时，用于估算之后任务的剩余时间（启动时从这里加载历史耗时）
+                long queueWaitMs = Math.max(0, Duration.between(task.getStartTime(), startedAt).toMillis());
+                long processingMs = Math.max(0, Duration.between(startedAt, endTime).toMillis());
+                details.put("queueWaitMs", queueWaitMs);
+                details.put("processingMs", processingMs);
+                if (!Boolean.TRUE.equals(details.get("cacheHit"))) {
+                    StageDurationModel.Profile profile = StageDurationModel.Profile.of(task, modelMode);
+                    durationModel.record(StageDurationModel.Stage.QUEUE, profile, queueWaitMs);
+                    durationModel.record(StageDurationModel.Stage.PROCESS, profile, processingMs);
+                }
+            }
 
-            taskRepository.save(task);
+            // 保存结果
+            if (stateMachine.complete(task, qwenExtractService.toResultMap(result), details, endTime)) {
+                log.info("任务处理完成: taskId={}, model={}", task.getTaskId(), details.get("model"));
+            }
 
-            log.info("任务处理完成: taskId={}, model={}", task.getTaskId(), details.get("model"));
+        } catch (ExtractException.Cancelled e) {
+            log.info("任务已取消: taskId={}", task.getTaskId());
+            stateMachine.cancel(task);
 
         } catch (Exception e) {
             log.error("任务处理失败: taskId={}", task.getTaskId(), e);
-
-            task.setStatus(Task.TaskStatus.FAILED);
-            task.setStage("FAILED");
-            task.setEndTime(LocalDateTime.now());
-            task.setErrorMessage(e.getMessage());
-            task.setRetryCount(task.getRetryCount() + 1);
-
-            taskRepository.save(task);
+            stateMachine.fail(task, e.getMessage());
         }
     }
 
@@ -215,46 +301,171 @@ public class TaskService {
         Task task = taskRepository.findById(taskId)
                 .orElseThrow(() -> new RuntimeException("任务不存在"));
 
-        if (task.getStatus() != Task.TaskStatus.FAILED) {
-            throw new RuntimeException("只能重试失败的任务");
+        if (task.getStatus() != Task.TaskStatus.FAILED && task.getStatus() != Task.TaskStatus.CANCELLED) {
+            throw new RuntimeException("只能重试失败或已取消的任务");
         }
 
         if (task.getRetryCount() >= qwenConfig.getMaxRetries()) {
             throw new RuntimeException("已达到最大重试次数");
         }
 
-        task.setStatus(Task.TaskStatus.PENDING);
-        task.setStage("PENDING");
-        task.setProgress(0);
-        task.setErrorMessage(null);
-        task.setStartTime(LocalDateTime.now());
-        taskRepository.save(task);
+        // 重试重新计算截止时间，使用普通版模式，按交互任务优先调度
+        LocalDateTime deadline = LocalDateTime.now().plusSeconds(deadlineConfig.getDefaultSeconds());
+        if (!stateMachine.retry(task, extractFieldsJson, deadline)) {
+            throw new RuntimeException("任务状态已变化，请刷新后重试");
+        }
 
-        // 异步处理 - 重试时使用普通版模式
-        processSingleTask(taskId, extractFieldsJson, "normal");
+        eventPublisher.publishEvent(new DurableTaskQueue.TasksQueuedEvent(List.of(taskId)));
 
         return convertToDTO(task);
     }
 
+    /**
+     * 批量任务下所有任务的ID
+     */
+    public List<Long> getBatchTaskIds(Long userId, String taskName) {
+        return taskRepository.findTaskIdsByUserIdAndTaskName(userId, taskName);
+    }
+
+    /**
+     * 批量任务下所有任务的当前进度：优先使用Redis中的实时进度（一次批量读取），没有时按数据库状态生成
+     */
+    public List<TaskProgressDTO> getBatchProgress(Long userId, String taskName) {
+        return progressOf(taskRepository.findByUserIdAndTaskName(userId, taskName));
+    }
+
+    /**
+     * 批量任务的整体进度和预计剩余时间
+     * 剩余时间取最慢任务的剩余时间与剩余工作量按在途上限并行处理所需时间中的较大者，
+     * 排队中的任务按历史排队等待和处理耗时估算
+     */
+    public BatchProgressDTO getBatchProgressSummary(Long userId, String taskName) {
+        List<Task> tasks = taskRepository.findByUserIdAndTaskName(userId, taskName);
+        if (tasks.isEmpty()) {
+            throw new RuntimeException("批量任务不存在: " + taskName);
+        }
+        List<TaskProgressDTO> progress = progressOf(tasks);
+        int processed = 0;
+        int completed = 0;
+        int failed = 0;
+        long progressSum = 0;
+        Long slowestSeconds = null;
+        long remainingWorkMs = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            Task task = tasks.get(i);
+            TaskProgressDTO dto = progress.get(i);
+            progressSum += dto.getProgress();
+            if (ProgressBroadcaster.isFinal(dto)) {
+                processed++;
+                completed += "COMPLETED".equals(dto.getStage()) ? 1 : 0;
+                failed += "FAILED".equals(dto.getStage()) ? 1 : 0;
+                continue;
+            }
+            Long eta = dto.getEstimatedTimeRemaining();
+            if (eta != null) {
+                slowestSeconds = slowestSeconds == null ? eta : Math.max(slowestSeconds, eta);
+            }
+            // 排队中的任务还需占用一个在途名额完整处理一次，处理中的任务按剩余时间计
+            Long workMs = task.getStatus() == Task.TaskStatus.PENDING
+                    ? durationModel.expectedMillis(StageDurationModel.Stage.PROCESS,
+                            StageDurationModel.Profile.of(task, task.getModelMode()))
+                    : (eta != null ? eta * 1000 : null);
+            remainingWorkMs += workMs != null ? workMs : 0;
+        }
+
+        Long estimate = null;
+        if (processed == tasks.size()) {
+            estimate = 0L;
+        } else if (slowestSeconds != null) {
+            long throughputSeconds = (remainingWorkMs / Math.max(1, schedulerConfig.getMaxInFlight()) + 999) / 1000;
+            estimate = Math.max(slowestSeconds, throughputSeconds);
+        }
+        return BatchProgressDTO.builder()
+                .taskName(taskName)
+                .totalCount(tasks.size())
+                .processedCount(processed)
+                .completedCount(completed)
+                .failedCount(failed)
+                .progress((int) (progressSum / tasks.size()))
+                .estimatedTimeRemaining(estimate)
+                .tasks(progress)
+                .build();
+    }
+
+    private List<TaskProgressDTO> progressOf(List<Task> tasks) {
+        Map<Long, TaskProgressDTO> cached = qwenExtractService.getProgress(tasks.stream().map(Task::getTaskId).toList());
+        List<TaskProgressDTO> progress = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            TaskProgressDTO dto = cached.get(task.getTaskId());
+            progress.add(dto != null ? withCurrentEstimate(dto) : progressFromTask(task));
+        }
+        return progress;
+    }
+
     /**
      * 获取任务进度
      */
     public TaskProgressDTO getTaskProgress(Long taskId) {
         TaskProgressDTO cachedProgress = qwenExtractService.getProgress(taskId);
         if (cachedProgress != null) {
-            return cachedProgress;
+            return withCurrentEstimate(cachedProgress);
         }
 
-        // 如果缓存中没有，从数据库获取
-        Task task = taskRepository.findById(taskId)
+        // 如果缓存中没有，从数据库获取（只读取进度相关的字段）
+        return progressFromTask(findProgressView(taskId));
+    }
+
+    private Task findProgressView(Long taskId) {
+        TaskRepository.ProgressView view = taskRepository.findProgressByTaskId(taskId)
                 .orElseThrow(() -> new RuntimeException("任务不存在"));
+        return Task.builder()
+                .taskId(view.getTaskId())
+                .status(view.getStatus())
+                .stage(view.getStage())
+                .progress(view.getProgress())
+                .errorMessage(view.getErrorMessage())
+                .pageCount(view.getPageCount())
+                .filePath(view.getFilePath())
+                .modelMode(view.getModelMode())
+                .startTime(view.getStartTime())
+                .updatedAt(view.getUpdatedAt())
+                .build();
+    }
+
+    /**
+     * 剩余时间在更新进度时估算，读取时扣除此后经过的时间
+     */
+    private TaskProgressDTO withCurrentEstimate(TaskProgressDTO progress) {
+        if (progress.getEstimatedTimeRemaining() == null || progress.getUpdatedAt() == null) {
+            return progress;
+        }
+        long elapsedSeconds = Math.max(0, System.currentTimeMillis() - progress.getUpdatedAt()) / 1000;
+        return progress.toBuilder()
+                .estimatedTimeRemaining(Math.max(0, progress.getEstimatedTimeRemaining() - elapsedSeconds))
+                .build();
+    }
 
+    private TaskProgressDTO progressFromTask(Task task) {
+        Long estimate = null;
+        if (task.getStatus() == Task.TaskStatus.PENDING && task.getStartTime() != null) {
+            // 排队中：按历史排队等待（已等待时间的条件分位数）加处理耗时估算
+            long waitedMs = Duration.between(task.getStartTime(), LocalDateTime.now()).toMillis();
+            Long millis = durationModel.pendingMillis(StageDurationModel.Profile.of(task, task.getModelMode()), waitedMs);
+            estimate = millis != null ? (millis + 999) / 1000 : null;
+        }
+        Long updatedAt = task.getUpdatedAt() != null
+                ? task.getUpdatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : null;
         return TaskProgressDTO.builder()
-                .taskId(taskId)
+                .taskId(task.getTaskId())
                 .stage(task.getStage())
                 .stageText(getStageText(task.getStage()))
                 .progress(task.getProgress() != null ? task.getProgress() : 0)
+                .estimatedTimeRemaining(estimate)
                 .errorMessage(task.getErrorMessage())
+                .updatedAt(updatedAt)
+                // 数据库中的进度每次保存都会更新 updated_at，以它作为版本号
+                .version(updatedAt)
                 .build();
     }
 
@@ -278,12 +489,39 @@ public class TaskService {
     }
 
     /**
-     * 获取任务状态
+     * 获取任务状态和进度（只读取状态和进度相关的字段，不生成完整的任务DTO）
+     * 已有处理中的进度时直接由进度得出状态，不读取数据库；没有进度或任务已结束时以数据库中的状态为准
      */
-    public String getTaskStatus(Long taskId) {
-        Task task = taskRepository.findById(taskId)
-                .orElseThrow(() -> new RuntimeException("任务不存在"));
-        return task.getStatus().name();
+    public Map<String, Object> getTaskStatus(Long taskId) {
+        TaskProgressDTO cachedProgress = qwenExtractService.getProgress(taskId);
+        if (cachedProgress != null && !ProgressBroadcaster.isFinal(cachedProgress)) {
+            return statusOf(Task.TaskStatus.PROCESSING, withCurrentEstimate(cachedProgress));
+        }
+        Task task = findProgressView(taskId);
+        return statusOf(task.getStatus(),
+                cachedProgress != null ? withCurrentEstimate(cachedProgress) : progressFromTask(task));
+    }
+
+    /**
+     * 由进度消息得出处理中任务的状态；任务已结束时返回 null，结束状态需读取数据库
+     */
+    public Map<String, Object> getProcessingStatus(TaskProgressDTO progress) {
+        return ProgressBroadcaster.isFinal(progress) ? null : statusOf(Task.TaskStatus.PROCESSING, progress);
+    }
+
+    private Map<String, Object> statusOf(Task.TaskStatus taskStatus, TaskProgressDTO progress) {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("status", taskStatus.name());
+        status.put("statusText", getStatusText(taskStatus));
+        status.put("progress", progress);
+        return status;
+    }
+
+    /**
+     * 用户等待或处理中的任务数加上本次上传后是否超出上限
+     */
+    public boolean exceedsPendingLimit(Long userId, int newTasks) {
+        return getActiveTaskCount(userId) + newTasks > schedulerConfig.getMaxPendingPerUser();
     }
 
     /**
@@ -295,12 +533,36 @@ public class TaskService {
     }
 
     /**
-     * 删除任务
+     * 取消任务
+     */
+    public TaskDTO cancelTask(Long taskId) {
+        Task task = taskRepository.findById(taskId)
+                .orElseThrow(() -> new RuntimeException("任务不存在"));
+        if (task.getStatus() != Task.TaskStatus.PENDING && task.getStatus() != Task.TaskStatus.PROCESSING) {
+            throw new RuntimeException("只能取消等待中或处理中的任务");
+        }
+        cancellationService.cancel(List.of(taskId));
+        return getTaskById(taskId);
+    }
+
+    /**
+     * 取消批量任务下所有未结束的任务
+     *
+     * @return 被取消的任务数
+     */
+    public int cancelBatchTask(Long userId, String taskName) {
+        return cancellationService.cancelBatch(userId, taskName).size();
+    }
+
+    /**
+     * 删除任务（未结束的任务先取消，结束其Python进程）
      */
     @Transactional
     public void deleteTask(Long taskId) {
-        Task task = taskRepository.findById(taskId)
+        TaskRepository.ProgressView task = taskRepository.findProgressByTaskId(taskId)
                 .orElseThrow(() -> new RuntimeException("任务不存在"));
+        // 取消在独立事务中提交（版本号随之变化），删除按ID进行，不比较版本号
+        cancellationService.cancel(List.of(taskId));
 
         // 删除关联文件
         try {
@@ -315,7 +577,7 @@ public class TaskService {
             log.error("删除文件失败: {}", e.getMessage());
         }
 
-        taskRepository.delete(task);
+        taskRepository.deleteByTaskIds(List.of(taskId));
     }
 
     /**
@@ -336,6 +598,7 @@ public class TaskService {
                 .retryCount(task.getRetryCount())
                 .startTime(task.getStartTime())
                 .endTime(task.getEndTime())
+                .deadline(task.getDeadline())
                 .result(task.getResult())
                 .extractFields(task.getExtractFields())
                 .processingDetails(task.getProcessingDetails())
@@ -351,18 +614,21 @@ public class TaskService {
             case PROCESSING -> "处理中";
             case COMPLETED -> "已完成";
             case FAILED -> "失败";
+            case CANCELLED -> "已取消";
         };
     }
 
     private String getStageText(String stage) {
         if (stage == null) return "未知";
         return switch (stage) {
-            case "PENDING" -> "等待处理";
+            case "PENDING" -> "排队中";
+            case "DISPATCHED" -> "已分配，等待处理";
             case "UPLOADING" -> "上传文件中";
             case "OCR_PROCESSING" -> "OCR识别中";
             case "QWEN_EXTRACTING" -> "AI提取中";
             case "COMPLETED" -> "处理完成";
             case "FAILED" -> "处理失败";
+            case "CANCELLED" -> "已取消";
             default -> "处理中";
         };
     }
@@ -467,23 +733,26 @@ public class TaskService {
             List<Task> tasks = entry.getValue();
 
             // 计算整体状态
-            int completed = 0, processing = 0, failed = 0, pending = 0;
+            int completed = 0, processing = 0, failed = 0, pending = 0, cancelled = 0;
             for (Task t : tasks) {
                 switch (t.getStatus()) {
                     case COMPLETED -> completed++;
                     case PROCESSING -> processing++;
                     case FAILED -> failed++;
                     case PENDING -> pending++;
+                    case CANCELLED -> cancelled++;
                 }
             }
 
             String overallStatus;
-            if (failed > 0 && completed + failed == tasks.size()) {
+            if (failed > 0 && completed + failed + cancelled == tasks.size()) {
                 overallStatus = "FAILED";
             } else if (processing > 0 || pending > 0) {
                 overallStatus = "PROCESSING";
             } else if (completed == tasks.size()) {
                 overallStatus = "COMPLETED";
+            } else if (cancelled > 0 && completed + cancelled == tasks.size()) {
+                overallStatus = "CANCELLED";
             } else {
                 overallStatus = "PENDING";
             }
@@ -502,6 +771,7 @@ public class TaskService {
             batchTask.put("processingCount", processing);
             batchTask.put("failedCount", failed);
             batchTask.put("pendingCount", pending);
+            batchTask.put("cancelledCount", cancelled);
             batchTask.put("status", overallStatus);
             batchTask.put("createdAt", createdAt);
             batchTask.put("taskIds", tasks.stream().map(Task::getTaskId).collect(Collectors.toList()));
@@ -538,6 +808,8 @@ public class TaskService {
      */
     @Transactional
     public void deleteBatchTask(Long userId, String taskName) {
+        // 取消在独立事务中提交，删除按ID进行，不比较版本号
+        cancellationService.cancelBatch(userId, taskName);
         List<Task> tasks = taskRepository.findByUserIdAndTaskName(userId, taskName);
         for (Task task : tasks) {
             // 删除关联文件
@@ -552,7 +824,9 @@ public class TaskService {
             } catch (IOException e) {
                 log.error("删除文件失败: {}", e.getMessage());
             }
-            taskRepository.delete(task);
+        }
+        if (!tasks.isEmpty()) {
+            taskRepository.deleteByTaskIds(tasks.stream().map(Task::getTaskId).toList());
         }
     }
 }
@@ -0,0 +1,156 @@
+package com.docextract.service;
+
+import com.docextract.entity.Task;
+import com.docextract.entity.Task.TaskStatus;
+import com.docextract.repository.TaskRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 任务状态机
+ * <pre>
+ * PENDING ──领取──> PROCESSING(DISPATCHED) ──开始──> PROCESSING ──> COMPLETED / FAILED / CANCELLED
+ * PENDING ──取消 / 超过截止时间──> CANCELLED / FAILED
+ * PROCESSING ──租约过期 / 卡住 / 节点退出──> PENDING
+ * FAILED / CANCELLED ──手动重试──> PENDING
+ * </pre>
+ * 每次转换是一条独立提交的条件更新（WHERE status = ? AND version = ?），只在数据库连接上停留这一条语句的时间，
+ * 调用OCR和大模型期间不持有数据库连接。任务在此期间被取消、因租约过期被放回队列或被重新领取时版本号已变化，
+ * 转换不生效，旧的处理结果不会覆盖新的状态。领取、租约回收、取消等批量转换见 TaskRepository 中的对应语句。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TaskStateMachine {
+
+    // 与 error_message 列的长度一致
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    private final TaskRepository taskRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 已领取的任务开始处理
+     *
+     * @return 是否生效（否则任务已被取消或接管，不应继续处理）
+     */
+    public boolean start(Task task) {
+        LocalDateTime now = LocalDateTime.now();
+        if (!apply(task, "start", () -> taskRepository.startTask(task.getTaskId(), task.getVersion(), now))) {
+            return false;
+        }
+        task.setStage("UPLOADING");
+        task.setProgress(5);
+        task.setUpdatedAt(now);
+        return true;
+    }
+
+    /**
+     * 处理完成，保存结果
+     */
+    public boolean complete(Task task, Map<String, Object> result, Map<String, Object> details, LocalDateTime endTime) {
+        if (!apply(task, "complete", () ->
+                taskRepository.completeTask(task.getTaskId(), task.getVersion(), TaskStatus.COMPLETED, result, details,
+                        endTime))) {
+            return false;
+        }
+        task.setStatus(TaskStatus.COMPLETED);
+        task.setStage("COMPLETED");
+        task.setProgress(100);
+        task.setResult(result);
+        task.setProcessingDetails(details);
+        finished(task, endTime);
+        return true;
+    }
+
+    /**
+     * 处理失败，计入重试次数
+     */
+    public boolean fail(Task task, String message) {
+        return finish(task, TaskStatus.FAILED, message, 1);
+    }
+
+    /**
+     * 处理中被取消（通过取消接口取消时数据库中已是 CANCELLED，这里不再生效）
+     */
+    public boolean cancel(Task task) {
+        return finish(task, TaskStatus.CANCELLED, "任务已取消", 0);
+    }
+
+    /**
+     * 失败或已取消的任务重新排队
+     */
+    public boolean retry(Task task, String extractFieldsJson, LocalDateTime deadline) {
+        LocalDateTime now = LocalDateTime.now();
+        if (!apply(task, "retry", () ->
+                taskRepository.requeueTask(task.getTaskId(), task.getVersion(), TaskStatus.PENDING,
+                        Task.Priority.INTERACTIVE, extractFieldsJson, deadline, now))) {
+            return false;
+        }
+        task.setStatus(TaskStatus.PENDING);
+        task.setStage("PENDING");
+        task.setProgress(0);
+        task.setErrorMessage(null);
+        task.setStartTime(now);
+        task.setDeadline(deadline);
+        task.setExtractFieldsJson(extractFieldsJson);
+        task.setModelMode("normal");
+        task.setPriority(Task.Priority.INTERACTIVE);
+        task.setLeaseOwner(null);
+        task.setLeaseExpiresAt(null);
+        task.setUpdatedAt(now);
+        return true;
+    }
+
+    private boolean finish(Task task, TaskStatus status, String errorMessage, int retryIncrement) {
+        LocalDateTime now = LocalDateTime.now();
+        String message = errorMessage != null && errorMessage.length() > MAX_ERROR_LENGTH
+                ? errorMessage.substring(0, MAX_ERROR_LENGTH)
+                : errorMessage;
+        if (!apply(task, status.name().toLowerCase(), () -> taskRepository.finishTask(task.getTaskId(),
+                task.getVersion(), status, status.name(), message, retryIncrement, now))) {
+            return false;
+        }
+        task.setStatus(status);
+        task.setStage(status.name());
+        task.setErrorMessage(message);
+        task.setRetryCount((task.getRetryCount() != null ? task.getRetryCount() : 0) + retryIncrement);
+        finished(task, now);
+        return true;
+    }
+
+    private void finished(Task task, LocalDateTime endTime) {
+        task.setEndTime(endTime);
+        task.setLeaseOwner(null);
+        task.setLeaseExpiresAt(null);
+        task.setUpdatedAt(endTime);
+    }
+
+    /**
+     * 在独立的短事务中执行一条条件更新，生效时本地的版本号随之加1
+     */
+    private boolean apply(Task task, String transition, Supplier<Integer> update) {
+        Integer updated = transactionTemplate.execute(status -> update.get());
+        if (updated == null || updated == 0) {
+            log.info("任务状态已变化，忽略状态转换: taskId={}, transition={}, version={}",
+                    task.getTaskId(), transition, task.getVersion());
+            Counter.builder("task.transition.rejected")
+                    .tag("transition", transition)
+                    .description("因任务状态或版本已变化而未生效的状态转换次数")
+                    .register(meterRegistry)
+                    .increment();
+            return false;
+        }
+        task.setVersion(task.getVersion() + 1);
+        return true;
+    }
+}
@@ -0,0 +1,201 @@
+package com.docextract.service;
+
+import com.docextract.config.QwenConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全局TPM令牌桶（基于Redis，所有节点、所有Python进程共享 qwen.max-tpm）
+ * <p>
+ * 派发任务前按预估token数扣减（页数 × 最近实际用量的每页平均值），额度不足时不扣减、由调用方延后派发，
+ * 避免触发API限流后再重试；任务完成后按结果中的实际用量校正（多退少补，不足部分记为欠额，后续派发自动等待），
+ * 失败或取消时退回预扣额度。Redis不可用时放行，由Python进程内的限流兜底。
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TpmRateLimiter {
+
+    private static final String BUCKET_KEY = "qwen:tpm:bucket";
+
+    // 额度不足时单次延后的最长时间，到期后重新检查桶（其他节点的校正可能已退回额度）
+    private static final long MAX_WAIT_MS = 5000;
+
+    // 每页用量滑动平均的平滑系数
+    private static final double USAGE_SMOOTHING = 0.1;
+
+    /**
+     * KEYS[1]=桶，ARGV[1]=容量(每分钟token数)，ARGV[2]=token数，ARGV[3]=acquire|adjust
+     * acquire: 额度足够时扣减并返回0，否则返回需要等待的毫秒数（不扣减）
+     * adjust: 直接扣减（负数为退回），允许透支
+     * 时间取Redis服务器时间，避免各节点时钟不一致
+     */
+    private static final DefaultRedisScript<Long> BUCKET_SCRIPT = new DefaultRedisScript<>("""
+            local capacity = tonumber(ARGV[1])
+            local cost = tonumber(ARGV[2])
+            local t = redis.call('TIME')
+            local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000)
+            local rate = capacity / 60000
+            local state = redis.call('HMGET', KEYS[1], 'tokens', 'ts')
+            local tokens = tonumber(state[1])
+            local ts = tonumber(state[2])
+            if tokens == nil or ts == nil then
+                tokens = capacity
+                ts = now
+            end
+            tokens = math.min(capacity, tokens + math.max(0, now - ts) * rate)
+            local wait = 0
+            if ARGV[3] == 'adjust' then
+                tokens = math.min(capacity, tokens - cost)
+            elseif tokens >= cost then
+                tokens = tokens - cost
+            else
+                wait = math.ceil((cost - tokens) / rate)
+            end
+            redis.call('HSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(now))
+            redis.call('PEXPIRE', KEYS[1], 120000)
+            return wait
+            """, Long.class);
+
+    private final QwenConfig qwenConfig;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private Timer waitTimer;
+    private Counter estimatedTokens;
+    private Counter actualTokens;
+
+    // 最近实际用量的每页平均token数，尚无样本时为0（按 qwen.page-token-estimate 估算）
+    private volatile double tokensPerPage = 0;
+
+    @PostConstruct
+    public void init() {
+        waitTimer = Timer.builder("extract.tpm.wait")
+                .description("派发前等待TPM额度的时间")
+                .register(meterRegistry);
+        estimatedTokens = Counter.builder("extract.tpm.tokens")
+                .tag("type", "estimated")
+                .description("派发前预扣的token数")
+                .register(meterRegistry);
+        actualTokens = Counter.builder("extract.tpm.tokens")
+                .tag("type", "actual")
+                .description("结果中上报的实际token数")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return qwenConfig.isTpmLimitEnabled() && qwenConfig.getMaxTpm() > 0;
+    }
+
+    /**
+     * 预估一次执行的token开销：页数 × 最近实际用量的每页平均值（尚无样本时按 qwen.page-token-estimate），
+     * 不超过上下文上限 + 图片上限 × 单图token数；页数未知时按1页估算，少估的部分完成后按实际用量补扣
+     *
+     * @param pageCount 文档页数（合并处理时为组内页数之和），未知时为 null
+     */
+    public long estimateCost(Integer pageCount) {
+        int pages = pageCount != null && pageCount > 0 ? pageCount : 1;
+        double perPage = tokensPerPage > 0 ? tokensPerPage : qwenConfig.getPageTokenEstimate();
+        long upperBound = (long) qwenConfig.getMaxContextLength()
+                + (long) qwenConfig.getMaxImages() * qwenConfig.getImageTokenEstimate();
+        return Math.max(1, Math.min(upperBound, Math.round(pages * perPage)));
+    }
+
+    /**
+     * 尝试预扣token，不等待（额度不足时由调用方按返回的时间延后派发，不占用执行线程）
+     */
+    public Reservation tryAcquire(long tokens) {
+        if (!isEnabled()) {
+            return Reservation.granted(0);
+        }
+        // 单个任务的预估不能超过桶容量，否则永远拿不到
+        long cost = Math.min(tokens, qwenConfig.getMaxTpm());
+        Long waitMs;
+        try {
+            waitMs = execute(cost, "acquire");
+        } catch (Exception e) {
+            log.warn("TPM令牌桶不可用，放行: {}", e.getMessage());
+            return Reservation.granted(0);
+        }
+        if (waitMs == null || waitMs <= 0) {
+            estimatedTokens.increment(cost);
+            return Reservation.granted(cost);
+        }
+        log.debug("TPM额度不足，延后派发 {}ms (需要 {} tokens)", waitMs, cost);
+        return new Reservation(false, 0, Math.min(waitMs, MAX_WAIT_MS));
+    }
+
+    /**
+     * 记录派发前等待TPM额度的时间
+     */
+    public void recordWait(long waitNanos) {
+        waitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 按实际用量校正预扣额度，并把实际用量计入每页平均值
+     *
+     * @param reserved   tryAcquire 预扣的token数
+     * @param actualUsed 实际消耗的token数
+     * @param pageCount  文档页数，未知时为 null
+     */
+    public void reconcile(long reserved, long actualUsed, Integer pageCount) {
+        if (isEnabled() && actualUsed > 0 && pageCount != null && pageCount > 0) {
+            double sample = (double) actualUsed / pageCount;
+            double current = tokensPerPage;
+            tokensPerPage = current > 0 ? current + (sample - current) * USAGE_SMOOTHING : sample;
+        }
+        reconcile(reserved, actualUsed);
+    }
+
+    /**
+     * 按实际用量校正预扣额度；执行失败或取消时 actualUsed 为0，退回全部预扣额度
+     *
+     * @param reserved   tryAcquire 预扣的token数
+     * @param actualUsed 实际消耗的token数
+     */
+    public void reconcile(long reserved, long actualUsed) {
+        if (!isEnabled()) {
+            return;
+        }
+        actualTokens.increment(actualUsed);
+        long delta = actualUsed - reserved;
+        if (delta == 0) {
+            return;
+        }
+        try {
+            execute(delta, "adjust");
+            log.debug("TPM校正: 预扣={}, 实际={}", reserved, actualUsed);
+        } catch (Exception e) {
+            log.warn("TPM校正失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 执行令牌桶脚本
+     */
+    Long execute(long tokens, String mode) {
+        return stringRedisTemplate.execute(BUCKET_SCRIPT, List.of(BUCKET_KEY),
+                String.valueOf(qwenConfig.getMaxTpm()), String.valueOf(tokens), mode);
+    }
+
+    /**
+     * 预扣结果：granted 时 tokens 为实际预扣数（未启用或Redis不可用时为0），否则 waitMs 为建议延后的时间
+     */
+    public record Reservation(boolean granted, long tokens, long waitMs) {
+
+        static Reservation granted(long tokens) {
+            return new Reservation(true, tokens, 0);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.docextract.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * 定长行环形缓冲区
+ * 只保留最近的N行（每行截断到固定长度），用于保存子进程stderr尾部，内存占用恒定
+ */
+public class BoundedLineBuffer {
+
+    private final int maxLines;
+    private final int maxLineLength;
+    private final Deque<String> lines;
+    private long droppedLines = 0;
+
+    public BoundedLineBuffer(int maxLines, int maxLineLength) {
+        this.maxLines = Math.max(1, maxLines);
+        this.maxLineLength = maxLineLength;
+        this.lines = new ArrayDeque<>(this.maxLines);
+    }
+
+    public synchronized void add(String line) {
+        if (line.length() > maxLineLength) {
+            line = line.substring(0, maxLineLength) + "...";
+        }
+        if (lines.size() >= maxLines) {
+            lines.pollFirst();
+            droppedLines++;
+        }
+        lines.addLast(line);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (droppedLines > 0) {
+            sb.append("...(省略前 ").append(droppedLines).append(" 行)\n");
+        }
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+}
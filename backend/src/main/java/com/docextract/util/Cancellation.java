@@ -0,0 +1,57 @@
+package com.docextract.util;
+
+/**
+ * 取消信号
+ * 执行方在进入可中止的阶段时登记中止动作（如结束进程），取消时立即执行；
+ * 已取消后再登记的动作会被立即执行，不会漏掉在取消之后才启动的进程
+ */
+public class Cancellation {
+
+    private boolean cancelled = false;
+    private Runnable abortAction;
+
+    /**
+     * 发出取消信号，执行当前登记的中止动作（只生效一次）
+     *
+     * @return 本次调用是否触发了取消
+     */
+    public boolean cancel() {
+        Runnable action;
+        synchronized (this) {
+            if (cancelled) {
+                return false;
+            }
+            cancelled = true;
+            action = abortAction;
+            abortAction = null;
+        }
+        if (action != null) {
+            action.run();
+        }
+        return true;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 登记中止动作，已取消时立即执行
+     */
+    public void onCancel(Runnable action) {
+        synchronized (this) {
+            if (!cancelled) {
+                abortAction = action;
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * 可中止的阶段结束，移除中止动作
+     */
+    public synchronized void clear() {
+        abortAction = null;
+    }
+}
@@ -0,0 +1,61 @@
+package com.docextract.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 内容哈希工具
+ */
+public final class ContentHash {
+
+    private ContentHash() {
+    }
+
+    /**
+     * 将输入流写入文件，写入过程中同时计算SHA-256（只读一遍数据）
+     *
+     * @return 十六进制哈希
+     */
+    public static String copyAndHash(InputStream in, Path target) throws IOException {
+        MessageDigest digest = newDigest();
+        try (DigestInputStream digestIn = new DigestInputStream(in, digest);
+             OutputStream out = Files.newOutputStream(target)) {
+            digestIn.transferTo(out);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * 计算文件内容的SHA-256
+     */
+    public static String sha256Hex(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (DigestInputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * 计算字符串（UTF-8）的SHA-256
+     */
+    public static String sha256Hex(String text) {
+        return HexFormat.of().formatHex(newDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+}
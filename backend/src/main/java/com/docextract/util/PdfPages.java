@@ -0,0 +1,73 @@
+package com.docextract.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.multipdf.Splitter;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 文档页数工具
+ */
+@Slf4j
+public final class PdfPages {
+
+    private static final Set<String> IMAGE_EXTENSIONS = Set.of(".jpg", ".jpeg", ".png");
+
+    private PdfPages() {
+    }
+
+    /**
+     * 读取文档页数：图片按1页计，PDF只解析页面树，不渲染内容
+     *
+     * @return 页数，不支持的类型或读取失败时返回 null
+     */
+    public static Integer count(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        int dot = name.lastIndexOf('.');
+        String extension = dot >= 0 ? name.substring(dot) : "";
+        if (IMAGE_EXTENSIONS.contains(extension)) {
+            return 1;
+        }
+        if (!".pdf".equals(extension)) {
+            return null;
+        }
+        try (PDDocument document = Loader.loadPDF(file.toFile())) {
+            return document.getNumberOfPages();
+        } catch (Exception e) {
+            log.warn("读取PDF页数失败: {}, {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 按页数拆分PDF，每个分片写入 targetDir 下的 {stem}_p{起始页}-{结束页}.pdf（页码从1开始）
+     *
+     * @return 分片文件，按页码顺序排列
+     */
+    public static List<Path> split(Path file, int pagesPerShard, Path targetDir, String stem) throws IOException {
+        Files.createDirectories(targetDir);
+        List<Path> shards = new ArrayList<>();
+        try (PDDocument source = Loader.loadPDF(file.toFile())) {
+            Splitter splitter = new Splitter();
+            splitter.setSplitAtPage(pagesPerShard);
+            int firstPage = 1;
+            for (PDDocument part : splitter.split(source)) {
+                try (part) {
+                    int lastPage = firstPage + part.getNumberOfPages() - 1;
+                    Path target = targetDir.resolve(String.format("%s_p%03d-%03d.pdf", stem, firstPage, lastPage));
+                    part.save(target.toFile());
+                    shards.add(target);
+                    firstPage = lastPage + 1;
+                }
+            }
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,87 @@
+package com.docextract.util;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 子进程输出流泵
+ * 每个流一个守护线程阻塞读取，读到一行立即回调，不再轮询 ready()/sleep
+ */
+@Slf4j
+public class ProcessStreamPump {
+
+    private final String name;
+    private final InputStream inputStream;
+    private final Consumer<String> lineHandler;
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+
+    private ProcessStreamPump(String name, InputStream inputStream, Consumer<String> lineHandler) {
+        this.name = name;
+        this.inputStream = inputStream;
+        this.lineHandler = lineHandler;
+    }
+
+    /**
+     * 启动一个流泵线程
+     *
+     * @param name        线程名
+     * @param inputStream 子进程的 stdout 或 stderr
+     * @param lineHandler 每读到一行的回调（在泵线程中执行）
+     */
+    public static ProcessStreamPump start(String name, InputStream inputStream, Consumer<String> lineHandler) {
+        ProcessStreamPump pump = new ProcessStreamPump(name, inputStream, lineHandler);
+        Thread thread = new Thread(pump::run, name);
+        thread.setDaemon(true);
+        thread.start();
+        return pump;
+    }
+
+    private void run() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    lineHandler.accept(line);
+                } catch (Exception e) {
+                    log.warn("[{}] 处理输出行失败: {}", name, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.debug("[{}] 输出流已关闭: {}", name, e.getMessage());
+        } finally {
+            finished.complete(null);
+        }
+    }
+
+    /**
+     * 流读取结束（EOF）时完成
+     */
+    public CompletableFuture<Void> finished() {
+        return finished;
+    }
+
+    /**
+     * 等待剩余输出读完，进程退出后调用
+     *
+     * @return 是否在超时前读完
+     */
+    public boolean awaitDrained(long timeout, TimeUnit unit) {
+        try {
+            finished.get(timeout, unit);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
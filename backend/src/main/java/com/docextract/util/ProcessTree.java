@@ -0,0 +1,19 @@
+package com.docextract.util;
+
+/**
+ * 进程树工具
+ * MinerU等依赖可能再启动子进程，只结束Python主进程时子进程会被过继后继续运行，需要连同子孙进程一起结束
+ */
+public final class ProcessTree {
+
+    private ProcessTree() {
+    }
+
+    /**
+     * 强制结束进程及其所有子孙进程（先取子孙进程快照，父进程退出后就无法再枚举）
+     */
+    public static void destroyForcibly(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+}
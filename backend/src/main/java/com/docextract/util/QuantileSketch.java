@@ -0,0 +1,85 @@
+package com.docextract.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 分位数草图
+ * 按对数分桶计数（相邻桶边界相差固定比例），任意分位数的相对误差不超过 relativeAccuracy，
+ * 内存只与取值范围的对数相关，与样本数无关，适合持续记录耗时
+ */
+public class QuantileSketch {
+
+    private final double logGamma;
+    private final double gamma;
+    // 桶序号 -> 样本数，桶 i 覆盖 (gamma^(i-1), gamma^i]
+    private final TreeMap<Integer, Long> buckets = new TreeMap<>();
+    private long zeroCount = 0;
+    private long count = 0;
+
+    public QuantileSketch(double relativeAccuracy) {
+        double accuracy = Math.min(0.5, Math.max(0.001, relativeAccuracy));
+        this.gamma = (1 + accuracy) / (1 - accuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    public synchronized void add(long value) {
+        if (value <= 0) {
+            zeroCount++;
+        } else {
+            buckets.merge(index(value), 1L, Long::sum);
+        }
+        count++;
+    }
+
+    public synchronized long count() {
+        return count;
+    }
+
+    /**
+     * 第 q 分位数，没有样本时返回 -1
+     */
+    public long quantile(double q) {
+        return quantileAbove(q, -1);
+    }
+
+    /**
+     * 大于 floor 的样本中的第 q 分位数（条件分位数），没有这样的样本时返回 -1
+     * 例如已耗时 floor 毫秒，总耗时的条件中位数为 quantileAbove(0.5, floor)
+     */
+    public synchronized long quantileAbove(double q, long floor) {
+        long below = floor < 0 ? 0 : zeroCount;
+        if (floor > 0) {
+            for (long bucketCount : buckets.headMap(index(floor), true).values()) {
+                below += bucketCount;
+            }
+        }
+        long above = count - below;
+        if (above <= 0) {
+            return -1;
+        }
+        long rank = below + Math.max(1, (long) Math.ceil(Math.min(1, Math.max(0, q)) * above));
+        long cumulative = zeroCount;
+        if (rank <= cumulative) {
+            return 0;
+        }
+        for (Map.Entry<Integer, Long> bucket : buckets.entrySet()) {
+            cumulative += bucket.getValue();
+            if (cumulative >= rank) {
+                return Math.round(valueOf(bucket.getKey()));
+            }
+        }
+        return Math.round(valueOf(buckets.lastKey()));
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    /**
+     * 桶内的代表值，与桶内任意值的相对误差不超过 relativeAccuracy
+     */
+    private double valueOf(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+}
@@ -0,0 +1,168 @@
+package com.docextract.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Python工作进程stdout帧读取器
+ * <p>
+ * 每帧由一行JSON帧头组成，帧头带 length 字段时其后紧跟 length 字节的JSON载荷。
+ * 载荷直接用Jackson流式解析器从管道中解析为目标类型，不在内存中拼接完整输出；
+ * 超过上限的载荷会被丢弃，读取器仍保持帧同步。
+ */
+@Slf4j
+public class WorkerFrameReader {
+
+    // 帧头最大长度，超出部分丢弃
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+
+    private final InputStream in;
+    private final ObjectMapper objectMapper;
+    private final long maxPayloadBytes;
+
+    // 当前帧尚未读取的载荷字节数
+    private long pendingPayload = 0;
+
+    public WorkerFrameReader(InputStream in, ObjectMapper objectMapper, long maxPayloadBytes) {
+        this.in = new BufferedInputStream(in);
+        this.objectMapper = objectMapper;
+        this.maxPayloadBytes = maxPayloadBytes;
+    }
+
+    /**
+     * 读取下一帧的帧头，非协议输出行会被跳过
+     *
+     * @return 帧头，流结束时返回 null
+     */
+    public Map<String, Object> nextHeader() throws IOException {
+        skipPendingPayload();
+        while (true) {
+            String line = readLine();
+            if (line == null) {
+                return null;
+            }
+            line = line.trim();
+            if (!line.startsWith("{")) {
+                if (!line.isEmpty()) {
+                    log.debug("非协议输出: {}", line);
+                }
+                continue;
+            }
+            try {
+                Map<String, Object> header = objectMapper.readValue(line, Map.class);
+                Object length = header.get("length");
+                pendingPayload = length instanceof Number ? ((Number) length).longValue() : 0;
+                return header;
+            } catch (Exception e) {
+                log.warn("帧头解析失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 流式解析当前帧的载荷
+     *
+     * @throws IOException 载荷超过上限或格式错误
+     */
+    public <T> T readPayload(Class<T> type) throws IOException {
+        if (pendingPayload <= 0) {
+            throw new IOException("帧不包含载荷");
+        }
+        if (pendingPayload > maxPayloadBytes) {
+            long size = pendingPayload;
+            skipPendingPayload();
+            throw new IOException("结果过大: " + size + " 字节，上限 " + maxPayloadBytes + " 字节");
+        }
+
+        BoundedInputStream payload = new BoundedInputStream(in, pendingPayload);
+        try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+            return objectMapper.readValue(parser, type);
+        } finally {
+            pendingPayload = payload.remaining;
+            skipPendingPayload();
+        }
+    }
+
+    private void skipPendingPayload() throws IOException {
+        while (pendingPayload > 0) {
+            long skipped = in.skip(pendingPayload);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    pendingPayload = 0;
+                    return;
+                }
+                skipped = 1;
+            }
+            pendingPayload -= skipped;
+        }
+    }
+
+    private String readLine() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                return buffer.toString(StandardCharsets.UTF_8);
+            }
+            if (buffer.size() < MAX_HEADER_BYTES) {
+                buffer.write(b);
+            }
+        }
+        return buffer.size() > 0 ? buffer.toString(StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * 限制读取字节数的输入流，关闭时不关闭底层流
+     */
+    private static class BoundedInputStream extends InputStream {
+
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            } else {
+                remaining = 0;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            } else if (n < 0) {
+                remaining = 0;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            // 不关闭底层流
+        }
+    }
+}
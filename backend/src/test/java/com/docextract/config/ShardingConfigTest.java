@@ -0,0 +1,55 @@
+package com.docextract.config;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardingConfigTest {
+
+    @Test
+    void smallOrUnknownDocumentsAreNotSplit() {
+        ShardingConfig config = new ShardingConfig();
+
+        assertThat(config.pagesPerShardFor(null)).isZero();
+        assertThat(config.pagesPerShardFor(1)).isZero();
+        assertThat(config.pagesPerShardFor(60)).isZero();
+    }
+
+    @Test
+    void largeDocumentsUseConfiguredShardSize() {
+        ShardingConfig config = new ShardingConfig();
+
+        assertThat(config.pagesPerShardFor(61)).isEqualTo(30);
+        assertThat(config.pagesPerShardFor(300)).isEqualTo(30);
+    }
+
+    @Test
+    void shardSizeGrowsToRespectMaxShards() {
+        ShardingConfig config = new ShardingConfig();
+
+        // 301页按30页一片需要11片，超出上限10片，改为每片31页
+        assertThat(config.pagesPerShardFor(301)).isEqualTo(31);
+        assertThat(config.pagesPerShardFor(1000)).isEqualTo(100);
+    }
+
+    @Test
+    void singleShardMeansNoSplit() {
+        ShardingConfig config = new ShardingConfig();
+        config.setMinPages(0);
+        config.setPagesPerShard(50);
+
+        assertThat(config.pagesPerShardFor(50)).isZero();
+        assertThat(config.pagesPerShardFor(51)).isEqualTo(50);
+
+        config.setMaxShards(1);
+        assertThat(config.pagesPerShardFor(120)).isZero();
+    }
+
+    @Test
+    void disabledNeverSplits() {
+        ShardingConfig config = new ShardingConfig();
+        config.setEnabled(false);
+
+        assertThat(config.pagesPerShardFor(500)).isZero();
+    }
+}
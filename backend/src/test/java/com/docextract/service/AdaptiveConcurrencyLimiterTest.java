@@ -0,0 +1,117 @@
+package com.docextract.service;
+
+import com.docextract.config.QwenConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    void startsAtClampedInitialLimit() {
+        QwenConfig config = config(1, 4, 10);
+        assertThat(limiter(config).getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void acquireTimesOutWhenAllSlotsAreTaken() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = limiter(config(1, 5, 1));
+
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.acquire(0, TimeUnit.MILLISECONDS);
+        assertThat(permit).isNotNull();
+        assertThat(limiter.acquire(10, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(limiter.tryAcquire()).isNull();
+
+        permit.onIgnore();
+        assertThat(limiter.tryAcquire()).isNotNull();
+    }
+
+    @Test
+    void successAtFullUtilisationRaisesLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = limiter(config(1, 5, 1));
+
+        limiter.acquire(0, TimeUnit.MILLISECONDS).onSuccess();
+
+        assertThat(limiter.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void successWhileSlotsAreIdleKeepsLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = limiter(config(1, 5, 3));
+
+        limiter.acquire(0, TimeUnit.MILLISECONDS).onSuccess();
+
+        assertThat(limiter.getLimit()).isEqualTo(3);
+    }
+
+    @Test
+    void droppedShrinksLimitByBackoffRatioDownToMinimum() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = limiter(config(2, 8, 8));
+
+        limiter.acquire(0, TimeUnit.MILLISECONDS).onDropped();
+        assertThat(limiter.getLimit()).isEqualTo(6);
+
+        for (int i = 0; i < 10; i++) {
+            limiter.acquire(0, TimeUnit.MILLISECONDS).onDropped();
+        }
+        assertThat(limiter.getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void slowSuccessShrinksLimit() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = limiter(config(1, 8, 4));
+
+        AdaptiveConcurrencyLimiter.Permit baseline = limiter.acquire(0, TimeUnit.MILLISECONDS);
+        Thread.sleep(20);
+        baseline.onSuccess();
+
+        AdaptiveConcurrencyLimiter.Permit slow = limiter.acquire(0, TimeUnit.MILLISECONDS);
+        Thread.sleep(200);
+        slow.onSuccess();
+
+        assertThat(limiter.getLimit()).isEqualTo(3);
+    }
+
+    @Test
+    void permitIsReleasedOnlyOnce() throws InterruptedException {
+        AdaptiveConcurrencyLimiter limiter = limiter(config(1, 4, 4));
+        AdaptiveConcurrencyLimiter.Permit first = limiter.acquire(0, TimeUnit.MILLISECONDS);
+        limiter.acquire(0, TimeUnit.MILLISECONDS);
+
+        first.onIgnore();
+        first.onDropped();
+
+        assertThat(limiter.getInFlight()).isEqualTo(1);
+        assertThat(limiter.getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    void fixedLimitWhenAdaptiveConcurrencyIsDisabled() throws InterruptedException {
+        QwenConfig config = config(1, 5, 2);
+        config.setAdaptiveConcurrency(false);
+        AdaptiveConcurrencyLimiter limiter = limiter(config);
+
+        limiter.acquire(0, TimeUnit.MILLISECONDS).onDropped();
+
+        assertThat(limiter.getLimit()).isEqualTo(5);
+    }
+
+    private static QwenConfig config(int min, int max, int initial) {
+        QwenConfig config = new QwenConfig();
+        config.setMinConcurrent(min);
+        config.setMaxConcurrent(max);
+        config.setInitialConcurrent(initial);
+        config.setBackoffRatio(0.75);
+        config.setLatencyTolerance(2.0);
+        return config;
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(QwenConfig config) {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(config, new SimpleMeterRegistry());
+        limiter.init();
+        return limiter;
+    }
+}
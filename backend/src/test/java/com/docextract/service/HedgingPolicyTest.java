@@ -0,0 +1,44 @@
+package com.docextract.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HedgingPolicyTest {
+
+    @Test
+    void percentileNeedsMinimumSamples() {
+        HedgingPolicy.LatencyWindow window = new HedgingPolicy.LatencyWindow(10);
+        assertThat(window.percentile(0.95, 1)).isEqualTo(-1);
+
+        window.add(100);
+        window.add(200);
+        assertThat(window.percentile(0.95, 3)).isEqualTo(-1);
+        assertThat(window.percentile(0.95, 2)).isEqualTo(200);
+    }
+
+    @Test
+    void percentileUsesNearestRank() {
+        HedgingPolicy.LatencyWindow window = new HedgingPolicy.LatencyWindow(100);
+        for (long latency = 100; latency >= 1; latency--) {
+            window.add(latency * 10);
+        }
+
+        assertThat(window.percentile(0.5, 1)).isEqualTo(500);
+        assertThat(window.percentile(0.95, 1)).isEqualTo(950);
+        assertThat(window.percentile(1.0, 1)).isEqualTo(1000);
+        assertThat(window.percentile(0.0, 1)).isEqualTo(10);
+    }
+
+    @Test
+    void oldestSamplesAreOverwrittenWhenFull() {
+        HedgingPolicy.LatencyWindow window = new HedgingPolicy.LatencyWindow(3);
+        window.add(5000);
+        window.add(10);
+        window.add(20);
+        window.add(30);
+
+        assertThat(window.percentile(1.0, 1)).isEqualTo(30);
+        assertThat(window.percentile(0.5, 1)).isEqualTo(20);
+    }
+}
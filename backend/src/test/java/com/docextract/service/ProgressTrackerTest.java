@@ -0,0 +1,55 @@
+package com.docextract.service;
+
+import com.docextract.dto.TaskProgressDTO;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProgressTrackerTest {
+
+    @Test
+    void firstVersionIsCurrentTime() {
+        assertThat(ProgressTracker.versionFor(null, progress("QWEN_EXTRACTING", 40), 1000)).isEqualTo(1000);
+        assertThat(ProgressTracker.versionFor(progress("QWEN_EXTRACTING", 30), progress("QWEN_EXTRACTING", 40), 1000))
+                .isEqualTo(1000);
+    }
+
+    @Test
+    void unchangedContentKeepsVersion() {
+        TaskProgressDTO previous = versioned(progress("QWEN_EXTRACTING", 40), 1000, 1000);
+
+        assertThat(ProgressTracker.versionFor(previous, progress("QWEN_EXTRACTING", 40), 5000)).isEqualTo(1000);
+    }
+
+    @Test
+    void changedContentTakesCurrentTime() {
+        TaskProgressDTO previous = versioned(progress("QWEN_EXTRACTING", 40), 1000, 1000);
+
+        assertThat(ProgressTracker.versionFor(previous, progress("QWEN_EXTRACTING", 50), 5000)).isEqualTo(5000);
+    }
+
+    @Test
+    void versionStaysMonotonicWithinSameMillisecondOrClockRollback() {
+        TaskProgressDTO previous = versioned(progress("QWEN_EXTRACTING", 40), 1000, 1000);
+
+        assertThat(ProgressTracker.versionFor(previous, progress("QWEN_EXTRACTING", 50), 1000)).isEqualTo(1001);
+        assertThat(ProgressTracker.versionFor(previous, progress("QWEN_EXTRACTING", 50), 900)).isEqualTo(1001);
+    }
+
+    @Test
+    void versionAfterFinalContinuesFromFinalVersion() {
+        TaskProgressDTO finalProgress = versioned(progress("CANCELLED", 0), 900, 2000);
+
+        assertThat(ProgressTracker.versionFor(finalProgress, progress("COMPLETED", 100), 1500)).isEqualTo(2001);
+    }
+
+    private static TaskProgressDTO progress(String stage, int progress) {
+        return TaskProgressDTO.of(1L, stage, progress);
+    }
+
+    private static TaskProgressDTO versioned(TaskProgressDTO progress, long updatedAt, long version) {
+        progress.setUpdatedAt(updatedAt);
+        progress.setVersion(version);
+        return progress;
+    }
+}
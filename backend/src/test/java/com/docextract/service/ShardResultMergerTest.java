@@ -0,0 +1,87 @@
+package com.docextract.service;
+
+import com.docextract.dto.ExtractResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShardResultMergerTest {
+
+    @Test
+    void mergesObjectsFieldByFieldAndConcatenatesLists() {
+        ExtractResult merged = ShardResultMerger.merge(List.of(
+                shard("1-30", 0.9, Map.of(
+                        "合同", Map.of("甲方", "A公司"),
+                        "条款", List.of("付款", "交付"))),
+                shard("31-60", 0.8, Map.of(
+                        "合同", Map.of("乙方", "B公司"),
+                        "条款", List.of("交付", "违约")))));
+
+        assertThat(merged.getStatus()).isEqualTo("success");
+        assertThat(merged.getData().get("合同")).isEqualTo(Map.of("甲方", "A公司", "乙方", "B公司"));
+        assertThat(merged.getData().get("条款")).isEqualTo(List.of("付款", "交付", "违约"));
+        assertThat(merged.getConfidence()).isEqualTo(0.8);
+        assertThat(merged.getExtra()).containsEntry("shard_count", 2);
+    }
+
+    @Test
+    void conflictingScalarTakesHighestConfidenceThenEarliestShard() {
+        ExtractResult higher = ShardResultMerger.merge(List.of(
+                shard("1-30", 0.7, Map.of("金额", "100")),
+                shard("31-60", 0.9, Map.of("金额", "200"))));
+        ExtractResult tie = ShardResultMerger.merge(List.of(
+                shard("1-30", 0.9, Map.of("金额", "100")),
+                shard("31-60", 0.9, Map.of("金额", "200"))));
+
+        assertThat(higher.getData()).containsEntry("金额", "200");
+        assertThat(tie.getData()).containsEntry("金额", "100");
+    }
+
+    @Test
+    void emptyValuesDoNotOverrideExtractedOnes() {
+        Map<String, Object> blank = new LinkedHashMap<>();
+        blank.put("金额", "");
+        blank.put("日期", null);
+
+        ExtractResult merged = ShardResultMerger.merge(List.of(
+                shard("1-30", 0.95, blank),
+                shard("31-60", 0.5, Map.of("金额", "300", "日期", "2024-01-01"))));
+
+        assertThat(merged.getData()).containsEntry("金额", "300").containsEntry("日期", "2024-01-01");
+    }
+
+    @Test
+    void failedShardMarksResultPartial() {
+        ExtractResult merged = ShardResultMerger.merge(List.of(
+                shard("1-30", 0.9, Map.of("金额", "100")),
+                new ShardResultMerger.Shard("31-60", null)));
+
+        assertThat(merged.getStatus()).isEqualTo("partial_success");
+        assertThat(merged.getPartial()).isTrue();
+        assertThat(merged.getMessage()).contains("31-60");
+        assertThat(merged.getData()).containsEntry("金额", "100");
+    }
+
+    @Test
+    void metadataFieldsAreNotMergedAndUsageIsSummed() {
+        ExtractResult merged = ShardResultMerger.merge(List.of(
+                shard("1-30", 0.9, Map.of("_debug", "x", "金额", "100")),
+                shard("31-60", 0.9, Map.of("_debug", "y"))));
+
+        assertThat(merged.getData()).containsOnlyKeys("金额", "_shards");
+        assertThat(merged.getUsage().getTotalTokens()).isEqualTo(300);
+    }
+
+    private static ShardResultMerger.Shard shard(String pages, double confidence, Map<String, Object> data) {
+        return new ShardResultMerger.Shard(pages, ExtractResult.builder()
+                .status("success")
+                .data(data)
+                .confidence(confidence)
+                .usage(new ExtractResult.TokenUsage(100, 50, 150))
+                .build());
+    }
+}
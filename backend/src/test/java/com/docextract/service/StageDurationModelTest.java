@@ -0,0 +1,79 @@
+package com.docextract.service;
+
+import com.docextract.config.EstimateConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.withinPercentage;
+
+class StageDurationModelTest {
+
+    private static final StageDurationModel.Profile SMALL_PDF =
+            new StageDurationModel.Profile("small", "pdf", "normal");
+
+    private StageDurationModel model;
+
+    @BeforeEach
+    void setUp() {
+        EstimateConfig config = new EstimateConfig();
+        config.setMinSamples(5);
+        config.setQuantile(0.5);
+        config.setRelativeAccuracy(0.01);
+        model = new StageDurationModel(config, null);
+    }
+
+    @Test
+    void noEstimateUntilEnoughSamples() {
+        model.record(StageDurationModel.Stage.PROCESS, SMALL_PDF, 1000);
+
+        assertThat(model.expectedMillis(StageDurationModel.Stage.PROCESS, SMALL_PDF)).isNull();
+    }
+
+    @Test
+    void expectedDurationIsHistoricalMedian() {
+        recordProcess(SMALL_PDF, 1000, 2000, 3000, 4000, 5000, 6000, 7000, 8000, 9000, 10000);
+
+        assertThat(model.expectedMillis(StageDurationModel.Stage.PROCESS, SMALL_PDF))
+                .isCloseTo(5000L, withinPercentage(2));
+    }
+
+    @Test
+    void remainingUsesSamplesLongerThanElapsed() {
+        recordProcess(SMALL_PDF, 1000, 2000, 3000, 4000, 5000, 6000, 7000, 8000, 9000, 10000);
+
+        // 已耗时6秒：超过6秒的样本为7~10秒，中位数约8秒，剩余约2秒
+        assertThat(model.remainingMillis(StageDurationModel.Stage.PROCESS, SMALL_PDF, 6000))
+                .isBetween(1800L, 2200L);
+        // 已超过所有历史样本
+        assertThat(model.remainingMillis(StageDurationModel.Stage.PROCESS, SMALL_PDF, 20000)).isNull();
+    }
+
+    @Test
+    void sparseProfileFallsBackToCoarserClass() {
+        recordProcess(SMALL_PDF, 1000, 2000, 3000, 4000, 5000);
+        StageDurationModel.Profile smallPng = new StageDurationModel.Profile("small", "png", "normal");
+        model.record(StageDurationModel.Stage.PROCESS, smallPng, 60000);
+
+        // png 只有一个样本，使用同页数分档、同模型模式的全部样本（1~5秒和60秒）
+        assertThat(model.expectedMillis(StageDurationModel.Stage.PROCESS, smallPng))
+                .isCloseTo(3000L, withinPercentage(2));
+        assertThat(model.expectedMillis(StageDurationModel.Stage.QUEUE, SMALL_PDF)).isNull();
+    }
+
+    @Test
+    void pendingAddsQueueRemainderToProcessing() {
+        recordProcess(SMALL_PDF, 10000, 10000, 10000, 10000, 10000);
+        for (int i = 0; i < 5; i++) {
+            model.record(StageDurationModel.Stage.QUEUE, SMALL_PDF, 3000);
+        }
+
+        assertThat(model.pendingMillis(SMALL_PDF, 1000)).isCloseTo(12000L, withinPercentage(2));
+    }
+
+    private void recordProcess(StageDurationModel.Profile profile, long... durations) {
+        for (long duration : durations) {
+            model.record(StageDurationModel.Stage.PROCESS, profile, duration);
+        }
+    }
+}
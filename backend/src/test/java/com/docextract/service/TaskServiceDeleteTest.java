@@ -0,0 +1,93 @@
+package com.docextract.service;
+
+import com.docextract.config.DeadlineConfig;
+import com.docextract.config.QwenConfig;
+import com.docextract.config.SchedulerConfig;
+import com.docextract.entity.Task;
+import com.docextract.repository.TaskRepository;
+import com.docextract.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TaskServiceDeleteTest {
+
+    @TempDir
+    Path uploadDir;
+
+    private TaskRepository taskRepository;
+    private TaskCancellationService cancellationService;
+    private TaskService taskService;
+
+    @BeforeEach
+    void setUp() {
+        taskRepository = mock(TaskRepository.class);
+        cancellationService = mock(TaskCancellationService.class);
+        taskService = new TaskService(taskRepository, mock(UserRepository.class), mock(QwenExtractService.class),
+                new QwenConfig(), new SchedulerConfig(), new DeadlineConfig(), mock(ApplicationEventPublisher.class),
+                cancellationService, mock(StageDurationModel.class), mock(TaskStateMachine.class));
+        ReflectionTestUtils.setField(taskService, "uploadDir", uploadDir.toString());
+    }
+
+    @Test
+    void deletesProcessingTaskAfterCancellingItById() throws IOException {
+        Path file = Files.createFile(uploadDir.resolve("a.pdf"));
+        TaskRepository.ProgressView view = mock(TaskRepository.ProgressView.class);
+        when(view.getStatus()).thenReturn(Task.TaskStatus.PROCESSING);
+        when(view.getFilePath()).thenReturn(Map.of("fileName", "合同.pdf", "filePath", "a.pdf"));
+        when(taskRepository.findProgressByTaskId(1L)).thenReturn(Optional.of(view));
+        when(cancellationService.cancel(List.of(1L))).thenReturn(List.of(1L));
+
+        taskService.deleteTask(1L);
+
+        // 取消使版本号加1，删除按ID进行，不会因版本号过期而失败
+        InOrder order = inOrder(cancellationService, taskRepository);
+        order.verify(cancellationService).cancel(List.of(1L));
+        order.verify(taskRepository).deleteByTaskIds(List.of(1L));
+        verify(taskRepository, never()).delete(any(Task.class));
+        assertThat(file).doesNotExist();
+    }
+
+    @Test
+    void deletingMissingTaskFailsWithoutCancelling() {
+        when(taskRepository.findProgressByTaskId(1L)).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> taskService.deleteTask(1L)).hasMessage("任务不存在");
+        verify(cancellationService, never()).cancel(anyList());
+        verify(taskRepository, never()).deleteByTaskIds(anyList());
+    }
+
+    @Test
+    void deletesBatchWithActiveTasksById() {
+        Task processing = Task.builder().taskId(1L).status(Task.TaskStatus.PROCESSING).version(3L).build();
+        Task completed = Task.builder().taskId(2L).status(Task.TaskStatus.COMPLETED).version(5L).build();
+        when(taskRepository.findByUserIdAndTaskName(7L, "合同")).thenReturn(List.of(processing, completed));
+
+        taskService.deleteBatchTask(7L, "合同");
+
+        InOrder order = inOrder(cancellationService, taskRepository);
+        order.verify(cancellationService).cancelBatch(7L, "合同");
+        order.verify(taskRepository).deleteByTaskIds(List.of(1L, 2L));
+        verify(taskRepository, never()).delete(any(Task.class));
+    }
+}
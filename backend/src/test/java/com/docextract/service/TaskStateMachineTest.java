@@ -0,0 +1,145 @@
+package com.docextract.service;
+
+import com.docextract.entity.Task;
+import com.docextract.repository.TaskRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TaskStateMachineTest {
+
+    private TaskRepository taskRepository;
+    private SimpleMeterRegistry meterRegistry;
+    private TaskStateMachine stateMachine;
+
+    @BeforeEach
+    void setUp() {
+        taskRepository = mock(TaskRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+        stateMachine = new TaskStateMachine(taskRepository,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), meterRegistry);
+    }
+
+    @Test
+    void startAppliesAndBumpsLocalVersion() {
+        Task task = processing(4L);
+        when(taskRepository.startTask(eq(1L), eq(4L), any())).thenReturn(1);
+
+        assertThat(stateMachine.start(task)).isTrue();
+
+        assertThat(task.getVersion()).isEqualTo(5L);
+        assertThat(task.getStage()).isEqualTo("UPLOADING");
+        assertThat(task.getProgress()).isEqualTo(5);
+    }
+
+    @Test
+    void staleVersionIsRejectedAndCounted() {
+        Task task = processing(4L);
+        when(taskRepository.startTask(eq(1L), eq(4L), any())).thenReturn(0);
+
+        assertThat(stateMachine.start(task)).isFalse();
+
+        assertThat(task.getVersion()).isEqualTo(4L);
+        assertThat(task.getStage()).isEqualTo("DISPATCHED");
+        assertThat(meterRegistry.counter("task.transition.rejected", "transition", "start").count()).isEqualTo(1);
+    }
+
+    @Test
+    void completeStoresResultAndReleasesLease() {
+        Task task = processing(4L);
+        Map<String, Object> result = Map.of("金额", "100");
+        LocalDateTime endTime = LocalDateTime.now();
+        when(taskRepository.completeTask(1L, 4L, Task.TaskStatus.COMPLETED, result, Map.of(), endTime)).thenReturn(1);
+
+        assertThat(stateMachine.complete(task, result, Map.of(), endTime)).isTrue();
+
+        assertThat(task.getStatus()).isEqualTo(Task.TaskStatus.COMPLETED);
+        assertThat(task.getProgress()).isEqualTo(100);
+        assertThat(task.getResult()).isEqualTo(result);
+        assertThat(task.getEndTime()).isEqualTo(endTime);
+        assertThat(task.getLeaseOwner()).isNull();
+        assertThat(task.getVersion()).isEqualTo(5L);
+    }
+
+    @Test
+    void failCountsRetryAndTruncatesMessage() {
+        Task task = processing(4L);
+        when(taskRepository.finishTask(eq(1L), eq(4L), eq(Task.TaskStatus.FAILED), eq("FAILED"), anyString(), eq(1),
+                any())).thenReturn(1);
+
+        assertThat(stateMachine.fail(task, "x".repeat(3000))).isTrue();
+
+        assertThat(task.getStatus()).isEqualTo(Task.TaskStatus.FAILED);
+        assertThat(task.getErrorMessage()).hasSize(2000);
+        assertThat(task.getRetryCount()).isEqualTo(1);
+    }
+
+    @Test
+    void cancelDoesNotCountRetry() {
+        Task task = processing(4L);
+        when(taskRepository.finishTask(eq(1L), eq(4L), eq(Task.TaskStatus.CANCELLED), eq("CANCELLED"), eq("任务已取消"),
+                eq(0), any())).thenReturn(1);
+
+        assertThat(stateMachine.cancel(task)).isTrue();
+
+        assertThat(task.getStatus()).isEqualTo(Task.TaskStatus.CANCELLED);
+        assertThat(task.getRetryCount()).isZero();
+    }
+
+    @Test
+    void cancelAfterCancelApiIsIgnored() {
+        Task task = processing(4L);
+        when(taskRepository.finishTask(anyLong(), anyLong(), any(), anyString(), anyString(), anyInt(), any()))
+                .thenReturn(0);
+
+        assertThat(stateMachine.cancel(task)).isFalse();
+
+        assertThat(task.getStatus()).isEqualTo(Task.TaskStatus.PROCESSING);
+    }
+
+    @Test
+    void retryRequeuesWithInteractivePriority() {
+        Task task = processing(4L);
+        task.setStatus(Task.TaskStatus.FAILED);
+        task.setErrorMessage("超时");
+        LocalDateTime deadline = LocalDateTime.now().plusHours(1);
+        when(taskRepository.requeueTask(eq(1L), eq(4L), eq(Task.TaskStatus.PENDING), eq(Task.Priority.INTERACTIVE),
+                eq("[]"), eq(deadline), any())).thenReturn(1);
+
+        assertThat(stateMachine.retry(task, "[]", deadline)).isTrue();
+
+        assertThat(task.getStatus()).isEqualTo(Task.TaskStatus.PENDING);
+        assertThat(task.getStage()).isEqualTo("PENDING");
+        assertThat(task.getErrorMessage()).isNull();
+        assertThat(task.getPriority()).isEqualTo(Task.Priority.INTERACTIVE);
+        assertThat(task.getModelMode()).isEqualTo("normal");
+        verify(taskRepository).requeueTask(eq(1L), eq(4L), eq(Task.TaskStatus.PENDING), eq(Task.Priority.INTERACTIVE),
+                eq("[]"), eq(deadline), any());
+    }
+
+    private static Task processing(long version) {
+        return Task.builder()
+                .taskId(1L)
+                .status(Task.TaskStatus.PROCESSING)
+                .stage("DISPATCHED")
+                .retryCount(0)
+                .leaseOwner("node-1")
+                .version(version)
+                .build();
+    }
+}
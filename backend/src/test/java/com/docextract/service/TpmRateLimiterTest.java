@@ -0,0 +1,140 @@
+package com.docextract.service;
+
+import com.docextract.config.QwenConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TpmRateLimiterTest {
+
+    private QwenConfig config;
+    private RecordingLimiter limiter;
+
+    @BeforeEach
+    void setUp() {
+        config = new QwenConfig();
+        config.setMaxTpm(100000);
+        config.setPageTokenEstimate(3000);
+        config.setMaxContextLength(150000);
+        config.setMaxImages(15);
+        config.setImageTokenEstimate(1000);
+        limiter = new RecordingLimiter(config);
+        limiter.init();
+    }
+
+    @Test
+    void estimatesFromPageCountWithoutSamples() {
+        assertThat(limiter.estimateCost(4)).isEqualTo(12000);
+        assertThat(limiter.estimateCost(null)).isEqualTo(3000);
+        assertThat(limiter.estimateCost(0)).isEqualTo(3000);
+    }
+
+    @Test
+    void estimateIsCappedAtContextAndImageUpperBound() {
+        assertThat(limiter.estimateCost(500)).isEqualTo(165000);
+    }
+
+    @Test
+    void estimateFollowsActualUsagePerPage() {
+        limiter.reconcile(12000, 8000, 4);
+        assertThat(limiter.estimateCost(10)).isEqualTo(20000);
+
+        // 之后的样本按滑动平均计入：2000 + (4000 - 2000) × 0.1
+        limiter.reconcile(8000, 8000, 2);
+        assertThat(limiter.estimateCost(10)).isEqualTo(22000);
+    }
+
+    @Test
+    void grantsWhenBucketHasTokens() {
+        limiter.waitMs = 0L;
+
+        TpmRateLimiter.Reservation reservation = limiter.tryAcquire(12000);
+
+        assertThat(reservation.granted()).isTrue();
+        assertThat(reservation.tokens()).isEqualTo(12000);
+        assertThat(limiter.calls).containsExactly("acquire:12000");
+    }
+
+    @Test
+    void costIsClampedToBucketCapacity() {
+        limiter.waitMs = 0L;
+
+        assertThat(limiter.tryAcquire(250000).tokens()).isEqualTo(100000);
+    }
+
+    @Test
+    void insufficientTokensReturnCappedWaitWithoutReserving() {
+        limiter.waitMs = 30000L;
+
+        TpmRateLimiter.Reservation reservation = limiter.tryAcquire(12000);
+
+        assertThat(reservation.granted()).isFalse();
+        assertThat(reservation.tokens()).isZero();
+        assertThat(reservation.waitMs()).isEqualTo(5000);
+    }
+
+    @Test
+    void redisFailureLetsDispatchThroughWithoutReservation() {
+        limiter.failure = new IllegalStateException("connection refused");
+
+        TpmRateLimiter.Reservation reservation = limiter.tryAcquire(12000);
+
+        assertThat(reservation.granted()).isTrue();
+        assertThat(reservation.tokens()).isZero();
+    }
+
+    @Test
+    void reconcileAdjustsByDifference() {
+        limiter.reconcile(12000, 20000);
+        limiter.reconcile(12000, 5000);
+        limiter.reconcile(12000, 12000);
+
+        assertThat(limiter.calls).containsExactly("adjust:8000", "adjust:-7000");
+    }
+
+    @Test
+    void failedAttemptRefundsReservationWithoutAffectingEstimate() {
+        limiter.reconcile(12000, 0, 4);
+
+        assertThat(limiter.calls).containsExactly("adjust:-12000");
+        assertThat(limiter.estimateCost(4)).isEqualTo(12000);
+    }
+
+    @Test
+    void disabledLimiterNeverTouchesBucket() {
+        config.setTpmLimitEnabled(false);
+
+        assertThat(limiter.tryAcquire(12000)).isEqualTo(new TpmRateLimiter.Reservation(true, 0, 0));
+        limiter.reconcile(12000, 0);
+
+        assertThat(limiter.calls).isEmpty();
+    }
+
+    /**
+     * 记录令牌桶脚本调用，返回预设的等待时间
+     */
+    private static class RecordingLimiter extends TpmRateLimiter {
+
+        final List<String> calls = new ArrayList<>();
+        Long waitMs = 0L;
+        RuntimeException failure;
+
+        RecordingLimiter(QwenConfig config) {
+            super(config, null, new SimpleMeterRegistry());
+        }
+
+        @Override
+        Long execute(long tokens, String mode) {
+            if (failure != null) {
+                throw failure;
+            }
+            calls.add(mode + ":" + tokens);
+            return waitMs;
+        }
+    }
+}
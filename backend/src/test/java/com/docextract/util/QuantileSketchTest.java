@@ -0,0 +1,54 @@
+package com.docextract.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.withinPercentage;
+
+class QuantileSketchTest {
+
+    @Test
+    void emptySketchHasNoQuantile() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+
+        assertThat(sketch.quantile(0.5)).isEqualTo(-1);
+        assertThat(sketch.count()).isZero();
+    }
+
+    @Test
+    void quantilesStayWithinRelativeAccuracy() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        for (long value = 1; value <= 1000; value++) {
+            sketch.add(value);
+        }
+
+        assertThat(sketch.count()).isEqualTo(1000);
+        assertThat(sketch.quantile(0.5)).isCloseTo(500L, withinPercentage(1.5));
+        assertThat(sketch.quantile(0.9)).isCloseTo(900L, withinPercentage(1.5));
+        assertThat(sketch.quantile(1.0)).isCloseTo(1000L, withinPercentage(1.5));
+    }
+
+    @Test
+    void zeroAndNegativeValuesCountAsZero() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        sketch.add(0);
+        sketch.add(-5);
+        sketch.add(1000);
+
+        assertThat(sketch.quantile(0.5)).isZero();
+        assertThat(sketch.quantile(1.0)).isCloseTo(1000L, withinPercentage(1.5));
+    }
+
+    @Test
+    void conditionalQuantileOnlyCountsSamplesAboveFloor() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        for (long value = 1; value <= 1000; value++) {
+            sketch.add(value);
+        }
+
+        // 超过900的样本的中位数约为950
+        assertThat(sketch.quantileAbove(0.5, 900)).isCloseTo(950L, withinPercentage(3));
+        assertThat(sketch.quantileAbove(0.5, 0)).isCloseTo(500L, withinPercentage(1.5));
+        assertThat(sketch.quantileAbove(0.5, 5000)).isEqualTo(-1);
+    }
+}
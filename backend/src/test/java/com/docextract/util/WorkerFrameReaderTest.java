@@ -0,0 +1,98 @@
+package com.docextract.util;
+
+import com.docextract.dto.ExtractResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WorkerFrameReaderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void readsHeaderAndPayload() throws IOException {
+        WorkerFrameReader reader = reader(1024,
+                resultFrame("job-1", "{\"status\":\"success\",\"data\":{\"名称\":\"示例\"}}"));
+
+        Map<String, Object> header = reader.nextHeader();
+        assertThat(header).containsEntry("type", "result").containsEntry("jobId", "job-1");
+
+        ExtractResult result = reader.readPayload(ExtractResult.class);
+        assertThat(result.getStatus()).isEqualTo("success");
+        assertThat(result.getData()).containsEntry("名称", "示例");
+        assertThat(reader.nextHeader()).isNull();
+    }
+
+    @Test
+    void skipsNonProtocolLines() throws IOException {
+        WorkerFrameReader reader = reader(1024,
+                "some library banner\n\n{\"type\":\"progress\",\"progress\":30}\n");
+
+        assertThat(reader.nextHeader()).containsEntry("type", "progress").containsEntry("progress", 30);
+        assertThat(reader.nextHeader()).isNull();
+    }
+
+    @Test
+    void unreadPayloadIsSkippedBeforeNextHeader() throws IOException {
+        WorkerFrameReader reader = reader(1024,
+                resultFrame("job-1", "{\"status\":\"success\"}") + "{\"type\":\"pong\",\"id\":\"p1\"}\n");
+
+        assertThat(reader.nextHeader()).containsEntry("jobId", "job-1");
+        assertThat(reader.nextHeader()).containsEntry("type", "pong");
+    }
+
+    @Test
+    void oversizedPayloadIsRejectedAndStreamStaysInSync() throws IOException {
+        String payload = "{\"status\":\"success\",\"message\":\"" + "x".repeat(200) + "\"}";
+        WorkerFrameReader reader = reader(64,
+                resultFrame("job-1", payload) + "{\"type\":\"pong\",\"id\":\"p1\"}\n");
+
+        reader.nextHeader();
+        assertThatThrownBy(() -> reader.readPayload(ExtractResult.class))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("结果过大");
+        assertThat(reader.nextHeader()).containsEntry("type", "pong");
+    }
+
+    @Test
+    void malformedPayloadIsRejectedAndStreamStaysInSync() throws IOException {
+        WorkerFrameReader reader = reader(1024,
+                resultFrame("job-1", "{\"status\": oops}") + "{\"type\":\"pong\",\"id\":\"p1\"}\n");
+
+        reader.nextHeader();
+        assertThatThrownBy(() -> reader.readPayload(ExtractResult.class)).isInstanceOf(IOException.class);
+        assertThat(reader.nextHeader()).containsEntry("type", "pong");
+    }
+
+    @Test
+    void headerWithoutPayloadHasNothingToRead() throws IOException {
+        WorkerFrameReader reader = reader(1024, "{\"type\":\"ready\"}\n");
+
+        reader.nextHeader();
+        assertThatThrownBy(() -> reader.readPayload(ExtractResult.class))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("帧不包含载荷");
+    }
+
+    private WorkerFrameReader reader(long maxPayloadBytes, String output) {
+        return new WorkerFrameReader(new ByteArrayInputStream(output.getBytes(StandardCharsets.UTF_8)),
+                objectMapper, maxPayloadBytes);
+    }
+
+    private static String resultFrame(String jobId, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String header = "{\"type\":\"result\",\"jobId\":\"" + jobId + "\",\"length\":" + bytes.length + "}\n";
+        out.writeBytes(header.getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(bytes);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
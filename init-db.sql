@@ -18,6 +18,14 @@ ON CONFLICT (username) DO NOTHING;
 CREATE INDEX IF NOT EXISTS idx_tasks_user_id ON tasks(user_id);
 CREATE INDEX IF NOT EXISTS idx_tasks_status ON tasks(status);
 CREATE INDEX IF NOT EXISTS idx_tasks_created_at ON tasks(created_at DESC);
+-- 任务队列：领取等待任务、按节点续期租约、回收过期租约
+CREATE INDEX IF NOT EXISTS idx_tasks_pending ON tasks(created_at, task_id) WHERE status = 'PENDING';
+CREATE INDEX IF NOT EXISTS idx_tasks_lease ON tasks(lease_owner, lease_expires_at) WHERE status = 'PROCESSING';
+-- 排队任务超过截止时间后标记失败
+CREATE INDEX IF NOT EXISTS idx_tasks_pending_deadline ON tasks(deadline) WHERE status = 'PENDING';
+
+-- 任务ID序列（每次预分配50个ID，批量创建任务时插入可合并执行；应用启动时推进到已有最大任务ID之后）
+CREATE SEQUENCE IF NOT EXISTS tasks_seq INCREMENT BY 50;
 
 -- 添加注释
 COMMENT ON TABLE users IS '用户表';
@@ -35,11 +43,21 @@ COMMENT ON COLUMN tasks.user_id IS '用户ID（外键）';
 COMMENT ON COLUMN tasks.task_name IS '任务名称';
 COMMENT ON COLUMN tasks.document_count IS '文档数量';
 COMMENT ON COLUMN tasks.file_path IS '文件路径（JSON）';
-COMMENT ON COLUMN tasks.status IS '任务状态（PENDING, PROCESSING, COMPLETED, FAILED）';
+COMMENT ON COLUMN tasks.content_hash IS '文件内容SHA-256（结果缓存键）';
+COMMENT ON COLUMN tasks.page_count IS '文档页数（图片为1），用于合并小文档和拆分大文档';
+COMMENT ON COLUMN tasks.status IS '任务状态（PENDING, PROCESSING, COMPLETED, FAILED, CANCELLED）';
 COMMENT ON COLUMN tasks.start_time IS '任务开始时间';
 COMMENT ON COLUMN tasks.end_time IS '任务结束时间';
+COMMENT ON COLUMN tasks.deadline IS '截止时间，超过后不再排队或执行';
 COMMENT ON COLUMN tasks.result IS '处理结果（JSON）';
 COMMENT ON COLUMN tasks.extract_fields IS '提取字段配置（JSON）';
+COMMENT ON COLUMN tasks.extract_fields_json IS '提交时的提取字段JSON原文';
+COMMENT ON COLUMN tasks.model_mode IS '模型模式（normal, pro, local）';
+COMMENT ON COLUMN tasks.priority IS '调度优先级（INTERACTIVE, BULK）';
+COMMENT ON COLUMN tasks.lease_owner IS '持有任务租约的处理节点';
+COMMENT ON COLUMN tasks.lease_expires_at IS '任务租约到期时间';
+COMMENT ON COLUMN tasks.lease_reclaims IS '租约过期后被回收重新排队的次数（不计入重试次数）';
 COMMENT ON COLUMN tasks.error_message IS '错误信息';
+COMMENT ON COLUMN tasks.version IS '状态版本号，每次状态转换加1（条件更新的乐观锁）';
 COMMENT ON COLUMN tasks.created_at IS '创建时间';
 COMMENT ON COLUMN tasks.updated_at IS '更新时间';
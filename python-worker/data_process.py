@@ -77,8 +77,9 @@ def upload_batch(file_batch: List[Path], base_url: str = BASE_URL,
     return batch_id
 
 def wait_until_done(batch_id: str, base_url: str = BASE_URL, 
-                    headers: Dict = None, poll_interval: int = None) -> List[Dict]:
-    """轮询直到所有任务结束，返回extract_result列表"""
+                    headers: Dict = None, poll_interval: int = None,
+                    deadline: Optional[float] = None) -> List[Dict]:
+    """轮询直到所有任务结束，返回extract_result列表；超过 deadline（epoch秒）仍未结束时抛出异常"""
     if headers is None:
         headers = HEADERS
     if poll_interval is None:
@@ -97,6 +98,8 @@ def wait_until_done(batch_id: str, base_url: str = BASE_URL,
         _log(f"当前状态 {states}")
         if states <= {"done", "failed", "error"}:
             return results
+        if deadline is not None and time.time() + poll_interval > deadline:
+            raise RuntimeError("等待MinerU处理超过任务截止时间")
         time.sleep(poll_interval)
 
 def download_zip(url: str, dst: Path) -> None:
@@ -24,7 +24,35 @@ logger = logging.getLogger('IntegratedProcessor')
 sys.path.insert(0, os.path.dirname(os.path.abspath(__file__)))
 
 from data_process import upload_batch, wait_until_done, fetch_and_download, BATCH_SIZE
-from qwen_process_url_new import extract_once, preprocess_context, MODEL_PRO
+from qwen_process_url_new import extract_once, extract_batch, collect_figure_images, preprocess_context, MODEL_PRO, reset_token_usage, get_token_usage, set_task_deadline, get_task_deadline, remaining_seconds
+
+def write_frame(out, header: Dict, payload=None):
+    """
+    向stdout写入一帧：一行JSON帧头，带载荷时帧头包含 length 字段，
+    其后紧跟 length 字节的UTF-8 JSON载荷（Java端按长度流式解析，不依赖行边界）
+    """
+    out.flush()
+    data = b""
+    if payload is not None:
+        data = json.dumps(payload, ensure_ascii=False).encode("utf-8")
+        header = dict(header, length=len(data))
+    out.buffer.write(json.dumps(header, ensure_ascii=False).encode("utf-8") + b"\n" + data)
+    out.buffer.flush()
+
+def _stderr_progress_sink(stage: str, progress: int):
+    """单次模式：进度以JSON行写入stderr，由Java端解析"""
+    sys.stderr.write(json.dumps({"stage": stage, "progress": progress}) + "\n")
+    sys.stderr.flush()
+
+# 进度上报目标（常驻模式下由serve()替换为协议消息）
+_progress_sink = _stderr_progress_sink
+
+def report_progress(stage: str, progress: int):
+    """上报当前任务进度"""
+    try:
+        _progress_sink(stage, progress)
+    except Exception as e:
+        logger.debug(f"上报进度失败: {e}")
 
 def load_config():
     """加载环境变量"""
@@ -82,11 +110,39 @@ def build_prompt_from_fields(extract_fields) -> str:
     
     return prompt
 
+def store_ocr_artifacts(source_dir: Path, cache_dir: Path):
+    """
+    将MinerU输出（full.md + images）复制到OCR缓存目录
+    先写入同级临时目录再整体改名，其他进程不会读到写了一半的缓存；失败只记录日志，不影响当前任务
+    """
+    if (cache_dir / "full.md").exists():
+        return
+    tmp_dir = cache_dir.parent / f".{cache_dir.name}.tmp-{os.getpid()}"
+    try:
+        if tmp_dir.exists():
+            shutil.rmtree(tmp_dir)
+        tmp_dir.mkdir(parents=True)
+        shutil.copy2(source_dir / "full.md", tmp_dir / "full.md")
+        images_dir = source_dir / "images"
+        if images_dir.is_dir():
+            shutil.copytree(images_dir, tmp_dir / "images")
+        os.replace(tmp_dir, cache_dir)
+        logger.info(f"OCR结果已写入缓存: {cache_dir}")
+    except Exception as e:
+        # 并发写入时另一个进程可能已完成改名，忽略即可
+        logger.warning(f"写入OCR缓存失败: {e}")
+    finally:
+        if tmp_dir.exists():
+            shutil.rmtree(tmp_dir, ignore_errors=True)
+
 def process_single_pdf(file_path: str, config: Dict, temp_work_dir: Path, 
                         task_data_dir: Optional[Path] = None, 
                         original_filename: Optional[str] = None,
                         extract_fields: Optional[Dict] = None,
-                        model_mode: str = "normal") -> Tuple[str, Dict]:
+                        model_mode: str = "normal",
+                        ocr_cache_dir: Optional[Path] = None,
+                        md_file_hint: Optional[Path] = None,
+                        stage: str = "full") -> Tuple[str, Dict]:
     """
     处理单个文件（PDF/JPG/PNG）的完整流程
     
@@ -101,6 +157,12 @@ def process_single_pdf(file_path: str, config: Dict, temp_work_dir: Path,
             - "normal": 普通版 - 智能路由（qwen3-vl-plus / qwen-long）
             - "pro": 专业版 - 统一使用 qwen3.5-plus
             - "local": 本地模型 - 使用本地部署的模型（OpenAI 兼容 API）
+        ocr_cache_dir: 后端分配的OCR缓存目录（按文件内容哈希寻址），存在 full.md 时跳过MinerU
+        md_file_hint: OCR阶段已生成的Markdown路径（分阶段执行时由后端传回）
+        stage: 执行阶段
+            - "full": OCR + 提取（默认）
+            - "ocr": 只做OCR，返回 ("ocr_done", {"md_file": ...})
+            - "extract": 只做提取，使用已有的OCR结果
     
     Returns:
         (status, result) 元组
@@ -115,13 +177,21 @@ def process_single_pdf(file_path: str, config: Dict, temp_work_dir: Path,
     if file_ext not in supported_extensions:
         return "error", {"error": f"不支持的文件类型: {file_ext}，支持的类型: {supported_extensions}"}
     
-    # 用于保存JSON的文件名 - 使用文件的UUID文件名，与input文件夹名称一致
-    json_filename = input_file.stem
-    
     try:
-        # 检查是否已存在该文件对应的MinerU处理结果
+        # 优先使用内容寻址的OCR缓存（任何任务上传过相同文件都会命中）
         md_file = None
-        if task_data_dir:
+        from_ocr_cache = False
+        if md_file_hint and md_file_hint.exists():
+            md_file = md_file_hint
+            from_ocr_cache = True
+            logger.info(f"✅ 使用OCR阶段结果: {md_file}")
+        elif ocr_cache_dir and (ocr_cache_dir / "full.md").exists():
+            md_file = ocr_cache_dir / "full.md"
+            from_ocr_cache = True
+            logger.info(f"✅ 命中OCR缓存: {md_file}")
+        
+        # 检查是否已存在该文件对应的MinerU处理结果
+        if not md_file and task_data_dir:
             mineru_output_base = task_data_dir / "input"
             # 根据文件名（UUID）查找对应的处理结果目录
             file_uuid = input_file.stem  # 文件名就是UUID
@@ -147,6 +217,9 @@ def process_single_pdf(file_path: str, config: Dict, temp_work_dir: Path,
                             logger.info(f"✅ 发现已存在的MinerU处理结果: {md_file}")
                             break
         
+        if not md_file and stage == "extract":
+            return "error", {"error": "OCR结果不存在，无法单独执行提取阶段"}
+        
         # 如果没有已存在的结果，则调用MinerU处理
         if not md_file:
             # 兼容旧的 pdf 目录和新的 files 目录
@@ -162,6 +235,7 @@ def process_single_pdf(file_path: str, config: Dict, temp_work_dir: Path,
             else:
                 actual_file_dir = new_files_dir  # 默认使用新目录
             logger.info(f"=== 步骤1: 上传文件到MinerU - {input_file.name} ===")
+            report_progress("OCR_PROCESSING", 35)
             mineru_input_dir = temp_work_dir / "mineru_input"
             mineru_input_dir.mkdir(exist_ok=True)
             
@@ -175,7 +249,7 @@ def process_single_pdf(file_path: str, config: Dict, temp_work_dir: Path,
             
             # 等待MinerU处理完成
             logger.info("=== 步骤2: 等待MinerU处理完成 ===")
-            results = wait_until_done(batch_id)
+            results = wait_until_done(batch_id, deadline=get_task_deadline())
             
             # 下载结果 - 直接下载到任务目录的input文件夹
             logger.info("=== 步骤3: 下载MinerU解析结果 ===")
@@ -190,16 +264,29 @@ def process_single_pdf(file_path: str, config: Dict, temp_work_dir: Path,
             # 传入自定义输出目录给fetch_and_download（skip_batch_dir=True 直接输出到input目录）
             fetch_and_download(batch_id, results, output_dir=mineru_output_base, skip_batch_dir=True)
             
-            # 查找full.md文件（现在直接在input目录下）
-            md_files = list(mineru_output_base.rglob("full.md"))
+            # 查找full.md文件：优先在本文件对应的 <uuid>.pdf-id 目录中查找，input目录下可能有同任务其他文件的结果
+            md_files = list((mineru_output_base / f"{input_file.stem}.pdf-id").rglob("full.md"))
+            if not md_files:
+                md_files = list(mineru_output_base.rglob("full.md"))
             if not md_files:
                 return "error", {"error": "MinerU未生成full.md文件"}
             
             md_file = md_files[0]
             logger.info(f"找到Markdown文件: {md_file}")
         
+        # 把OCR结果存入内容寻址缓存，之后相同文件的任务可直接复用
+        if ocr_cache_dir and not from_ocr_cache:
+            store_ocr_artifacts(md_file.parent, ocr_cache_dir)
+            if (ocr_cache_dir / "full.md").exists():
+                md_file = ocr_cache_dir / "full.md"
+        
+        if stage == "ocr":
+            logger.info(f"=== OCR阶段完成: {input_file.name} ===")
+            return "ocr_done", {"md_file": str(md_file)}
+        
         # 步骤4: 使用Qwen提取信息
         logger.info("=== 步骤4: 使用Qwen提取信息 ===")
+        report_progress("QWEN_EXTRACTING", 60)
         logger.info(f"处理文件: {input_file.name}, 类型: {file_ext}")
         # 构建动态提示词
         prompt = build_prompt_from_fields(extract_fields)
@@ -229,25 +316,7 @@ def process_single_pdf(file_path: str, config: Dict, temp_work_dir: Path,
         if status == "success":
             # 保存JSON到任务目录
             if task_data_dir:
-                json_dir = task_data_dir / "json_data"
-                json_dir.mkdir(parents=True, exist_ok=True)
-                json_path = json_dir / f"{json_filename}.json"
-                
-                # 构建完整的JSON结果
-                json_result = {
-                    "status": "success",
-                    "source_file": original_filename or input_file.name,
-                    "file_type": file_ext,
-                    "extracted_at": time.strftime("%Y-%m-%d %H:%M:%S"),
-                    "data": result
-                }
-                
-                with open(json_path, 'w', encoding='utf-8') as f:
-                    json.dump(json_result, f, ensure_ascii=False, indent=2)
-                logger.info(f"JSON已保存: {json_path}")
-                
-                # 添加JSON路径到结果
-                result["_json_path"] = str(json_path)
+                save_json_result(task_data_dir, input_file, original_filename, result)
             
             logger.info(f"=== 处理完成: {input_file.name} ===")
             return "success", result
@@ -265,126 +334,379 @@ def process_single_pdf(file_path: str, config: Dict, temp_work_dir: Path,
         logger.error(f"处理文件失败 {input_file.name}: {str(e)}", exc_info=True)
         return "error", {"error": str(e)}
 
-def main():
-    """主函数 - 从命令行接收输入"""
-    if len(sys.argv) != 3:
-        print(json.dumps({
-            "status": "error",
-            "message": "参数错误: 需要输入文件路径和提取字段JSON"
-        }, ensure_ascii=False))
-        sys.exit(1)
+def save_json_result(task_data_dir: Path, input_file: Path, original_filename: Optional[str], result: Dict):
+    """把提取结果保存到任务目录的 json_data（文件名与上传文件的UUID一致），并在结果中记录JSON路径"""
+    json_dir = task_data_dir / "json_data"
+    json_dir.mkdir(parents=True, exist_ok=True)
+    json_path = json_dir / f"{input_file.stem}.json"
     
-    input_file = sys.argv[1]
-    extract_fields_json = sys.argv[2]
+    # 构建完整的JSON结果
+    json_result = {
+        "status": "success",
+        "source_file": original_filename or input_file.name,
+        "file_type": input_file.suffix.lower(),
+        "extracted_at": time.strftime("%Y-%m-%d %H:%M:%S"),
+        "data": result
+    }
+    
+    with open(json_path, 'w', encoding='utf-8') as f:
+        json.dump(json_result, f, ensure_ascii=False, indent=2)
+    logger.info(f"JSON已保存: {json_path}")
+    
+    # 添加JSON路径到结果
+    result["_json_path"] = str(json_path)
+
+def run_job(input_data: Dict, extract_fields, config: Dict) -> Dict:
+    """
+    执行单个提取任务，返回输出给Java的结果字典
+    
+    Args:
+        input_data: Java后端传入的任务输入数据
+        extract_fields: 已解析的提取字段配置
+        config: load_config() 加载的配置
+    """
+    # 截止时间（epoch毫秒）约束MinerU轮询和模型调用重试
+    set_task_deadline(input_data.get('deadline'))
+    remaining = remaining_seconds()
+    if remaining is not None and remaining <= 0:
+        return {"status": "error", "message": "任务已超过截止时间，不再处理"}
+    
+    if input_data.get('batch'):
+        return run_batch_job(input_data, extract_fields, config)
+    
+    task_id = input_data.get('taskId')
+    task_name = input_data.get('taskName')
+    file_info = input_data.get('fileInfo', {})
+    file_path = file_info.get('filePath')
+    original_filename = file_info.get('fileName')
+    task_data_dir_str = file_info.get('taskDataDir')
+    ocr_cache_dir_str = file_info.get('ocrCacheDir')
+    md_file_str = file_info.get('mdFile')
+    stage = input_data.get('stage', 'full')  # 分阶段执行: full / ocr / extract
+    model_mode = input_data.get('modelMode', 'normal')  # 获取模型模式，默认普通版
+    
+    if not file_path:
+        raise ValueError("filePath不能为空")
+    
+    # 兼容处理：如果传入的是相对文件名，尝试在 files 或 pdf 目录中查找
+    task_data_dir = Path(task_data_dir_str) if task_data_dir_str else None
+    if task_data_dir and not Path(file_path).is_absolute():
+        # 新目录结构：files/
+        new_path = task_data_dir / "files" / file_path
+        # 旧目录结构：pdf/
+        old_path = task_data_dir / "pdf" / file_path
+        
+        if new_path.exists():
+            file_path = str(new_path)
+        elif old_path.exists():
+            file_path = str(old_path)
+        else:
+            # 默认使用新路径
+            file_path = str(new_path)
+    
+    mode_text = "专业版" if model_mode == "pro" else "普通版"
+    logger.info(f"开始处理任务: taskId={task_id}, taskName={task_name}, file={file_path}, 模式={mode_text}")
+    
+    # 创建临时工作目录
+    temp_work_dir = Path(f"./temp_task_{task_id}")
+    temp_work_dir.mkdir(exist_ok=True)
+    
+    # 常驻进程会连续处理多个任务，用量按任务统计
+    reset_token_usage()
     
     try:
-        # 加载输入数据
-        with open(input_file, 'r', encoding='utf-8') as f:
-            input_data = json.load(f)
+        # 处理文件（支持 PDF/JPG/PNG）
+        status, result = process_single_pdf(
+            file_path, config, temp_work_dir, 
+            task_data_dir=task_data_dir,
+            original_filename=original_filename,
+            extract_fields=extract_fields,
+            model_mode=model_mode,
+            ocr_cache_dir=Path(ocr_cache_dir_str) if ocr_cache_dir_str else None,
+            md_file_hint=Path(md_file_str) if md_file_str else None,
+            stage=stage
+        )
         
-        task_id = input_data.get('taskId')
-        task_name = input_data.get('taskName')
-        file_info = input_data.get('fileInfo', {})
-        file_path = file_info.get('filePath')
-        original_filename = file_info.get('fileName')
-        task_data_dir_str = file_info.get('taskDataDir')
-        model_mode = input_data.get('modelMode', 'normal')  # 获取模型模式，默认普通版
+        if status == "ocr_done":
+            return {
+                "status": "success",
+                "message": "OCR完成",
+                "md_file": result["md_file"],
+                "mineru_processed": True,
+                "task_data_dir": str(task_data_dir) if task_data_dir else None
+            }
         
-        if not file_path:
-            raise ValueError("filePath不能为空")
+        # 从结果中获取实际使用的模型
+        actual_model = result.get("_model_route", {}).get("model", "unknown") if isinstance(result, dict) else "unknown"
         
-        # 兼容处理：如果传入的是相对文件名，尝试在 files 或 pdf 目录中查找
-        task_data_dir = Path(task_data_dir_str) if task_data_dir_str else None
-        if task_data_dir and not Path(file_path).is_absolute():
-            # 新目录结构：files/
-            new_path = task_data_dir / "files" / file_path
-            # 旧目录结构：pdf/
-            old_path = task_data_dir / "pdf" / file_path
-            
-            if new_path.exists():
-                file_path = str(new_path)
-            elif old_path.exists():
-                file_path = str(old_path)
+        # 构建输出
+        if status == "success":
+            return {
+                "status": "success",
+                "message": "处理完成",
+                "data": result,
+                "confidence": 0.95,
+                "model": actual_model,
+                "model_mode": model_mode,
+                "mineru_processed": True,
+                "task_data_dir": str(task_data_dir) if task_data_dir else None,
+                "usage": get_token_usage()
+            }
+        elif status == "partial_success":
+            return {
+                "status": "partial_success",
+                "message": "部分数据提取成功",
+                "data": result,
+                "confidence": 0.7,
+                "model": actual_model,
+                "model_mode": model_mode,
+                "task_data_dir": str(task_data_dir) if task_data_dir else None,
+                "usage": get_token_usage()
+            }
+        else:
+            return {
+                "status": "error",
+                "message": result.get("error", "未知错误"),
+                "task_data_dir": str(task_data_dir) if task_data_dir else None,
+                "usage": get_token_usage()
+            }
+    
+    finally:
+        # 清理临时文件
+        if temp_work_dir.exists():
+            shutil.rmtree(temp_work_dir)
+        
+        # 清理mineru的input目录（上传临时文件）
+        mineru_input_dir = Path("./PDFS")
+        if mineru_input_dir.exists():
+            shutil.rmtree(mineru_input_dir)
+        
+        # 注意：不再清理input目录，因为MinerU处理结果现在存放在任务目录的input文件夹
+        # 如果需要清理，可以手动删除任务目录
+
+def plan_batch_calls(docs: List[Dict], max_images: int, max_context: int) -> List[List[Dict]]:
+    """按文档顺序把OCR完成的小文档分成若干次模型调用，每次的图片数和文本长度分别不超过上限"""
+    calls = []
+    current, images, length = [], 0, 0
+    for doc in docs:
+        if current and (images + doc["images"] > max_images or length + doc["length"] > max_context):
+            calls.append(current)
+            current, images, length = [], 0, 0
+        current.append(doc)
+        images += doc["images"]
+        length += doc["length"]
+    if current:
+        calls.append(current)
+    return calls
+
+def run_batch_job(input_data: Dict, extract_fields, config: Dict) -> Dict:
+    """
+    合并处理多个小文档（图片、单页PDF）：依次OCR后，按 maxImages / maxContextLength 合并调用大模型，
+    结果按任务拆分。合并调用缺少某个文档的结果时，在本进程内对该文档单独提取一次
+    
+    input_data.batch: [{"taskId": ..., "fileInfo": {...}}, ...]，其余字段与单个任务相同
+    返回 {"status": "success", "results": [每个文档的输出（同 run_job，带 task_id）], "usage": ...}
+    """
+    items = input_data.get('batch') or []
+    qwen_config = input_data.get('qwenConfig') or {}
+    max_images = qwen_config.get('maxImages') or 15
+    max_context = qwen_config.get('maxContextLength') or 150000
+    model_mode = input_data.get('modelMode', 'normal')
+    common = {k: v for k, v in input_data.items() if k != 'batch'}
+    logger.info(f"合并处理 {len(items)} 个小文档: {[item.get('taskId') for item in items]}")
+    
+    # 1. 依次OCR（已有OCR缓存的文档直接复用）
+    outputs = {}
+    docs = []
+    for index, item in enumerate(items):
+        task_id = item.get('taskId')
+        report_progress("OCR_PROCESSING", 30 + 20 * index // max(1, len(items)))
+        try:
+            ocr = run_job(dict(common, taskId=task_id, fileInfo=item.get('fileInfo') or {}, stage="ocr"),
+                          extract_fields, config)
+        except Exception as e:
+            ocr = {"status": "error", "message": str(e)}
+        if ocr.get("status") != "success":
+            outputs[task_id] = {"status": "error", "message": ocr.get("message", "OCR失败"), "task_id": task_id}
+            continue
+        md_file = ocr["md_file"]
+        raw_text = open(md_file, encoding="utf-8").read()
+        docs.append({
+            "task_id": task_id,
+            "file_info": item.get('fileInfo') or {},
+            "md_file": md_file,
+            "length": len(raw_text),
+            "images": max(1, len(collect_figure_images(md_file, raw_text)))
+        })
+    
+    # 2. 合并调用大模型，按文档拆分结果
+    reset_token_usage()
+    report_progress("QWEN_EXTRACTING", 60)
+    prompt = build_prompt_from_fields(extract_fields)
+    for call in plan_batch_calls(docs, max_images, max_context):
+        results = {}
+        if len(call) > 1:
+            status, merged = extract_batch({str(doc["task_id"]): doc["md_file"] for doc in call},
+                                           prompt=prompt, model_mode=model_mode)
+            if status == "success":
+                results = merged
             else:
-                # 默认使用新路径
-                file_path = str(new_path)
+                logger.warning(f"合并提取失败，逐个提取: {merged if isinstance(merged, str) else status}")
+        for doc in call:
+            task_id = doc["task_id"]
+            result = results.get(str(task_id))
+            batched = result is not None
+            if result is None:
+                status, result = extract_once(doc["md_file"], prompt=prompt, model_mode=model_mode)
+                if status != "success":
+                    outputs[task_id] = {"status": "error", "message": f"Qwen提取失败: {result}", "task_id": task_id}
+                    continue
+            
+            file_info = doc["file_info"]
+            task_data_dir = Path(file_info['taskDataDir']) if file_info.get('taskDataDir') else None
+            if task_data_dir and file_info.get('filePath'):
+                save_json_result(task_data_dir, Path(file_info['filePath']), file_info.get('fileName'), result)
+            outputs[task_id] = {
+                "status": "success",
+                "message": "处理完成",
+                "data": result,
+                "confidence": 0.95,
+                "model": result.get("_model_route", {}).get("model", "unknown"),
+                "model_mode": model_mode,
+                "mineru_processed": True,
+                "task_data_dir": str(task_data_dir) if task_data_dir else None,
+                "task_id": task_id,
+                "batched": batched
+            }
+    
+    succeeded = sum(1 for output in outputs.values() if output.get("status") == "success")
+    logger.info(f"合并处理完成: 成功 {succeeded}/{len(items)}")
+    return {
+        "status": "success" if succeeded else "error",
+        "message": f"合并处理完成: 成功 {succeeded}/{len(items)}",
+        "results": [outputs[item.get('taskId')] for item in items if item.get('taskId') in outputs],
+        "usage": get_token_usage()
+    }
+
+def parse_extract_fields(extract_fields_json):
+    """解析提取字段配置（支持JSON字符串或已解析的对象）"""
+    if not extract_fields_json:
+        return None
+    if not isinstance(extract_fields_json, str):
+        return extract_fields_json
+    try:
+        extract_fields = json.loads(extract_fields_json)
+        logger.info(f"提取字段配置: {extract_fields}")
+        return extract_fields
+    except json.JSONDecodeError as e:
+        logger.warning(f"解析提取字段JSON失败: {e}")
+        return None
+
+def serve():
+    """
+    常驻模式 - 由Java进程池启动，通过stdin/stdout收发行分隔的JSON消息
+    
+    请求（stdin，每行一个JSON）:
+        {"type": "job", "jobId": "...", "input": {...}, "extractFields": [...]}
+        {"type": "ping", "id": "..."}
+        {"type": "shutdown"}
+    响应（stdout，每帧一行JSON帧头，见 write_frame）:
+        {"type": "ready", "pid": 123}
+        {"type": "progress", "jobId": "...", "stage": "...", "progress": 60}
+        {"type": "result", "jobId": "...", "length": N} + N字节结果JSON
+        {"type": "pong", "id": "...", "jobs": 3}
+        {"type": "fatal", "message": "..."}
+    """
+    global _progress_sink
+    
+    # stdout专用于协议消息，第三方库的print输出重定向到stderr
+    protocol_out = sys.stdout
+    sys.stdout = sys.stderr
+    
+    def send(message: Dict, payload=None):
+        write_frame(protocol_out, message, payload)
+    
+    # 预热：加载配置，模块级依赖（dashscope等）已在import时加载
+    try:
+        config = load_config()
+    except Exception as e:
+        logger.error(f"工作进程初始化失败: {str(e)}", exc_info=True)
+        send({"type": "fatal", "message": str(e)})
+        sys.exit(1)
+    
+    send({"type": "ready", "pid": os.getpid()})
+    logger.info(f"工作进程已就绪: pid={os.getpid()}")
+    
+    jobs_done = 0
+    for line in sys.stdin:
+        line = line.strip()
+        if not line:
+            continue
+        try:
+            message = json.loads(line)
+        except json.JSONDecodeError as e:
+            logger.warning(f"无法解析的请求: {e}")
+            continue
         
-        # 解析提取字段配置
-        extract_fields = None
-        if extract_fields_json:
+        msg_type = message.get("type")
+        if msg_type == "ping":
+            send({"type": "pong", "id": message.get("id"), "jobs": jobs_done})
+        elif msg_type == "shutdown":
+            logger.info("收到关闭指令，工作进程退出")
+            break
+        elif msg_type == "job":
+            job_id = message.get("jobId")
+            _progress_sink = lambda stage, progress: send(
+                {"type": "progress", "jobId": job_id, "stage": stage, "progress": progress})
             try:
-                extract_fields = json.loads(extract_fields_json)
-                logger.info(f"提取字段配置: {extract_fields}")
-            except json.JSONDecodeError as e:
-                logger.warning(f"解析提取字段JSON失败: {e}")
+                extract_fields = parse_extract_fields(message.get("extractFields"))
+                output = run_job(message.get("input") or {}, extract_fields, config)
+            except Exception as e:
+                logger.error(f"任务执行失败: {str(e)}", exc_info=True)
+                output = {"status": "error", "message": str(e)}
+            finally:
+                _progress_sink = _stderr_progress_sink
+            jobs_done += 1
+            send({"type": "result", "jobId": job_id}, output)
+        else:
+            logger.warning(f"未知的请求类型: {msg_type}")
+
+def main():
+    """主函数 - 从命令行接收输入"""
+    if len(sys.argv) == 2 and sys.argv[1] == "--serve":
+        serve()
+        return
+    
+    use_stdin = len(sys.argv) == 2 and sys.argv[1] == "-"
+    if not use_stdin and len(sys.argv) != 3:
+        write_frame(sys.stdout, {"type": "result"}, {
+            "status": "error",
+            "message": "参数错误: 需要 '-'（从stdin读取任务）或输入文件路径和提取字段JSON"
+        })
+        sys.exit(1)
+    
+    try:
+        if use_stdin:
+            # 从stdin读取任务: {"input": {...}, "extractFields": "..."}
+            job = json.loads(sys.stdin.buffer.read().decode("utf-8"))
+            input_data = job.get("input") or {}
+            extract_fields_json = job.get("extractFields")
+        else:
+            # 兼容方式：从临时输入文件加载，提取字段通过命令行参数传入
+            with open(sys.argv[1], 'r', encoding='utf-8') as f:
+                input_data = json.load(f)
+            extract_fields_json = sys.argv[2]
         
-        mode_text = "专业版" if model_mode == "pro" else "普通版"
-        logger.info(f"开始处理任务: taskId={task_id}, taskName={task_name}, file={file_path}, 模式={mode_text}")
+        # 解析提取字段配置
+        extract_fields = parse_extract_fields(extract_fields_json)
         
         # 加载配置
         config = load_config()
         
-        # 创建临时工作目录
-        temp_work_dir = Path(f"./temp_task_{task_id}")
-        temp_work_dir.mkdir(exist_ok=True)
+        output = run_job(input_data, extract_fields, config)
         
-        try:
-            # 处理文件（支持 PDF/JPG/PNG）
-            status, result = process_single_pdf(
-                file_path, config, temp_work_dir, 
-                task_data_dir=task_data_dir,
-                original_filename=original_filename,
-                extract_fields=extract_fields,
-                model_mode=model_mode
-            )
-            
-            # 从结果中获取实际使用的模型
-            actual_model = result.get("_model_route", {}).get("model", "unknown") if isinstance(result, dict) else "unknown"
-            
-            # 构建输出
-            if status == "success":
-                output = {
-                    "status": "success",
-                    "message": "处理完成",
-                    "data": result,
-                    "confidence": 0.95,
-                    "model": actual_model,
-                    "model_mode": model_mode,
-                    "mineru_processed": True,
-                    "task_data_dir": str(task_data_dir) if task_data_dir else None
-                }
-            elif status == "partial_success":
-                output = {
-                    "status": "partial_success",
-                    "message": "部分数据提取成功",
-                    "data": result,
-                    "confidence": 0.7,
-                    "model": actual_model,
-                    "model_mode": model_mode,
-                    "task_data_dir": str(task_data_dir) if task_data_dir else None
-                }
-            else:
-                output = {
-                    "status": "error",
-                    "message": result.get("error", "未知错误"),
-                    "task_data_dir": str(task_data_dir) if task_data_dir else None
-                }
-            
-            # 输出结果（Spring Boot会读取这个）
-            print(json.dumps(output, ensure_ascii=False, indent=2))
-            
-        finally:
-            # 清理临时文件
-            if temp_work_dir.exists():
-                shutil.rmtree(temp_work_dir)
-            
-            # 清理mineru的input目录（上传临时文件）
-            mineru_input_dir = Path("./PDFS")
-            if mineru_input_dir.exists():
-                shutil.rmtree(mineru_input_dir)
-            
-            # 注意：不再清理input目录，因为MinerU处理结果现在存放在任务目录的input文件夹
-            # 如果需要清理，可以手动删除任务目录
+        # 输出结果帧（Spring Boot会读取这个）
+        write_frame(sys.stdout, {"type": "result"}, output)
     
     except Exception as e:
         logger.error(f"主流程失败: {str(e)}", exc_info=True)
@@ -392,7 +714,7 @@ def main():
             "status": "error",
             "message": str(e)
         }
-        print(json.dumps(error_output, ensure_ascii=False, indent=2))
+        write_frame(sys.stdout, {"type": "result"}, error_output)
         sys.exit(1)
 
 
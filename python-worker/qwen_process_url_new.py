@@ -62,6 +62,15 @@ REQUEST_BUCKET = MAX_RPM
 LAST_REFILL_TIME = time.time()
 TOKEN_LOCK = threading.Lock()
 
+# Java后端已用全局令牌桶（Redis）统一控制TPM时，不再在进程内重复限流
+TPM_MANAGED_EXTERNALLY = os.getenv("QWEN_TPM_MANAGED") == "1"
+
+# 当前任务实际消耗的token（由API返回的usage累加），随结果上报给Java用于校正令牌桶
+TOKEN_USAGE = {"input_tokens": 0, "output_tokens": 0, "total_tokens": 0}
+
+# 当前任务的截止时间（epoch秒），由Java传入，为 None 时不限制
+TASK_DEADLINE = None
+
 
 # ============== 智能模型路由缓存 ==============
 class ModelRouteCache:
@@ -294,6 +303,8 @@ def refill_token_bucket():
 def wait_for_tokens(required_tokens):
     """等待直到令牌桶中有足够令牌"""
     global TOKEN_BUCKET
+    if TPM_MANAGED_EXTERNALLY:
+        return
     with TOKEN_LOCK:
         refill_token_bucket()
         while TOKEN_BUCKET < required_tokens:
@@ -306,6 +317,46 @@ def wait_for_tokens(required_tokens):
         TOKEN_BUCKET -= required_tokens
         logger.info(f"扣除{required_tokens} tokens，剩余:{TOKEN_BUCKET:.0f}")
 
+def set_task_deadline(deadline_ms):
+    """设置当前任务的截止时间（Java传入的epoch毫秒），为空时不限制"""
+    global TASK_DEADLINE
+    TASK_DEADLINE = deadline_ms / 1000.0 if deadline_ms else None
+
+def get_task_deadline():
+    """当前任务的截止时间（epoch秒），未设置时为 None"""
+    return TASK_DEADLINE
+
+def remaining_seconds():
+    """距当前任务截止时间的剩余秒数，未设置时为 None"""
+    return None if TASK_DEADLINE is None else TASK_DEADLINE - time.time()
+
+def reset_token_usage():
+    """开始新任务前清零token用量"""
+    with TOKEN_LOCK:
+        for key in TOKEN_USAGE:
+            TOKEN_USAGE[key] = 0
+
+def get_token_usage() -> dict:
+    """获取当前任务累计的token用量"""
+    with TOKEN_LOCK:
+        return dict(TOKEN_USAGE)
+
+def record_token_usage(rsp):
+    """累加API响应中的token用量"""
+    usage = getattr(rsp, "usage", None)
+    if not usage:
+        return
+    try:
+        input_tokens = int(usage.get("input_tokens", 0) or 0)
+        output_tokens = int(usage.get("output_tokens", 0) or 0)
+        total_tokens = int(usage.get("total_tokens", 0) or 0) or input_tokens + output_tokens
+    except (AttributeError, TypeError, ValueError):
+        return
+    with TOKEN_LOCK:
+        TOKEN_USAGE["input_tokens"] += input_tokens
+        TOKEN_USAGE["output_tokens"] += output_tokens
+        TOKEN_USAGE["total_tokens"] += total_tokens
+
 def preprocess_context(context, model: str = MODEL_VL):
     """
     增强型文本预处理 - 移除不需要的部分
@@ -398,6 +449,76 @@ def build_messages(text: str, img_abs_paths: list[str], prompt: str = None) -> l
     
     return [system_msg, user_msg]
 
+def collect_figure_images(md_file: str, raw_text: str) -> list:
+    """解析Markdown中带图注的图片（无图注时退回文件名含fig的图片），返回绝对路径列表"""
+    md_dir = Path(md_file).parent
+    fig_imgs = []
+    
+    # 改进的正则表达式，更好地匹配图片和对应的Fig描述
+    pattern = re.compile(
+        r'!\[\]\(images/([^)]+)\)[\s\S]*?(Fig\.|Figure|图)\s?\d+[\.\d]*\..*?(\n|$)',
+        re.IGNORECASE | re.MULTILINE
+    )
+    
+    for m in pattern.finditer(raw_text):
+        img_name = m.group(1)
+        rel_path = f"images/{img_name}"
+        abs_path = (md_dir / rel_path).resolve()
+        if abs_path.exists():
+            fig_imgs.append(str(abs_path))
+            logger.info(f"找到带Fig.描述的图片: {img_name}")
+        else:
+            logger.warning(f"图片不存在: {abs_path}")
+
+    if not fig_imgs:
+        logger.info("未找到带Fig描述的图片，尝试文件名包含'fig'的图片")
+        img_dir = md_dir / "images"
+        if img_dir.exists():
+            for p in img_dir.glob("*"):
+                if p.suffix.lower() in {".jpg", ".jpeg", ".png", ".bmp", ".gif"} and "fig" in p.stem.lower():
+                    fig_imgs.append(str(p.resolve()))
+                    logger.info(f"添加文件名含'fig'的图片: {p.name}")
+    
+    # 不再限制图片数量，全部传入
+    return fig_imgs
+
+
+def select_model(raw_text: str, abs_imgs: list, model_mode: str = "normal") -> tuple:
+    """按模型模式选择模型，返回 (模型名称, 路由信息)"""
+    if model_mode == "local":
+        # 本地模型模式
+        if not LOCAL_MODEL_AVAILABLE:
+            raise RuntimeError("本地模型功能不可用，请确保 openai 库已安装: pip install openai")
+        
+        local_config = LocalModelConfig.load_from_env()
+        if not local_config.get("enabled"):
+            logger.warning("本地模型未启用，将尝试加载配置...")
+        
+        selected_model = local_config.get("model", "local-model")
+        route_info = {
+            "model": selected_model,
+            "has_figures": len(abs_imgs) > 0,
+            "reason": f"本地模型模式 → 使用 {selected_model}（OpenAI 兼容 API）",
+            "base_url": local_config.get("base_url"),
+            "preset": local_config.get("preset")
+        }
+        logger.info(f"🖥️ 本地模型模式: {selected_model} @ {local_config.get('base_url')}")
+    elif model_mode == "pro":
+        # 专业版：统一使用 qwen3.5-plus
+        selected_model = MODEL_PRO
+        route_info = {
+            "model": selected_model,
+            "has_figures": len(abs_imgs) > 0,
+            "reason": "专业版模式 → 使用 qwen3.5-plus（更强推理能力，991K上下文）"
+        }
+        logger.info(f"📊 专业版模式: 使用 {selected_model}")
+    else:
+        # 普通版：智能路由
+        selected_model, route_info = _model_router.route(raw_text, abs_imgs)
+        logger.info(f"📊 智能路由决策: 模型={selected_model}, 原因={route_info.get('reason', 'N/A')}")
+    return selected_model, route_info
+
+
 def extract_once(md_file: str, prompt: str = None, model_mode: str = "normal") -> tuple:
     """使用智能模型路由进行提取
     
@@ -417,70 +538,11 @@ def extract_once(md_file: str, prompt: str = None, model_mode: str = "normal") -
         raw_text = open(md_file, encoding="utf-8").read()
         
         # 2. 解析md中所有图片路径（不限数量）
-        md_dir = Path(md_file).parent
-        fig_imgs = []
-        
-        # 改进的正则表达式，更好地匹配图片和对应的Fig描述
-        pattern = re.compile(
-            r'!\[\]\(images/([^)]+)\)[\s\S]*?(Fig\.|Figure|图)\s?\d+[\.\d]*\..*?(\n|$)',
-            re.IGNORECASE | re.MULTILINE
-        )
-        
-        for m in pattern.finditer(raw_text):
-            img_name = m.group(1)
-            rel_path = f"images/{img_name}"
-            abs_path = (md_dir / rel_path).resolve()
-            if abs_path.exists():
-                fig_imgs.append(str(abs_path))
-                logger.info(f"找到带Fig.描述的图片: {img_name}")
-            else:
-                logger.warning(f"图片不存在: {abs_path}")
-
-        if not fig_imgs:
-            logger.info("未找到带Fig描述的图片，尝试文件名包含'fig'的图片")
-            img_dir = md_dir / "images"
-            if img_dir.exists():
-                for p in img_dir.glob("*"):
-                    if p.suffix.lower() in {".jpg", ".jpeg", ".png", ".bmp", ".gif"} and "fig" in p.stem.lower():
-                        fig_imgs.append(str(p.resolve()))
-                        logger.info(f"添加文件名含'fig'的图片: {p.name}")
-        
-        # 不再限制图片数量，全部传入
-        abs_imgs = fig_imgs
+        abs_imgs = collect_figure_images(md_file, raw_text)
         logger.info(f"🖼️ 共找到 {len(abs_imgs)} 张图片")
 
         # 3. 🚀 模型选择逻辑
-        if model_mode == "local":
-            # 本地模型模式
-            if not LOCAL_MODEL_AVAILABLE:
-                raise RuntimeError("本地模型功能不可用，请确保 openai 库已安装: pip install openai")
-            
-            local_config = LocalModelConfig.load_from_env()
-            if not local_config.get("enabled"):
-                logger.warning("本地模型未启用，将尝试加载配置...")
-            
-            selected_model = local_config.get("model", "local-model")
-            route_info = {
-                "model": selected_model,
-                "has_figures": len(abs_imgs) > 0,
-                "reason": f"本地模型模式 → 使用 {selected_model}（OpenAI 兼容 API）",
-                "base_url": local_config.get("base_url"),
-                "preset": local_config.get("preset")
-            }
-            logger.info(f"🖥️ 本地模型模式: {selected_model} @ {local_config.get('base_url')}")
-        elif model_mode == "pro":
-            # 专业版：统一使用 qwen3.5-plus
-            selected_model = MODEL_PRO
-            route_info = {
-                "model": selected_model,
-                "has_figures": len(abs_imgs) > 0,
-                "reason": "专业版模式 → 使用 qwen3.5-plus（更强推理能力，991K上下文）"
-            }
-            logger.info(f"📊 专业版模式: 使用 {selected_model}")
-        else:
-            # 普通版：智能路由
-            selected_model, route_info = _model_router.route(raw_text, abs_imgs)
-            logger.info(f"📊 智能路由决策: 模型={selected_model}, 原因={route_info.get('reason', 'N/A')}")
+        selected_model, route_info = select_model(raw_text, abs_imgs, model_mode)
         
         # 4. 根据模型类型进行文本预处理（不同模型有不同的上下文限制）
         # 本地模型不做预处理截断，由模型自己处理
@@ -521,6 +583,89 @@ def extract_once(md_file: str, prompt: str = None, model_mode: str = "normal") -
         return ("error", str(e))
 
 
+BATCH_PROMPT_SUFFIX = (
+    "\n\n注意：以下内容包含 {count} 份相互独立的文档，每份文档以“=== 文档 <编号> ===”开头。"
+    "请对每份文档分别按上述要求提取，不要混用不同文档的信息。"
+    "只输出一个JSON对象，键为文档编号（字符串），值为该文档的提取结果。"
+)
+
+
+def extract_batch(md_files: dict, prompt: str = None, model_mode: str = "normal") -> tuple:
+    """合并多个小文档，一次模型调用分别提取
+    
+    Args:
+        md_files: 文档编号 -> Markdown文件路径
+        prompt: 动态提示词
+        model_mode: 模型模式（同 extract_once）
+    
+    Returns:
+        (status, result) 元组，成功时 result 为 文档编号 -> 该文档的提取结果，缺少的文档由调用方单独处理
+    """
+    try:
+        docs = []
+        for key, md_file in md_files.items():
+            raw_text = open(md_file, encoding="utf-8").read()
+            docs.append((str(key), raw_text, collect_figure_images(md_file, raw_text)))
+        
+        all_imgs = [img for _, _, imgs in docs for img in imgs]
+        selected_model, route_info = select_model("\n".join(raw for _, raw, _ in docs), all_imgs, model_mode)
+        base_prompt = prompt if prompt and prompt.strip() else PROMPT_TXT
+        if not base_prompt or not base_prompt.strip():
+            base_prompt = "你是一个能从图文信息提取指标为json的智能助手，只输出提取出的json信息。"
+        batch_prompt = base_prompt + BATCH_PROMPT_SUFFIX.format(count=len(docs))
+        
+        # 每份文档的文本后面紧跟它自己的图片，模型据此区分图片所属文档
+        sections = []
+        user_content = []
+        for key, raw_text, imgs in docs:
+            text = raw_text if model_mode == "local" else preprocess_context(raw_text, model=selected_model)
+            section = f"=== 文档 {key} ===\n{text}"
+            sections.append(section)
+            user_content.append({"text": section})
+            for img_path in imgs:
+                user_content.append({"image": f"file://{img_path}"})
+        combined_text = "\n\n".join(sections)
+        logger.info(f"📦 合并提取 {len(docs)} 份文档: 文本 {len(combined_text)} 字符, 图片 {len(all_imgs)} 张, 模型 {selected_model}")
+        
+        if model_mode == "local":
+            status, result = _call_local_model(combined_text, all_imgs, batch_prompt, route_info)
+        else:
+            if selected_model == MODEL_LONG:
+                estimated_tokens = len(combined_text) // 3.5
+                messages = build_messages_for_long(combined_text, prompt=batch_prompt)
+            else:
+                estimated_tokens = len(combined_text) // 3.5 + len(all_imgs) * 1000
+                messages = [
+                    {"role": "system", "content": [{"text": batch_prompt}]},
+                    {"role": "user", "content": user_content}
+                ]
+            status, result = _call_cloud_model(combined_text, all_imgs, batch_prompt, selected_model, route_info,
+                                               estimated_tokens, messages=messages)
+        
+        if status != "success":
+            return status, result
+        
+        # 按文档编号拆分，路由信息复制到每份文档的结果中
+        model_route = result.pop("_model_route", None)
+        local_model = result.pop("_local_model", None)
+        per_doc = {}
+        for key, _, _ in docs:
+            doc_result = result.get(key)
+            if not isinstance(doc_result, dict):
+                logger.warning(f"合并提取结果中缺少文档 {key}")
+                continue
+            if model_route:
+                doc_result["_model_route"] = dict(model_route, batch_size=len(docs))
+            if local_model:
+                doc_result["_local_model"] = local_model
+            per_doc[key] = doc_result
+        return "success", per_doc
+    
+    except Exception as e:
+        logger.error(f"合并提取失败: {e}")
+        return "error", str(e)
+
+
 def _call_local_model(text: str, abs_imgs: list, prompt: str, route_info: dict) -> tuple:
     """调用本地模型"""
     try:
@@ -577,22 +722,26 @@ def _call_local_model(text: str, abs_imgs: list, prompt: str, route_info: dict)
 
 
 def _call_cloud_model(text: str, abs_imgs: list, prompt: str, selected_model: str, 
-                       route_info: dict, estimated_tokens: int) -> tuple:
-    """调用云端模型（DashScope API）"""
+                       route_info: dict, estimated_tokens: int, messages: list = None) -> tuple:
+    """调用云端模型（DashScope API），messages 不为空时直接使用（合并多个文档时图文需要交错排列）"""
     # 添加重试机制
     max_retries = 3
     rsp = None
     for attempt in range(max_retries):
+        remaining = remaining_seconds()
+        if remaining is not None and remaining <= 0:
+            raise RuntimeError("已超过任务截止时间，停止调用模型")
         try:
             wait_for_tokens(estimated_tokens)
             
-            # 根据模型类型构建不同的消息格式
-            if selected_model == MODEL_LONG:
-                # qwen-long 使用简单文本格式
-                messages = build_messages_for_long(text, prompt=prompt)
-            else:
-                # qwen-vl 使用多模态格式
-                messages = build_messages(text, abs_imgs, prompt=prompt)
+            # 根据模型类型构建不同的消息格式（调用方已构建时直接使用）
+            if messages is None:
+                if selected_model == MODEL_LONG:
+                    # qwen-long 使用简单文本格式
+                    messages = build_messages_for_long(text, prompt=prompt)
+                else:
+                    # qwen-vl 使用多模态格式
+                    messages = build_messages(text, abs_imgs, prompt=prompt)
             
             rsp = MultiModalConversation.call(
                 model=selected_model,
@@ -600,6 +749,7 @@ def _call_cloud_model(text: str, abs_imgs: list, prompt: str, selected_model: st
                 temperature=0,
                 response_format={"type": "json_object"}
             )
+            record_token_usage(rsp)
             if rsp.status_code == 200:
                 break  # 成功则退出重试循环
             else:
@@ -608,6 +758,10 @@ def _call_cloud_model(text: str, abs_imgs: list, prompt: str, selected_model: st
             logger.warning(f"API调用失败 (尝试 {attempt+1}/{max_retries}): {str(e)}")
             if attempt < max_retries - 1:
                 wait_time = 2 ** attempt  # 指数退避
+                remaining = remaining_seconds()
+                if remaining is not None and remaining <= wait_time:
+                    logger.warning("剩余时间不足，不再重试")
+                    break
                 logger.info(f"等待 {wait_time} 秒后重试...")
                 time.sleep(wait_time)
     